@@ -0,0 +1,131 @@
+package com.example.alessandro.vignette.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RadialGradient;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.test.AndroidTestCase;
+
+import com.example.alessandro.vignette.core.FalloffTable;
+import com.example.alessandro.vignette.core.VignetteKernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Skia backends must draw (within the gradient interpolation and dithering)
+ * the same mask as the kernel. Runs on a device, the gradient is drawn by Skia.
+ *
+ * @author alessandro
+ */
+public class CanvasMaskRendererTest extends AndroidTestCase {
+
+	private static final int WIDTH = 120;
+	private static final int HEIGHT = 90;
+
+	/** Skia interpolates and dithers the gradient */
+	private static final int GRADIENT_TOLERANCE = 8;
+
+	private static final float FEATHER = 0.5f;
+	private static final int INTENSITY = 80;
+
+	private final RectF mOval = new RectF(10, 8, 110, 80);
+
+	private MaskRenderer mRenderer;
+	private List<VignetteMask> mMasks;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mRenderer = new SoftwareLayerMaskRenderer();
+
+		final Paint background = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+		background.setColor(Color.BLACK);
+		background.setAlpha(VignetteKernel.intensityToAlpha(INTENSITY));
+
+		final Shader shader = new RadialGradient(
+			0, 0, 1, new int[]{0xff000000, 0xff000000, 0}, new float[]{0, FEATHER, 1}, Shader.TileMode.CLAMP);
+		final Matrix matrix = new Matrix();
+		matrix.postTranslate(mOval.centerX(), mOval.centerY());
+		matrix.postScale(mOval.width() / 2, mOval.height() / 2, mOval.centerX(), mOval.centerY());
+		shader.setLocalMatrix(matrix);
+
+		final Paint punch = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+		punch.setShader(shader);
+		punch.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+
+		final VignetteMask mask = new VignetteMask();
+		mask.bitmapRect.set(0, 0, WIDTH, HEIGHT);
+		mask.ovalRect.set(mOval);
+		mask.ovalPath.addOval(mOval, android.graphics.Path.Direction.CW);
+		mask.backgroundPaint = background;
+		mask.shaderPaint = punch;
+		mask.falloff = new FalloffTable(FEATHER, INTENSITY);
+
+		mMasks = new ArrayList<VignetteMask>();
+		mMasks.add(mask);
+	}
+
+	public void testMatchesKernel() {
+		final int[] pixels = render(MaskQuality.Full, WIDTH, HEIGHT);
+
+		final int[] expected = new int[WIDTH * HEIGHT];
+		VignetteKernel.fromOval(mOval.left, mOval.top, mOval.right, mOval.bottom, mMasks.get(0).falloff)
+			.renderMask(expected, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+		for (int i = 0; i < expected.length; i++) {
+			final int delta = Math.abs((expected[i] >>> 24) - (pixels[i] >>> 24));
+			if (delta > GRADIENT_TOLERANCE) {
+				fail(String.format("at %dx%d: expected alpha %d, was %d", i % WIDTH, i / WIDTH, expected[i] >>> 24, pixels[i] >>> 24));
+			}
+		}
+	}
+
+	public void testCenterAndCorners() {
+		final int alpha = VignetteKernel.intensityToAlpha(INTENSITY);
+		final int[] pixels = render(MaskQuality.Full, WIDTH, HEIGHT);
+
+		assertEquals(alpha, pixels[0] >>> 24);
+		assertEquals(alpha, pixels[HEIGHT * WIDTH - 1] >>> 24);
+		assertEquals(0, pixels[(int) mOval.centerY() * WIDTH + (int) mOval.centerX()] >>> 24);
+	}
+
+	public void testReducedQuality() {
+		final MaskQuality quality = MaskQuality.Quarter;
+		final int width = (WIDTH + quality.sampleSize - 1) / quality.sampleSize;
+		final int height = (HEIGHT + quality.sampleSize - 1) / quality.sampleSize;
+		final int[] pixels = render(quality, width, height);
+
+		// the whole mask is drawn into the smaller bitmap
+		assertEquals(VignetteKernel.intensityToAlpha(INTENSITY), pixels[0] >>> 24);
+		assertEquals(VignetteKernel.intensityToAlpha(INTENSITY), pixels[width * height - 1] >>> 24);
+		assertEquals(0, pixels[(int) (mOval.centerY() / quality.sampleSize) * width + (int) (mOval.centerX() / quality.sampleSize)] >>> 24);
+	}
+
+	public void testPaintFlagsAreRestored() {
+		final VignetteMask mask = mMasks.get(0);
+		final int backgroundFlags = mask.backgroundPaint.getFlags();
+		final int shaderFlags = mask.shaderPaint.getFlags();
+
+		render(MaskQuality.Quarter, WIDTH / 4, HEIGHT / 4);
+
+		assertEquals(backgroundFlags, mask.backgroundPaint.getFlags());
+		assertEquals(shaderFlags, mask.shaderPaint.getFlags());
+	}
+
+	private int[] render(final MaskQuality quality, final int width, final int height) {
+		final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		mRenderer.render(new Canvas(bitmap), bitmap, mMasks, quality);
+
+		final int[] pixels = new int[width * height];
+		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		bitmap.recycle();
+		return pixels;
+	}
+}
@@ -0,0 +1,138 @@
+package com.example.alessandro.vignette.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+
+import com.example.alessandro.vignette.core.FalloffTable;
+import com.example.alessandro.vignette.core.MultiVignetteKernel;
+import com.example.alessandro.vignette.core.VignetteKernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The cpu backend must draw exactly what the core kernels compute.<br />
+ * Instrumentation test: Bitmap is final and backed by native code, it can't be stubbed on the JVM.
+ *
+ * @author alessandro
+ */
+public class CpuKernelMaskRendererTest extends AndroidTestCase {
+
+	private static final int WIDTH = 120;
+	private static final int HEIGHT = 90;
+
+	private CpuKernelMaskRenderer mRenderer;
+	private List<VignetteMask> mMasks;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mRenderer = new CpuKernelMaskRenderer();
+		mMasks = new ArrayList<VignetteMask>();
+		mMasks.add(createMask(10, 8, 110, 80, 20, 0.2f, - 0.1f, new FalloffTable(0.5f, 80)));
+	}
+
+	public void testSingleMask() {
+		final int[] pixels = render(MaskQuality.Full);
+
+		final int[] expected = new int[WIDTH * HEIGHT];
+		createKernel(mMasks.get(0), 1).renderMask(expected, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+		assertPixels(expected, pixels);
+	}
+
+	public void testMultipleMasks() {
+		mMasks.add(createMask(20, 20, 60, 50, 0, 0, 0, new FalloffTable(0.3f, - 60, true)));
+		mMasks.add(createMask(50, 30, 100, 70, 45, 0, 0, new FalloffTable(0.6f, 40, true)));
+
+		final int[] pixels = render(MaskQuality.Full);
+
+		final int[] expected = new int[WIDTH * HEIGHT];
+		new MultiVignetteKernel(createKernel(mMasks.get(0), 1), createKernel(mMasks.get(1), 1), createKernel(mMasks.get(2), 1))
+			.renderMask(expected, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+		assertPixels(expected, pixels);
+	}
+
+	public void testReusedKernelsFollowTheMasks() {
+		mMasks.add(createMask(20, 20, 60, 50, 0, 0, 0, new FalloffTable(0.3f, - 60, true)));
+		render(MaskQuality.Full);
+
+		// move the main mask and drop the spot: the cached kernels must not be used
+		mMasks.get(0).ovalRect.offset(7, - 3);
+		mMasks.remove(1);
+		final int[] pixels = render(MaskQuality.Full);
+
+		final int[] expected = new int[WIDTH * HEIGHT];
+		createKernel(mMasks.get(0), 1).renderMask(expected, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+		assertPixels(expected, pixels);
+	}
+
+	public void testReducedQuality() {
+		final MaskQuality quality = MaskQuality.Quarter;
+		final int width = (WIDTH + quality.sampleSize - 1) / quality.sampleSize;
+		final int height = (HEIGHT + quality.sampleSize - 1) / quality.sampleSize;
+
+		final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		mRenderer.render(new Canvas(bitmap), bitmap, mMasks, quality);
+
+		final int[] pixels = new int[width * height];
+		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		bitmap.recycle();
+
+		// the kernel is evaluated in the smaller bitmap space
+		final int[] expected = new int[width * height];
+		createKernel(mMasks.get(0), 1f / quality.sampleSize).renderMask(expected, 0, width, 0, 0, width, height);
+		assertPixels(expected, pixels);
+	}
+
+	public void testOutsideBitmapRectIsTransparent() {
+		mMasks.get(0).bitmapRect.set(20, 10, 100, 70);
+		final int[] pixels = render(MaskQuality.Full);
+
+		assertEquals(0, pixels[0]);
+		assertEquals(0, pixels[(HEIGHT - 1) * WIDTH + WIDTH - 1]);
+		assertEquals(0, pixels[40 * WIDTH + 10]);
+		assertTrue(pixels[15 * WIDTH + 25] >>> 24 > 0);
+	}
+
+	private int[] render(final MaskQuality quality) {
+		final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+		mRenderer.render(new Canvas(bitmap), bitmap, mMasks, quality);
+
+		final int[] pixels = new int[WIDTH * HEIGHT];
+		bitmap.getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+		bitmap.recycle();
+		return pixels;
+	}
+
+	static VignetteMask createMask(
+		final float left, final float top, final float right, final float bottom, final float rotation, final float focalX,
+		final float focalY, final FalloffTable falloff) {
+		final VignetteMask mask = new VignetteMask();
+		mask.bitmapRect.set(0, 0, WIDTH, HEIGHT);
+		mask.ovalRect.set(left, top, right, bottom);
+		mask.rotation = rotation;
+		mask.focalX = focalX;
+		mask.focalY = focalY;
+		mask.falloff = falloff;
+		return mask;
+	}
+
+	private static VignetteKernel createKernel(final VignetteMask mask, final float scale) {
+		return VignetteKernel.fromOval(
+			mask.ovalRect.left * scale, mask.ovalRect.top * scale, mask.ovalRect.right * scale, mask.ovalRect.bottom * scale,
+			mask.rotation, mask.focalX, mask.focalY, mask.falloff);
+	}
+
+	/**
+	 * Black and white overlays survive the premultiplied bitmap unchanged
+	 */
+	private static void assertPixels(final int[] expected, final int[] actual) {
+		for (int i = 0; i < expected.length; i++) {
+			final int value = (expected[i] >>> 24) == 0 ? 0 : expected[i];
+			if (value != actual[i]) {
+				fail(String.format("at %d: expected %08x, was %08x", i, value, actual[i]));
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.example.alessandro.vignette.render;
+
+import android.test.AndroidTestCase;
+
+import com.example.alessandro.vignette.core.Log2Histogram;
+
+/**
+ * Instrumentation test: the allocation counting goes through android.os.Debug.
+ * The histograms themselves are tested in core.
+ *
+ * @author alessandro
+ */
+public class RenderStatsTest extends AndroidTestCase {
+
+	private static final String EMPTY_HISTOGRAM =
+		"{\"count\":0,\"mean\":0,\"max\":0,\"p50\":0,\"p90\":0,\"p99\":0,\"buckets\":{}}";
+
+	public void testRecord() {
+		final RenderStats stats = new RenderStats();
+		final long start = System.nanoTime() - 1000000;
+		final long now = stats.record(RenderStats.Phase.Mask, start);
+
+		final Log2Histogram histogram = stats.getHistogram(RenderStats.Phase.Mask);
+		assertEquals(1, histogram.getCount());
+		assertEquals(now - start, histogram.getSum());
+		assertTrue(histogram.getMax() >= 1000000);
+		assertEquals(0, stats.getHistogram(RenderStats.Phase.Frame).getCount());
+	}
+
+	public void testEmptyJson() {
+		final String phase = "\":" + EMPTY_HISTOGRAM;
+		assertEquals(
+			"{\"phases\":{\"Image" + phase + ",\"Mask" + phase + ",\"Controls" + phase + ",\"Frame" + phase + "}"
+			+ ",\"shaderRebuilds\":0,\"maskRenders\":0,\"gestures\":0,\"gestureAllocations\":" + EMPTY_HISTOGRAM + "}",
+			new RenderStats().toJson());
+	}
+
+	public void testJson() {
+		final RenderStats stats = new RenderStats();
+		stats.getHistogram(RenderStats.Phase.Frame).record(3000);
+		stats.countShaderRebuild();
+		stats.countMaskRender();
+		stats.countMaskRender();
+		stats.onGestureStart();
+		stats.onGestureEnd();
+
+		final String json = stats.toJson();
+		assertTrue(json, json.contains(
+			"\"Frame\":{\"count\":1,\"mean\":3000,\"max\":3000,\"p50\":3000,\"p90\":3000,\"p99\":3000,"
+			+ "\"buckets\":{\"4096\":1}}"));
+		assertTrue(json, json.endsWith(
+			",\"shaderRebuilds\":1,\"maskRenders\":2,\"gestures\":1,\"gestureAllocations\":" + EMPTY_HISTOGRAM + "}"));
+
+		stats.reset();
+		assertEquals(new RenderStats().toJson(), stats.toJson());
+	}
+
+	public void testGestureAllocations() {
+		final RenderStats stats = new RenderStats(true);
+		try {
+			stats.onGestureStart();
+			final Object[] objects = new Object[16];
+			for (int i = 0; i < objects.length; i++) {
+				objects[i] = new Object();
+			}
+			stats.onGestureEnd();
+
+			final Log2Histogram allocations = stats.getGestureAllocations();
+			assertEquals(1, allocations.getCount());
+			assertTrue(allocations.getMax() >= objects.length);
+		} finally {
+			stats.release();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.example.alessandro.vignette;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.alessandro.vignette.core.BatchProcessor;
+import com.example.alessandro.vignette.core.PixelBuffer;
+import com.example.alessandro.vignette.log.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes image files for the {@link BatchProcessor}: every input file is
+ * decoded at full resolution and the result is saved, with the same name,
+ * into the output directory.
+ *
+ * @author alessandro
+ */
+public class BitmapBatchCodec implements BatchProcessor.Decoder<File>, BatchProcessor.Encoder<File> {
+
+	private static final String TAG = "BitmapBatchCodec";
+	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
+
+	private final File mOutputDir;
+	private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+	private int mQuality = 90;
+
+	public BitmapBatchCodec(File outputDir) {
+		mOutputDir = outputDir;
+	}
+
+	public void setOutputFormat(Bitmap.CompressFormat format, int quality) {
+		mFormat = format;
+		mQuality = quality;
+	}
+
+	public File getOutputFile(File input) {
+		return new File(mOutputDir, input.getName());
+	}
+
+	@Override
+	public PixelBuffer decode(final File input) throws Exception {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+		final Bitmap bitmap = BitmapFactory.decodeFile(input.getAbsolutePath(), options);
+		if (null == bitmap) {
+			throw new IOException("cannot decode " + input);
+		}
+
+		try {
+			final int width = bitmap.getWidth();
+			final int height = bitmap.getHeight();
+			final PixelBuffer buffer = PixelBuffer.obtain(width, height);
+			bitmap.getPixels(buffer.pixels, 0, width, 0, 0, width, height);
+			return buffer;
+		} finally {
+			bitmap.recycle();
+		}
+	}
+
+	@Override
+	public void encode(final File input, final PixelBuffer image) throws Exception {
+		if (! mOutputDir.isDirectory() && ! mOutputDir.mkdirs()) {
+			throw new IOException("cannot create " + mOutputDir);
+		}
+
+		final Bitmap bitmap = Bitmap.createBitmap(image.pixels, 0, image.width, image.width, image.height, Bitmap.Config.ARGB_8888);
+		final File output = getOutputFile(input);
+		final OutputStream stream = new BufferedOutputStream(new FileOutputStream(output));
+
+		try {
+			if (! bitmap.compress(mFormat, mQuality, stream)) {
+				throw new IOException("cannot encode " + output);
+			}
+		} finally {
+			stream.close();
+			bitmap.recycle();
+		}
+
+		logger.log("encoded: %s", output);
+	}
+}
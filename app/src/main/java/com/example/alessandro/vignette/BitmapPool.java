@@ -0,0 +1,104 @@
+package com.example.alessandro.vignette;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+import com.example.alessandro.vignette.core.SizeBucketedPool;
+import com.example.alessandro.vignette.log.LoggerFactory;
+
+/**
+ * Pool of mutable bitmaps, bucketed by allocation size.<br />
+ * On API 19 any bitmap with a large enough allocation can be reconfigured to a
+ * new size, or passed as {@link BitmapFactory.Options#inBitmap} to the decoder.
+ *
+ * @author alessandro
+ */
+public class BitmapPool extends SizeBucketedPool<Bitmap> {
+
+	private static final String TAG = "BitmapPool";
+	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
+
+	private static BitmapPool sInstance;
+
+	public BitmapPool(long maxBytes) {
+		super(maxBytes);
+	}
+
+	/**
+	 * Shared pool, with a budget of 1/8 of the heap
+	 */
+	public static synchronized BitmapPool getInstance() {
+		if (null == sInstance) {
+			sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Returns a cleared, mutable bitmap of the given size, pooled or new
+	 */
+	public Bitmap obtain(int width, int height, Bitmap.Config config) {
+		final Bitmap bitmap = acquire(width, height, config);
+		if (null != bitmap) {
+			bitmap.eraseColor(Color.TRANSPARENT);
+			return bitmap;
+		}
+		return Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Sets a pooled bitmap as inBitmap for a decode of the given (already sampled) size.
+	 * Once decoded, the caller must check if the returned bitmap is the one passed as inBitmap
+	 * and, if the decode failed, {@link #release(Bitmap)} it.
+	 */
+	public void prepareOptions(BitmapFactory.Options options, int width, int height) {
+		final Bitmap.Config config = null != options.inPreferredConfig ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+		options.inMutable = true;
+		options.inBitmap = acquire(width, height, config);
+	}
+
+	/**
+	 * Returns a pooled bitmap reconfigured to the given size, or null
+	 */
+	private Bitmap acquire(int width, int height, Bitmap.Config config) {
+		final Bitmap bitmap = acquire(width * height * bytesPerPixel(config));
+		if (null != bitmap) {
+			bitmap.reconfigure(width, height, config);
+		}
+		return bitmap;
+	}
+
+	@Override
+	public void release(final Bitmap bitmap) {
+		if (null == bitmap) return;
+
+		if (bitmap.isRecycled() || ! bitmap.isMutable()) {
+			logger.warn("cannot pool bitmap (recycled: %b, mutable: %b)", bitmap.isRecycled(), bitmap.isMutable());
+			return;
+		}
+		super.release(bitmap);
+	}
+
+	@Override
+	protected int sizeOf(final Bitmap item) {
+		return item.getAllocationByteCount();
+	}
+
+	@Override
+	protected void onEvicted(final Bitmap item) {
+		item.recycle();
+	}
+
+	private static int bytesPerPixel(Bitmap.Config config) {
+		switch (config) {
+			case ALPHA_8:
+				return 1;
+			case RGB_565:
+			case ARGB_4444:
+				return 2;
+			default:
+				return 4;
+		}
+	}
+}
@@ -1,54 +1,83 @@
 package com.example.alessandro.vignette;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.RadialGradient;
 import android.graphics.RectF;
 import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
-import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.FloatMath;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 
+import com.example.alessandro.vignette.core.FalloffTable;
+import com.example.alessandro.vignette.core.HandleHitTester;
+import com.example.alessandro.vignette.core.MultiVignetteKernel;
+import com.example.alessandro.vignette.core.RenderCache;
+import com.example.alessandro.vignette.core.VignetteGeometry;
+import com.example.alessandro.vignette.core.VignetteGeometry.Handle;
+import com.example.alessandro.vignette.core.VignetteKernel;
+import com.example.alessandro.vignette.core.VignetteParams;
+import com.example.alessandro.vignette.core.VignetteParamsCodec;
 import com.example.alessandro.vignette.log.LoggerFactory;
+import com.example.alessandro.vignette.render.CpuKernelMaskRenderer;
+import com.example.alessandro.vignette.render.MaskQuality;
+import com.example.alessandro.vignette.render.MaskRenderer;
+import com.example.alessandro.vignette.render.RenderStats;
+import com.example.alessandro.vignette.render.VignetteMask;
 import com.nineoldandroids.animation.Animator;
 import com.nineoldandroids.animation.ObjectAnimator;
 
 import it.sephiroth.android.library.imagezoom.ImageViewTouch;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 public class ImageViewVignette extends ImageViewTouch {
 
 	private static final String TAG = "ImageViewVignette";
 	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
 	private float mFeather = 0.7f;
+	private int mIntensity;
 
-	static enum TouchState {
-		None, Center, Left, Top, Right, Bottom, TopLeft, TopRight, BottomLeft, BottomRight
-	}
+	/** falloff used by the cpu renderers, rebuilt only when feather or intensity change */
+	private FalloffTable mFalloffTable;
 
 	/** lenght of the control point arc */
 	private static final int SWEEP_ANGLE = 8;
 
 	/** position of the control point on the ellipse */
 	private static final float RAD = (float) Math.toRadians(45);
+	private static final float COS_RAD = (float) Math.cos(RAD);
+	private static final float SIN_RAD = (float) Math.sin(RAD);
 
 	private static final int FADEOUT_DELAY = 3000;
 
+	/** default idle time after which a low quality mask is refined during a drag, in ms */
+	public static final long DEFAULT_MASK_REFINE_DELAY = 150;
+
+	/** max number of masks, main vignette included */
+	public static final int MAX_MASKS = 8;
+
 	private float sControlPointTolerance = 20;
 	private float sControlPointSize = 12;
 	private float sArcDistance = 10;
 	private float sGradientInset = 100;
+	private float sRotateHandleDistance = 40;
 
 	private final RectF pBitmapRect = new RectF();
 
@@ -56,11 +85,29 @@ public class ImageViewVignette extends ImageViewTouch {
 
 	private Paint mVignettePaint;
 	private Paint mControlPointPaint;
+	private Paint mControlPointFillPaint;
 	private Paint mBlackPaint;
 	private final Paint mPaint = new Paint();
 
+	/** the vignette relative to the image, null until the first layout */
+	private VignetteParams mParams;
+
+	/** the vignette in view coordinates, always derived from mParams */
 	private RectF mVignetteRect;
-	private TouchState mTouchState;
+	private Handle mTouchState;
+
+	private final float[] mImageBounds = new float[4];
+	private final float[] mOvalBounds = new float[4];
+
+	/** vignette rect being dragged, see VignetteGeometry */
+	private final float[] mDragBounds = new float[4];
+
+	/** rotation of the vignette around its center, and its inverse used to map the touches */
+	private final Matrix mRotationMatrix = new Matrix();
+	private final Matrix mInverseRotationMatrix = new Matrix();
+	private final float[] mTouchPoint = new float[2];
+	private float mLastTouchX;
+	private float mLastTouchY;
 
 	final RectF tempRect = new RectF();
 	final RectF tempRect2 = new RectF();
@@ -69,9 +116,66 @@ public class ImageViewVignette extends ImageViewTouch {
 	private Paint mPaintShader;
 	private Matrix mGradientMatrix;
 
+	/** composited mask (background + oval), redrawn only when the vignette changes */
+	private Bitmap mMaskBitmap;
+	private Canvas mMaskCanvas;
+	private boolean mMaskDirty = true;
+	private final VignetteMask mMask = new VignetteMask();
+
+	/** progressive refinement: while dragging the mask is rendered into a smaller draft bitmap */
+	private MaskQuality mGestureMaskQuality = MaskQuality.Full;
+	private MaskQuality mMaskQuality = MaskQuality.Full;
+	private Bitmap mDraftMaskBitmap;
+	private Canvas mDraftMaskCanvas;
+	private final Paint mDraftMaskPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private boolean mInteracting;
+	private long mMaskRefineDelay = DEFAULT_MASK_REFINE_DELAY;
+
+	private final Runnable mRefineMaskRunnable = new Runnable() {
+		@Override
+		public void run() {
+			refineMask();
+		}
+	};
+
+	/** main vignette first, then the additional masks */
+	private final List<VignetteMask> mMasks = new ArrayList<VignetteMask>(MAX_MASKS);
+	private final List<MaskLayer> mLayers = new ArrayList<MaskLayer>(MAX_MASKS - 1);
+	private MaskRenderer mMaskRenderer;
+	private MaskRenderer mFocalMaskRenderer;
+
+	/** null unless the render stats are enabled */
+	private RenderStats mRenderStats;
+	private boolean mHardwareAccelerationRequested = true;
+
+	/** control points overlay, rebuilt only when the vignette rect changes */
+	private final Path mControlStrokePath = new Path();
+	private final Path mControlFillPath = new Path();
+	private final RectF mControlPathRect = new RectF();
+
+	/** control points hit test, rebuilt only when the vignette rect changes */
+	private final HandleHitTester mHitTester = new HandleHitTester(Handle.values().length);
+	private final RectF mHitTestRect = new RectF();
+
 	Animator mFadeInAnimator;
 	Animator mFadeOutAnimator;
 
+	/** scroll coalescing: deltas are accumulated and applied once per frame */
+	private boolean mScrollCoalescingEnabled;
+	private boolean mScrollFramePosted;
+	private float mPendingScrollX;
+	private float mPendingScrollY;
+	private int mScrollEventCount;
+	private int mScrollUpdateCount;
+
+	private final Choreographer.FrameCallback mScrollFrameCallback = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(final long frameTimeNanos) {
+			mScrollFramePosted = false;
+			flushPendingScroll();
+		}
+	};
+
 	public ImageViewVignette(final Context context, final AttributeSet attrs) {
 		this(context, attrs, 0);
 	}
@@ -95,6 +199,9 @@ public class ImageViewVignette extends ImageViewTouch {
 		mControlPointPaint = new Paint(mVignettePaint);
 		mControlPointPaint.setStrokeWidth(dp2px(metrics.density, 1.5f));
 
+		mControlPointFillPaint = new Paint(mControlPointPaint);
+		mControlPointFillPaint.setStyle(Paint.Style.FILL);
+
 		mBlackPaint = new Paint();
 		mBlackPaint.setAntiAlias(true);
 		mBlackPaint.setFilterBitmap(false);
@@ -112,13 +219,18 @@ public class ImageViewVignette extends ImageViewTouch {
 		mPaintShader.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
 		updateGradientShader(0.7f, mPaintShader);
 
-		mTouchState = TouchState.None;
+		mMask.backgroundPaint = mBlackPaint;
+		mMask.shaderPaint = mPaintShader;
+		mMasks.add(mMask);
+
+		mTouchState = Handle.None;
 
 		sControlPointSize = dp2px(metrics.density, 4);
 		sControlPointTolerance = sControlPointTolerance * 1.5f;
 
 		sArcDistance = dp2px(metrics.density, 3);
 		sGradientInset = dp2px(metrics.density, 0);
+		sRotateHandleDistance = dp2px(metrics.density, 24);
 
 		setHardwareAccelerated(true);
 
@@ -132,29 +244,78 @@ public class ImageViewVignette extends ImageViewTouch {
 		logger.verbose("sGradientInset: %f", sGradientInset);
 	}
 
+	/**
+	 * Selects the mask renderer according to the view capabilities.
+	 * Hardware acceleration can only be detected once the view is attached,
+	 * so the choice is repeated in {@link #onAttachedToWindow()}.
+	 */
 	public void setHardwareAccelerated(boolean accelerated) {
-		if (accelerated) {
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-				if (isHardwareAccelerated()) {
-					Paint hardwarePaint = new Paint();
-					hardwarePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.OVERLAY));
-					setLayerType(LAYER_TYPE_HARDWARE, hardwarePaint);
-				}
-				else {
-					setLayerType(LAYER_TYPE_SOFTWARE, null);
-				}
-			}
-			else {
-				setDrawingCacheEnabled(true);
-			}
+		mHardwareAccelerationRequested = accelerated;
+		setMaskRenderer(MaskRenderer.select(this, accelerated));
+	}
+
+	/**
+	 * Forces a specific mask renderer (i.e. {@link CpuKernelMaskRenderer})
+	 */
+	public void setMaskRenderer(MaskRenderer renderer) {
+		if (null != mMaskRenderer && mMaskRenderer.getClass() == renderer.getClass()) return;
+
+		logger.info("setMaskRenderer: %s", renderer.getName());
+		mMaskRenderer = renderer;
+		mMaskRenderer.onAttached(this);
+		mMaskDirty = true;
+		invalidate();
+	}
+
+	public MaskRenderer getMaskRenderer() {
+		return mMaskRenderer;
+	}
+
+	/**
+	 * Quality of the mask while the vignette is being dragged. With anything but
+	 * {@link MaskQuality#Full} the mask is rendered at a reduced resolution and scaled up,
+	 * then rendered again at full quality after the gesture ends or stays idle for
+	 * {@link #setMaskRefineDelay(long)}.
+	 */
+	public void setGestureMaskQuality(MaskQuality quality) {
+		mGestureMaskQuality = quality;
+		refineMask();
+	}
+
+	public MaskQuality getGestureMaskQuality() {
+		return mGestureMaskQuality;
+	}
+
+	/**
+	 * Idle time after which the mask is rendered at full quality during a drag, in ms
+	 */
+	public void setMaskRefineDelay(long delay) {
+		mMaskRefineDelay = delay;
+	}
+
+	public long getMaskRefineDelay() {
+		return mMaskRefineDelay;
+	}
+
+	/**
+	 * Enables the frame timing and render cost stats, null disables them
+	 */
+	public void setRenderStats(RenderStats stats) {
+		if (null != mRenderStats && mRenderStats != stats) {
+			mRenderStats.release();
 		}
-		else {
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-				setLayerType(LAYER_TYPE_SOFTWARE, null);
-			}
-			else {
-				setDrawingCacheEnabled(true);
-			}
+		mRenderStats = stats;
+	}
+
+	public RenderStats getRenderStats() {
+		return mRenderStats;
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		if (! (mMaskRenderer instanceof CpuKernelMaskRenderer)) {
+			setHardwareAccelerated(mHardwareAccelerationRequested);
 		}
 	}
 
@@ -177,10 +338,83 @@ public class ImageViewVignette extends ImageViewTouch {
 		postInvalidate();
 	}
 
+	/**
+	 * Rotation of the vignette around its center, in degrees (clockwise)
+	 */
+	public void setVignetteRotation(float degrees) {
+		if (null == mParams) return;
+		mParams = mParams.withRotation(degrees);
+		updateGradientMatrix(mVignetteRect);
+		postInvalidate();
+	}
+
+	public float getVignetteRotation() {
+		return null != mParams ? mParams.rotation : 0;
+	}
+
+	/**
+	 * Moves the falloff focal point away from the ellipse center.
+	 * Only the cpu kernel can draw it: while the focal point is offset the mask
+	 * is rendered by a {@link CpuKernelMaskRenderer}.
+	 *
+	 * @param x focal point, relative to the horizontal radius (0 is the center)
+	 * @param y focal point, relative to the vertical radius (0 is the center)
+	 */
+	public void setVignetteFocalPoint(float x, float y) {
+		if (null == mParams) return;
+		mParams = mParams.withFocalPoint(x, y);
+		mMaskDirty = true;
+		postInvalidate();
+	}
+
+	/**
+	 * Adds a mask over the main vignette, i.e. a bright spot ({@link VignetteParams#inverted}).
+	 * All the masks are composited into the same mask bitmap, without extra layers.
+	 *
+	 * @return false if the view already has {@link #MAX_MASKS} masks
+	 */
+	public boolean addMask(VignetteParams params) {
+		if (mMasks.size() >= MAX_MASKS) return false;
+
+		final MaskLayer layer = new MaskLayer(params);
+		if (null != mRenderStats) mRenderStats.countShaderRebuild();
+		mLayers.add(layer);
+		mMasks.add(layer.mask);
+		mMaskDirty = true;
+		postInvalidate();
+		return true;
+	}
+
+	public void removeMask(int index) {
+		final MaskLayer layer = mLayers.remove(index);
+		mMasks.remove(layer.mask);
+		mMaskDirty = true;
+		postInvalidate();
+	}
+
+	public void clearMasks() {
+		mLayers.clear();
+		mMasks.clear();
+		mMasks.add(mMask);
+		mMaskDirty = true;
+		postInvalidate();
+	}
+
+	/**
+	 * Number of masks added with {@link #addMask(VignetteParams)}
+	 */
+	public int getMaskCount() {
+		return mLayers.size();
+	}
+
+	public VignetteParams getMask(int index) {
+		return mLayers.get(index).params;
+	}
+
 	public int getVignetteIntensity() {
 		int alpha = (int) (mBlackPaint.getAlpha() / 2.55);
 		int red = Color.red(mBlackPaint.getColor());
-		logger.log("alpha: %d, red: %d", alpha, red);
+		if (logger.isLogEnabled()) logger.log("alpha: %d, red: %d", alpha, red);
 		if (red == 0) {
 			return alpha;
 		}
@@ -189,6 +423,45 @@ public class ImageViewVignette extends ImageViewTouch {
 		}
 	}
 
+	/**
+	 * Creates a new {@link VignetteExporter} with the current vignette, and all the
+	 * additional masks, mapped into the space of a bitmap of the given size.
+	 *
+	 * @return the exporter, or null if there's no vignette to export
+	 */
+	public VignetteExporter createExporter(int bitmapWidth, int bitmapHeight) {
+		if (null == mParams) return null;
+
+		logger.log("createExporter: %dx%d, params: %s, masks: %d", bitmapWidth, bitmapHeight, mParams, mLayers.size());
+
+		final VignetteKernel[] kernels = new VignetteKernel[mLayers.size() + 1];
+		kernels[0] = mParams.toKernel(bitmapWidth, bitmapHeight, mFalloffTable);
+		for (int i = 0; i < mLayers.size(); i++) {
+			final MaskLayer layer = mLayers.get(i);
+			kernels[i + 1] = layer.params.toKernel(bitmapWidth, bitmapHeight, layer.mask.falloff);
+		}
+		return new VignetteExporter(new MultiVignetteKernel(kernels), VignetteExporter.DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Same as {@link #createExporter(int, int)}, the exporter reading and storing
+	 * the rendered bitmap in the given cache
+	 *
+	 * @param sourceId id of the exported image, see {@link RenderCache#key(String, int, int, List)}
+	 */
+	public VignetteExporter createExporter(int bitmapWidth, int bitmapHeight, RenderCache cache, String sourceId) {
+		final VignetteExporter exporter = createExporter(bitmapWidth, bitmapHeight);
+		if (null != exporter) {
+			final List<VignetteParams> params = new ArrayList<VignetteParams>(mLayers.size() + 1);
+			params.add(mParams);
+			for (int i = 0; i < mLayers.size(); i++) {
+				params.add(mLayers.get(i).params);
+			}
+			exporter.setCache(cache, RenderCache.key(sourceId, bitmapWidth, bitmapHeight, params));
+		}
+		return exporter;
+	}
+
 	@Override
 	protected GestureDetector.OnGestureListener getGestureListener() {
 		return new MyGestureListener();
@@ -218,99 +491,275 @@ public class ImageViewVignette extends ImageViewTouch {
 
 	@Override
 	protected void onDraw(final Canvas canvas) {
+		final RenderStats stats = mRenderStats;
+		final long frameStart = null != stats ? System.nanoTime() : 0;
+
 		super.onDraw(canvas);
 
+		long time = null != stats ? stats.record(RenderStats.Phase.Image, frameStart) : 0;
+
 		if (! mVignetteRect.isEmpty()) {
 
 			// ------------
 			// shader
 			// ------------
 
-			// save current status
-			canvas.saveLayer(pBitmapRect, mPaint, Canvas.ALL_SAVE_FLAG);
-
-			tempRect2.set(mVignetteRect);
-			tempRect2.inset(- sGradientInset, - sGradientInset);
+			if (mMaskDirty || null == getCurrentMaskBitmap()) {
+				updateMaskBitmap();
+			}
 
-			// draw the black background
-			canvas.drawRect(pBitmapRect, mBlackPaint);
-			canvas.drawOval(tempRect2, mPaintShader);
-			canvas.restore();
+			if (mMaskQuality != MaskQuality.Full) {
+				if (null != mDraftMaskBitmap) {
+					final int count = canvas.save();
+					canvas.scale(mMaskQuality.sampleSize, mMaskQuality.sampleSize);
+					canvas.drawBitmap(mDraftMaskBitmap, 0, 0, mDraftMaskPaint);
+					canvas.restoreToCount(count);
+				}
+			}
+			else if (null != mMaskBitmap) {
+				canvas.drawBitmap(mMaskBitmap, 0, 0, mPaint);
+			}
 
+			if (null != stats) time = stats.record(RenderStats.Phase.Mask, time);
 
 			// ------------------
 			// rest of the UI
 			// ------------------
-			tempRect2.set(mVignetteRect);
-			tempRect2.inset(- sArcDistance, - sArcDistance);
+
+			if (mVignettePaint.getAlpha() == 0) {
+				if (null != stats) stats.record(RenderStats.Phase.Frame, frameStart);
+				return;
+			}
+
+			if (! mControlPathRect.equals(mVignetteRect)) {
+				updateControlPaths();
+			}
+
+			final int count = canvas.save();
+			canvas.concat(mRotationMatrix);
 
 			// main ellipse
 			canvas.drawOval(mVignetteRect, mVignettePaint);
 
 			// control points
-			mControlPointPaint.setStyle(Paint.Style.STROKE);
+			canvas.drawPath(mControlStrokePath, mControlPointPaint);
+			canvas.drawPath(mControlFillPath, mControlPointFillPaint);
 
-			// center control
-			canvas.drawCircle(mVignetteRect.centerX(), mVignetteRect.centerY(), sControlPointSize, mControlPointPaint);
+			canvas.restoreToCount(count);
 
-			canvas.drawArc(tempRect2, - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
-			canvas.drawArc(tempRect2, 90 - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
-			canvas.drawArc(tempRect2, 180 - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
-			canvas.drawArc(tempRect2, 270 - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
+			if (null != stats) stats.record(RenderStats.Phase.Controls, time);
+		}
 
-			tempRect2.inset(sArcDistance * 2, sArcDistance * 2);
+		if (null != stats) stats.record(RenderStats.Phase.Frame, frameStart);
+	}
+
+	/**
+	 * Rebuilds the control points paths (center circle, edge arcs, corner squares and
+	 * rotation knob), in the not rotated space
+	 */
+	private void updateControlPaths() {
+		mControlPathRect.set(mVignetteRect);
+		mControlStrokePath.reset();
+		mControlFillPath.reset();
+
+		final float centerX = mVignetteRect.centerX();
+		final float centerY = mVignetteRect.centerY();
+
+		// center control
+		mControlStrokePath.addCircle(centerX, centerY, sControlPointSize, Path.Direction.CW);
+
+		// edge controls
+		tempRect2.set(mVignetteRect);
+		tempRect2.inset(- sArcDistance, - sArcDistance);
+		addControlArcs(mControlStrokePath, tempRect2);
+
+		tempRect2.inset(sArcDistance * 2, sArcDistance * 2);
+		addControlArcs(mControlStrokePath, tempRect2);
 
-			canvas.drawArc(tempRect2, - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
-			canvas.drawArc(tempRect2, 90 - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
-			canvas.drawArc(tempRect2, 180 - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
-			canvas.drawArc(tempRect2, 270 - SWEEP_ANGLE / 2, SWEEP_ANGLE, false, mControlPointPaint);
+		// corner controls
+		final float radiusX = mVignetteRect.width() / 2 * COS_RAD;
+		final float radiusY = mVignetteRect.height() / 2 * SIN_RAD;
 
-			float rad = (float) Math.toRadians(45);
+		addControlSquare(mControlFillPath, centerX - radiusX, centerY - radiusY);
+		addControlSquare(mControlFillPath, centerX + radiusX, centerY - radiusY);
+		addControlSquare(mControlFillPath, centerX + radiusX, centerY + radiusY);
+		addControlSquare(mControlFillPath, centerX - radiusX, centerY + radiusY);
 
-			final float radiusX = mVignetteRect.width() / 2 * FloatMath.cos(rad);
-			final float radiusY = mVignetteRect.height() / 2 * FloatMath.sin(rad);
+		// rotation knob
+		final float knobY = mVignetteRect.top - sRotateHandleDistance;
+		mControlStrokePath.moveTo(centerX, mVignetteRect.top - sArcDistance);
+		mControlStrokePath.lineTo(centerX, knobY + sControlPointSize);
+		mControlStrokePath.addCircle(centerX, knobY, sControlPointSize, Path.Direction.CW);
+	}
+
+	private static void addControlArcs(final Path path, final RectF oval) {
+		path.addArc(oval, - SWEEP_ANGLE / 2, SWEEP_ANGLE);
+		path.addArc(oval, 90 - SWEEP_ANGLE / 2, SWEEP_ANGLE);
+		path.addArc(oval, 180 - SWEEP_ANGLE / 2, SWEEP_ANGLE);
+		path.addArc(oval, 270 - SWEEP_ANGLE / 2, SWEEP_ANGLE);
+	}
+
+	private void addControlSquare(final Path path, final float x, final float y) {
+		path.addRect(
+			x - sControlPointSize, y - sControlPointSize, x + sControlPointSize, y + sControlPointSize, Path.Direction.CW);
+	}
+
+	private Bitmap getCurrentMaskBitmap() {
+		return mMaskQuality != MaskQuality.Full ? mDraftMaskBitmap : mMaskBitmap;
+	}
 
-			mControlPointPaint.setStyle(Paint.Style.FILL);
+	/**
+	 * Draws the mask into the mask bitmap through the current {@link MaskRenderer}.
+	 * The bitmap itself acts as the offscreen layer, so no saveLayer is needed.<br />
+	 * While dragging the mask is drawn into the draft bitmap instead, at the gesture quality.
+	 */
+	private void updateMaskBitmap() {
+		final MaskQuality quality = mInteracting ? mGestureMaskQuality : MaskQuality.Full;
+		final int width = (getWidth() + quality.sampleSize - 1) / quality.sampleSize;
+		final int height = (getHeight() + quality.sampleSize - 1) / quality.sampleSize;
+
+		if (width <= 0 || height <= 0) return;
+
+		final Bitmap bitmap;
+		final Canvas canvas;
+
+		if (quality == MaskQuality.Full) {
+			if (null == mMaskBitmap || mMaskBitmap.getWidth() != width || mMaskBitmap.getHeight() != height) {
+				logger.log("allocating mask: %dx%d", width, height);
+				recycleMaskBitmap();
+				mMaskBitmap = BitmapPool.getInstance().obtain(width, height, Bitmap.Config.ARGB_8888);
+				mMaskCanvas = new Canvas(mMaskBitmap);
+			}
+			else {
+				mMaskBitmap.eraseColor(Color.TRANSPARENT);
+			}
+			bitmap = mMaskBitmap;
+			canvas = mMaskCanvas;
+		}
+		else {
+			if (null == mDraftMaskBitmap || mDraftMaskBitmap.getWidth() != width || mDraftMaskBitmap.getHeight() != height) {
+				logger.log("allocating draft mask: %dx%d", width, height);
+				recycleDraftMaskBitmap();
+				mDraftMaskBitmap = BitmapPool.getInstance().obtain(width, height, Bitmap.Config.ARGB_8888);
+				mDraftMaskCanvas = new Canvas(mDraftMaskBitmap);
+			}
+			else {
+				mDraftMaskBitmap.eraseColor(Color.TRANSPARENT);
+			}
+			bitmap = mDraftMaskBitmap;
+			canvas = mDraftMaskCanvas;
+		}
 
-			canvas.drawRect(
-				mVignetteRect.centerX() - radiusX - sControlPointSize,
-				mVignetteRect.centerY() - radiusY - sControlPointSize,
-				mVignetteRect.centerX() - radiusX + sControlPointSize,
-				mVignetteRect.centerY() - radiusY + sControlPointSize,
-				mControlPointPaint
-			);
+		mMask.bitmapRect.set(pBitmapRect);
+		mMask.ovalRect.set(mVignetteRect);
+		mMask.ovalRect.inset(- sGradientInset, - sGradientInset);
+		mMask.ovalPath.reset();
+		mMask.ovalPath.addOval(mMask.ovalRect, Path.Direction.CW);
+		mMask.ovalPath.transform(mRotationMatrix);
+		mMask.rotation = getVignetteRotation();
+		mMask.focalX = null != mParams ? mParams.focalX : 0;
+		mMask.focalY = null != mParams ? mParams.focalY : 0;
+		mMask.falloff = mFalloffTable;
+
+		boolean focalOffset = mMask.focalX != 0 || mMask.focalY != 0;
+
+		for (int i = 0; i < mLayers.size(); i++) {
+			final MaskLayer layer = mLayers.get(i);
+			layer.update(toBounds(pBitmapRect, mImageBounds), mOvalBounds);
+			focalOffset |= layer.params.hasFocalOffset();
+		}
 
-			canvas.drawRect(
-				mVignetteRect.centerX() + radiusX - sControlPointSize,
-				mVignetteRect.centerY() - radiusY - sControlPointSize,
-				mVignetteRect.centerX() + radiusX + sControlPointSize,
-				mVignetteRect.centerY() - radiusY + sControlPointSize,
-				mControlPointPaint
-			);
+		MaskRenderer renderer = mMaskRenderer;
+		if (focalOffset && ! renderer.supportsFocalOffset()) {
+			if (null == mFocalMaskRenderer) {
+				mFocalMaskRenderer = new CpuKernelMaskRenderer();
+			}
+			renderer = mFocalMaskRenderer;
+		}
 
-			canvas.drawRect(
-				mVignetteRect.centerX() + radiusX - sControlPointSize,
-				mVignetteRect.centerY() + radiusY - sControlPointSize,
-				mVignetteRect.centerX() + radiusX + sControlPointSize,
-				mVignetteRect.centerY() + radiusY + sControlPointSize,
-				mControlPointPaint
-			);
+		renderer.render(canvas, bitmap, mMasks, quality);
+		if (null != mRenderStats) mRenderStats.countMaskRender();
+		if (logger.isVerboseEnabled()) {
+			logger.verbose(
+				"mask rendered by %s (%s) in %dus", renderer.getName(), quality, renderer.getLastRenderTimeNanos() / 1000);
+		}
+		mMaskQuality = quality;
+		mMaskDirty = false;
+	}
 
-			canvas.drawRect(
-				mVignetteRect.centerX() - radiusX - sControlPointSize,
-				mVignetteRect.centerY() + radiusY - sControlPointSize,
-				mVignetteRect.centerX() - radiusX + sControlPointSize,
-				mVignetteRect.centerY() + radiusY + sControlPointSize,
-				mControlPointPaint
-			);
+	private void recycleMaskBitmap() {
+		if (null != mMaskBitmap) {
+			BitmapPool.getInstance().release(mMaskBitmap);
+			mMaskBitmap = null;
+			mMaskCanvas = null;
 		}
+		mMaskDirty = true;
+	}
+
+	private void recycleDraftMaskBitmap() {
+		if (null != mDraftMaskBitmap) {
+			BitmapPool.getInstance().release(mDraftMaskBitmap);
+			mDraftMaskBitmap = null;
+			mDraftMaskCanvas = null;
+		}
+		mMaskDirty = true;
+	}
+
+	/**
+	 * Marks the start (or the continuation) of a drag: the next masks are drafts
+	 * until the gesture ends or stays idle
+	 */
+	private void onMaskInteraction() {
+		if (mGestureMaskQuality == MaskQuality.Full) return;
+
+		mInteracting = true;
+		removeCallbacks(mRefineMaskRunnable);
+		postDelayed(mRefineMaskRunnable, mMaskRefineDelay);
+	}
+
+	/**
+	 * Ends the drag: a draft mask is replaced by a full quality one at the next frame
+	 */
+	private void refineMask() {
+		removeCallbacks(mRefineMaskRunnable);
+		mInteracting = false;
+
+		if (mMaskQuality != MaskQuality.Full) {
+			mMaskDirty = true;
+			ViewCompat.postInvalidateOnAnimation(this);
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		flushPendingScroll();
+		removeCallbacks(mRefineMaskRunnable);
+		mInteracting = false;
+		mMaskQuality = MaskQuality.Full;
+		recycleMaskBitmap();
+		recycleDraftMaskBitmap();
 	}
 
 	@SuppressWarnings ("unused")
 	public void setPaintAlpha(float value) {
 		mVignettePaint.setAlpha((int) value);
 		mControlPointPaint.setAlpha((int) value);
-		postInvalidate();
+		mControlPointFillPaint.setAlpha((int) value);
+
+		// only the control points are changing, invalidate their bounds
+		if (! mVignetteRect.isEmpty()) {
+			final float outset = sArcDistance + sControlPointSize + mControlPointPaint.getStrokeWidth();
+			tempRect.set(mVignetteRect);
+			tempRect.top -= sRotateHandleDistance;
+			tempRect.inset(- outset, - outset);
+			mRotationMatrix.mapRect(tempRect);
+			postInvalidate(
+				(int) tempRect.left, (int) tempRect.top, (int) Math.ceil(tempRect.right), (int) Math.ceil(tempRect.bottom));
+		}
+		else {
+			postInvalidate();
+		}
 	}
 
 	public float getPaintAlpha() {
@@ -335,7 +784,15 @@ public class ImageViewVignette extends ImageViewTouch {
 	@Override
 	public boolean onUp(final MotionEvent e) {
 		logger.info("onUp");
-		setTouchState(TouchState.None);
+		flushPendingScroll();
+		refineMask();
+		if (logger.isLogEnabled()) {
+			logger.log("scroll events: %d, coalesced: %d", mScrollEventCount, getCoalescedScrollEventCount());
+		}
+		resetScrollStats();
+		setTouchState(Handle.None);
+
+		if (null != mRenderStats) mRenderStats.onGestureEnd();
 
 		mFadeOutAnimator.start();
 		return true;
@@ -345,6 +802,8 @@ public class ImageViewVignette extends ImageViewTouch {
 	public boolean onDown(final MotionEvent e) {
 		logger.info("onDown");
 
+		if (null != mRenderStats) mRenderStats.onGestureStart();
+
 		mFadeOutAnimator.cancel();
 
 		if (getPaintAlpha() != 255) {
@@ -353,176 +812,155 @@ public class ImageViewVignette extends ImageViewTouch {
 
 		if (mVignetteRect.isEmpty()) return false;
 
-		final float x = e.getX();
-		final float y = e.getY();
-		final RectF rect = new RectF();
+		if (! mHitTestRect.equals(mVignetteRect)) {
+			updateHitTester();
+		}
 
-		final float radiusX = mVignetteRect.width() / 2 * FloatMath.cos(RAD);
-		final float radiusY = mVignetteRect.height() / 2 * FloatMath.sin(RAD);
-		final float centerX = mVignetteRect.centerX();
-		final float centerY = mVignetteRect.centerY();
+		// the handles are registered in the not rotated space
+		mTouchPoint[0] = e.getX();
+		mTouchPoint[1] = e.getY();
+		mInverseRotationMatrix.mapPoints(mTouchPoint);
 
-		rect.set(
-			centerX - radiusX - sControlPointTolerance,
-			centerY - radiusY - sControlPointTolerance,
-			centerX - radiusX + sControlPointTolerance,
-			centerY - radiusY + sControlPointTolerance
-		);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.TopLeft);
-			return true;
+		final int handle = mHitTester.hitTest(mTouchPoint[0], mTouchPoint[1]);
+		if (handle != HandleHitTester.NO_HANDLE) {
+			setTouchState(VignetteGeometry.getHandle(handle));
 		}
+		return true;
+	}
 
-		rect.set(
-			centerX + radiusX - sControlPointTolerance,
-			centerY - radiusY - sControlPointTolerance,
-			centerX + radiusX + sControlPointTolerance,
-			centerY - radiusY + sControlPointTolerance
-		);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.TopRight);
-			return true;
-		}
+	/**
+	 * Registers the control points in the hit tester
+	 */
+	private void updateHitTester() {
+		mHitTestRect.set(mVignetteRect);
+		VignetteGeometry.addHandles(
+			mHitTester, toBounds(mVignetteRect, mDragBounds), sControlPointTolerance, sRotateHandleDistance);
+	}
 
-		rect.set(
-			centerX + radiusX - sControlPointTolerance,
-			centerY + radiusY - sControlPointTolerance,
-			centerX + radiusX + sControlPointTolerance,
-			centerY + radiusY + sControlPointTolerance
-		);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.BottomRight);
-			return true;
-		}
+	@Override
 
-		rect.set(
-			centerX - radiusX - sControlPointTolerance,
-			centerY + radiusY - sControlPointTolerance,
-			centerX - radiusX + sControlPointTolerance,
-			centerY + radiusY + sControlPointTolerance
-		);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.BottomLeft);
-			return true;
-		}
+	public boolean onScroll(final MotionEvent e1, final MotionEvent e2, final float distanceX, final float distanceY) {
+		//logger.info("onScroll, state: %s (%.2fx%.2f)", mTouchState, distanceX, distanceY);
 
-		// left
-		rect.set(mVignetteRect.left, mVignetteRect.centerY(), mVignetteRect.left, mVignetteRect.centerY());
-		rect.inset(- sControlPointTolerance * 2, - sControlPointTolerance * 2);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.Left);
-			return true;
-		}
+		if (mVignetteRect.isEmpty()) return false;
 
-		// right
-		rect.set(mVignetteRect.right, mVignetteRect.centerY(), mVignetteRect.right, mVignetteRect.centerY());
-		rect.inset(- sControlPointTolerance * 2, - sControlPointTolerance * 2);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.Right);
-			return true;
-		}
+		mScrollEventCount++;
+		mLastTouchX = e2.getX();
+		mLastTouchY = e2.getY();
 
-		// top
-		rect.set(mVignetteRect.centerX(), mVignetteRect.top, mVignetteRect.centerX(), mVignetteRect.top);
-		rect.inset(- sControlPointTolerance * 2, - sControlPointTolerance * 2);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.Top);
-			return true;
+		if (mTouchState != Handle.None) {
+			onMaskInteraction();
 		}
 
-		// bottom
-		rect.set(mVignetteRect.centerX(), mVignetteRect.bottom, mVignetteRect.centerX(), mVignetteRect.bottom);
-		rect.inset(- sControlPointTolerance * 2, - sControlPointTolerance * 2);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.Bottom);
-			return true;
-		}
+		if (mScrollCoalescingEnabled) {
+			mPendingScrollX += distanceX;
+			mPendingScrollY += distanceY;
 
-		// center
-		rect.set(mVignetteRect.centerX(), mVignetteRect.centerY(), mVignetteRect.centerX(), mVignetteRect.centerY());
-		rect.inset(- sControlPointTolerance * 2, - sControlPointTolerance * 2);
-		if (rect.contains(x, y)) {
-			setTouchState(TouchState.Center);
+			if (! mScrollFramePosted) {
+				mScrollFramePosted = true;
+				Choreographer.getInstance().postFrameCallback(mScrollFrameCallback);
+			}
 			return true;
 		}
 
+		applyScroll(distanceX, distanceY);
 		return true;
 	}
 
-	@Override
-
-	public boolean onScroll(final MotionEvent e1, final MotionEvent e2, final float distanceX, final float distanceY) {
-		//logger.info("onScroll, state: %s (%.2fx%.2f)", mTouchState, distanceX, distanceY);
-
-		if (mVignetteRect.isEmpty()) return false;
-
-		tempRect.set(mVignetteRect);
-
-		float max;
+	/**
+	 * When enabled, the scroll deltas received between two frames are accumulated
+	 * and the vignette geometry and shader are updated once per frame.
+	 */
+	public void setScrollCoalescingEnabled(boolean enabled) {
+		if (! enabled) {
+			flushPendingScroll();
+		}
+		mScrollCoalescingEnabled = enabled;
+	}
 
-		switch (mTouchState) {
-			case None:
-				break;
+	public boolean isScrollCoalescingEnabled() {
+		return mScrollCoalescingEnabled;
+	}
 
-			case Center:
+	/**
+	 * Number of scroll events received since the last {@link #resetScrollStats()}
+	 */
+	public int getScrollEventCount() {
+		return mScrollEventCount;
+	}
 
-				if (pBitmapRect.contains(tempRect.centerX() - distanceX, tempRect.centerY() - distanceY)) {
-					tempRect.offset(- distanceX, - distanceY);
-				}
-				break;
+	/**
+	 * Number of geometry updates performed since the last {@link #resetScrollStats()}
+	 */
+	public int getScrollUpdateCount() {
+		return mScrollUpdateCount;
+	}
 
-			case Left:
-				tempRect.inset(- distanceX, 0);
-				break;
-			case Right:
-				tempRect.inset(distanceX, 0);
-				break;
+	/**
+	 * Number of scroll events which have been merged into another update
+	 */
+	public int getCoalescedScrollEventCount() {
+		return mScrollEventCount - mScrollUpdateCount;
+	}
 
-			case Top:
-				tempRect.inset(0, - distanceY);
-				break;
+	public void resetScrollStats() {
+		mScrollEventCount = 0;
+		mScrollUpdateCount = 0;
+	}
 
-			case Bottom:
-				tempRect.inset(0, distanceY);
-				break;
+	/**
+	 * Applies the scroll deltas not yet consumed by a frame callback
+	 */
+	private void flushPendingScroll() {
+		if (mScrollFramePosted) {
+			Choreographer.getInstance().removeFrameCallback(mScrollFrameCallback);
+			mScrollFramePosted = false;
+		}
 
-			case TopLeft:
-				max = Math.abs(distanceX) > Math.abs(distanceY) ? distanceX : distanceY;
-				tempRect.inset(- max, - max);
-				break;
+		if (mPendingScrollX != 0 || mPendingScrollY != 0) {
+			final float distanceX = mPendingScrollX;
+			final float distanceY = mPendingScrollY;
+			mPendingScrollX = 0;
+			mPendingScrollY = 0;
+			applyScroll(distanceX, distanceY);
+		}
+	}
 
-			case TopRight:
-				max = Math.abs(distanceX) > Math.abs(distanceY) ? distanceX : - distanceY;
-				tempRect.inset(max, max);
-				break;
+	private void applyScroll(float distanceX, float distanceY) {
+		mScrollUpdateCount++;
 
-			case BottomLeft:
-				max = Math.abs(distanceX) > Math.abs(distanceY) ? - distanceX : distanceY;
-				tempRect.inset(max, max);
-				break;
+		toBounds(mVignetteRect, mDragBounds);
 
-			case BottomRight:
-				max = Math.abs(distanceX) > Math.abs(distanceY) ? distanceX : distanceY;
-				tempRect.inset(max, max);
-				break;
+		if (mTouchState == Handle.Rotate) {
+			mParams = mParams.withRotation(VignetteGeometry.rotationAt(mDragBounds, mLastTouchX, mLastTouchY));
+			updateGradientMatrix(mVignetteRect);
+			ViewCompat.postInvalidateOnAnimation(this);
+			return;
 		}
 
-		if (tempRect.width() > sControlPointTolerance && tempRect.height() > sControlPointTolerance) {
-			mVignetteRect.set(tempRect);
+		if (VignetteGeometry.drag(
+			mTouchState, mDragBounds, toBounds(pBitmapRect, mImageBounds), getVignetteRotation(), distanceX, distanceY,
+			sControlPointTolerance, mDragBounds)) {
+			mVignetteRect.set(mDragBounds[0], mDragBounds[1], mDragBounds[2], mDragBounds[3]);
+			updateParams();
 		}
 
 		updateGradientMatrix(mVignetteRect);
 
-
 		ViewCompat.postInvalidateOnAnimation(this);
-		return true;
 	}
 
 	private void updateGradientMatrix(RectF rect) {
+		final float rotation = getVignetteRotation();
+		mRotationMatrix.setRotate(rotation, rect.centerX(), rect.centerY());
+		mInverseRotationMatrix.setRotate(- rotation, rect.centerX(), rect.centerY());
+
 		mGradientMatrix.reset();
 		mGradientMatrix.postTranslate(rect.centerX(), rect.centerY());
 		mGradientMatrix.postScale(rect.width() / 2, rect.height() / 2, rect.centerX(), rect.centerY());
+		mGradientMatrix.postRotate(rotation, rect.centerX(), rect.centerY());
 		mGradientShader.setLocalMatrix(mGradientMatrix);
+		mMaskDirty = true;
 	}
 
 	private void updateGradientShader(float value, final Paint paint) {
@@ -535,10 +973,18 @@ public class ImageViewVignette extends ImageViewTouch {
 			0, 0, 1, colors, anchors, Shader.TileMode.CLAMP
 		);
 		paint.setShader(mGradientShader);
+		if (null != mRenderStats) mRenderStats.countShaderRebuild();
 		updateGradientMatrix(mVignetteRect);
+		updateFalloffTable();
+
+		if (null != mParams) {
+			mParams = mParams.withFeather(mFeather);
+		}
 	}
 
 	private void updateBackgroundMask(int value) {
+		mIntensity = Math.max(Math.min(value, 100), - 100);
+
 		if (value >= 0) {
 			mBlackPaint.setColor(Color.BLACK);
 		}
@@ -548,11 +994,80 @@ public class ImageViewVignette extends ImageViewTouch {
 
 		value = Math.max(Math.min(Math.abs(value), 100), 0);
 		value *= 2.55;
-		logger.log("setAlpha: %d", value);
+		if (logger.isLogEnabled()) logger.log("setAlpha: %d", value);
 		mBlackPaint.setAlpha(value);
+		mMaskDirty = true;
+		updateFalloffTable();
+
+		if (null != mParams) {
+			mParams = mParams.withIntensity(mIntensity);
+		}
+	}
+
+	private void updateFalloffTable() {
+		mFalloffTable = FalloffTable.obtain(mFalloffTable, mFeather, mIntensity);
+	}
+
+	/**
+	 * Returns the current vignette, relative to the image, or null if the
+	 * image has not been laid out yet
+	 */
+	public VignetteParams getVignetteParams() {
+		return mParams;
+	}
+
+	/**
+	 * Replaces the current vignette (geometry, feather and intensity)
+	 */
+	public void setVignetteParams(VignetteParams params) {
+		logger.info("setVignetteParams: %s", params);
+		updateGradientShader(params.feather, mPaintShader);
+		updateBackgroundMask(params.intensity);
+		mParams = params;
+
+		if (! pBitmapRect.isEmpty()) {
+			updateVignetteRect();
+			updateGradientMatrix(mVignetteRect);
+		}
+		postInvalidate();
+	}
+
+	/**
+	 * Stores the view rect (gradient inset included) into mParams, keeping the rotation
+	 * and the focal point of the current params
+	 */
+	private void updateParams() {
+		tempRect2.set(mVignetteRect);
+		tempRect2.inset(- sGradientInset, - sGradientInset);
+		toBounds(tempRect2, mOvalBounds);
+		toBounds(pBitmapRect, mImageBounds);
+
+		if (null == mParams) {
+			mParams = VignetteParams.fromOval(mOvalBounds, mImageBounds, mFeather, mIntensity);
+		}
+		else {
+			mParams = mParams.withOval(mOvalBounds, mImageBounds);
+		}
+	}
+
+	/**
+	 * Maps mParams into the current bitmap rect
+	 */
+	private void updateVignetteRect() {
+		mParams.toOval(toBounds(pBitmapRect, mImageBounds), mOvalBounds);
+		mVignetteRect.set(mOvalBounds[0], mOvalBounds[1], mOvalBounds[2], mOvalBounds[3]);
+		mVignetteRect.inset(sGradientInset, sGradientInset);
 	}
 
-	private void setTouchState(TouchState newState) {
+	private static float[] toBounds(RectF rect, float[] out) {
+		out[0] = rect.left;
+		out[1] = rect.top;
+		out[2] = rect.right;
+		out[3] = rect.bottom;
+		return out;
+	}
+
+	private void setTouchState(Handle newState) {
 		if (newState != mTouchState) {
 			logger.info("setTouchState: %s", newState);
 			mTouchState = newState;
@@ -563,10 +1078,16 @@ public class ImageViewVignette extends ImageViewTouch {
 	@Override
 	protected Parcelable onSaveInstanceState() {
 		logger.info("onSaveInstanceState");
-		logger.log("pBitmapRect: %s", pBitmapRect);
+		logger.log("params: %s", mParams);
 
 		SavedState state = new SavedState(super.onSaveInstanceState());
-		state.mCurrentRect = pBitmapRect;
+		state.mFeather = mFeather;
+		state.mIntensity = mIntensity;
+		state.mParams = mParams;
+
+		for (int i = 0; i < mLayers.size(); i++) {
+			state.mMasks.add(mLayers.get(i).params);
+		}
 		return state;
 	}
 
@@ -577,8 +1098,22 @@ public class ImageViewVignette extends ImageViewTouch {
 
 		super.onRestoreInstanceState(savedState.getSuperState());
 
-		pBitmapRect.set(savedState.mCurrentRect);
-		logger.log("pBitmapRect: %s", pBitmapRect);
+		updateGradientShader(savedState.mFeather, mPaintShader);
+		updateBackgroundMask(savedState.mIntensity);
+		mParams = savedState.mParams;
+
+		clearMasks();
+		for (VignetteParams params : savedState.mMasks) {
+			addMask(params);
+		}
+
+		// the image could already be laid out
+		if (null != mParams && ! pBitmapRect.isEmpty()) {
+			updateVignetteRect();
+			updateGradientMatrix(mVignetteRect);
+		}
+		mMaskDirty = true;
+		logger.log("params: %s", mParams);
 	}
 
 	@Override
@@ -596,7 +1131,7 @@ public class ImageViewVignette extends ImageViewTouch {
 	private void updateBitmapRect() {
 		logger.info("updateBitmapRect");
 
-		mTouchState = TouchState.None;
+		mTouchState = Handle.None;
 
 		if (null == getDrawable()) {
 			mVignetteRect.setEmpty();
@@ -613,33 +1148,29 @@ public class ImageViewVignette extends ImageViewTouch {
 
 		logger.log("rect_changed: %b", rect_changed);
 
-		if (null != rect) {
-			if (rect_changed) {
-				if (! pBitmapRect.isEmpty()) {
-					float old_left = pBitmapRect.left;
-					float old_top = pBitmapRect.top;
-					float old_width = pBitmapRect.width();
-					float old_height = pBitmapRect.height();
-
-					mVignetteRect.inset(- (rect.width() - old_width) / 2, - (rect.height() - old_height) / 2);
-					mVignetteRect.offset(rect.left - old_left, rect.top - old_top);
-					mVignetteRect.offset((rect.width() - old_width) / 2, (rect.height() - old_height) / 2);
-				}
-				else {
-					mVignetteRect.set(rect);
-					mVignetteRect.inset(sControlPointTolerance, sControlPointTolerance);
-				}
-			}
+		if (null != rect && ! rect.isEmpty()) {
 			pBitmapRect.set(rect);
+
+			if (null == mParams) {
+				// first layout, default vignette
+				mVignetteRect.set(rect);
+				mVignetteRect.inset(sControlPointTolerance, sControlPointTolerance);
+				updateParams();
+			}
+			else if (rect_changed || mVignetteRect.isEmpty()) {
+				updateVignetteRect();
+			}
 		}
 		else {
-			// rect is null
+			// rect is null or empty
 			pBitmapRect.setEmpty();
 			mVignetteRect.setEmpty();
 		}
 
 		logger.verbose("vignette: %s", mVignetteRect);
-		logger.verbose("vignette.size: %.2fx%.2f", mVignetteRect.width(), mVignetteRect.height());
+		if (logger.isVerboseEnabled()) {
+			logger.verbose("vignette.size: %.2fx%.2f", mVignetteRect.width(), mVignetteRect.height());
+		}
 
 		updateGradientMatrix(mVignetteRect);
 
@@ -681,9 +1212,61 @@ public class ImageViewVignette extends ImageViewTouch {
 	}
 
 
+	/**
+	 * An additional mask: its params, and the paint used by the canvas renderers
+	 */
+	private static class MaskLayer {
+		final VignetteParams params;
+		final VignetteMask mask = new VignetteMask();
+		final Matrix matrix = new Matrix();
+
+		MaskLayer(VignetteParams params) {
+			this.params = params;
+			mask.falloff = new FalloffTable(params.feather, params.intensity, params.inverted);
+			mask.rotation = params.rotation;
+			mask.focalX = params.focalX;
+			mask.focalY = params.focalY;
+
+			// the overlay color at the border of the ellipse and outside, transparent inside the feather
+			final int transparent = params.intensity >= 0 ? Color.BLACK & 0xffffff : Color.WHITE & 0xffffff;
+			final int color = (mask.falloff.getMaxAlpha() << 24) | transparent;
+			final int[] colors = params.inverted ? new int[]{color, color, transparent} : new int[]{transparent, transparent, color};
+
+			mask.shaderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+			mask.shaderPaint.setDither(true);
+			mask.shaderPaint.setShader(
+				new RadialGradient(0, 0, 1, colors, new float[]{0, params.feather, 1}, Shader.TileMode.CLAMP));
+		}
+
+		/**
+		 * Maps the mask into the image bounds
+		 */
+		void update(float[] image, float[] oval) {
+			params.toOval(image, oval);
+			mask.bitmapRect.set(image[0], image[1], image[2], image[3]);
+			mask.ovalRect.set(oval[0], oval[1], oval[2], oval[3]);
+
+			final float centerX = mask.ovalRect.centerX();
+			final float centerY = mask.ovalRect.centerY();
+
+			matrix.setTranslate(centerX, centerY);
+			matrix.postScale(mask.ovalRect.width() / 2, mask.ovalRect.height() / 2, centerX, centerY);
+			matrix.postRotate(params.rotation, centerX, centerY);
+			mask.shaderPaint.getShader().setLocalMatrix(matrix);
+
+			matrix.setRotate(params.rotation, centerX, centerY);
+			mask.ovalPath.reset();
+			mask.ovalPath.addOval(mask.ovalRect, Path.Direction.CW);
+			mask.ovalPath.transform(matrix);
+		}
+	}
+
 	public static class SavedState extends BaseSavedState {
 
-		RectF mCurrentRect;
+		float mFeather;
+		int mIntensity;
+		VignetteParams mParams;
+		final List<VignetteParams> mMasks = new ArrayList<VignetteParams>();
 
 		public SavedState(final Parcelable superState) {
 			super(superState);
@@ -691,24 +1274,27 @@ public class ImageViewVignette extends ImageViewTouch {
 
 		private SavedState(Parcel in) {
 			super(in);
-			mCurrentRect = new RectF(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+			mFeather = in.readFloat();
+			mIntensity = in.readInt();
+
+			try {
+				mParams = VignetteParamsCodec.decode(in.createByteArray(), mMasks);
+			} catch (IOException e) {
+				logger.error("cannot restore the vignette: %s", e);
+				mParams = null;
+				mMasks.clear();
+			}
 		}
 
+		/**
+		 * The vignette and the masks are written in the compact form of {@link VignetteParamsCodec}
+		 */
 		@Override
 		public void writeToParcel(final Parcel dest, final int flags) {
 			super.writeToParcel(dest, flags);
-			if (null != mCurrentRect) {
-				dest.writeFloat(mCurrentRect.left);
-				dest.writeFloat(mCurrentRect.top);
-				dest.writeFloat(mCurrentRect.right);
-				dest.writeFloat(mCurrentRect.bottom);
-			}
-			else {
-				dest.writeFloat(0);
-				dest.writeFloat(0);
-				dest.writeFloat(0);
-				dest.writeFloat(0);
-			}
+			dest.writeFloat(mFeather);
+			dest.writeInt(mIntensity);
+			dest.writeByteArray(VignetteParamsCodec.encode(mParams, mMasks));
 		}
 
 		public static final Parcelable.Creator<SavedState> CREATOR = new Creator<SavedState>() {
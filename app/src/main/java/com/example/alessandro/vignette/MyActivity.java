@@ -2,33 +2,37 @@ package com.example.alessandro.vignette;
 
 import android.app.Activity;
 import android.content.res.Configuration;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.util.Log;
+import android.util.DisplayMetrics;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.SeekBar;
 
-import java.io.IOException;
-import java.io.InputStream;
+import com.example.alessandro.vignette.log.LoggerFactory;
+import com.example.alessandro.vignette.render.MaskQuality;
 
 import it.sephiroth.android.library.imagezoom.ImageViewTouchBase;
 
+import java.io.File;
+
 
 public class MyActivity extends Activity implements SeekBar.OnSeekBarChangeListener {
 
 	private static final String TAG = "MainActivity";
+	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
+
 	ImageViewVignette mImageView;
 	SeekBar mSeekBar1;
 	SeekBar mSeekBar2;
-	Bitmap mOriginaBitmap;
+	PreviewLoader mPreviewLoader;
+
+	/** the preview being displayed, its source is used for the full resolution export */
+	PreviewLoader.Preview mPreview;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
-		Log.i("MainActivity", "onCreate");
+		logger.info("onCreate");
 
 		setContentView(R.layout.activity_my);
 
@@ -37,16 +41,36 @@ public class MyActivity extends Activity implements SeekBar.OnSeekBarChangeListe
 		mSeekBar2 = (SeekBar) findViewById(R.id.seekBar2);
 
 		mImageView.setDisplayType(ImageViewTouchBase.DisplayType.FIT_IF_BIGGER);
+		mImageView.setScrollCoalescingEnabled(true);
+		mImageView.setGestureMaskQuality(MaskQuality.Half);
 
 		mSeekBar1.setOnSeekBarChangeListener(this);
 		mSeekBar2.setOnSeekBarChangeListener(this);
 
-		new TestTask().execute("image.jpg");
+		final DisplayMetrics metrics = getResources().getDisplayMetrics();
+		mPreviewLoader = new PreviewLoader(
+			new PreviewLoader.AssetSource(getAssets(), "image.jpg"), metrics.widthPixels, metrics.heightPixels);
+		mPreviewLoader.setCache(new PreviewCache(new File(getCacheDir(), "preview")));
+		mPreviewLoader.load(mPreviewListener);
+	}
+
+	@Override
+	protected void onDestroy() {
+		logger.info("onDestroy");
+		// the activity might be recreated, don't deliver the preview to a dead view
+		mPreviewLoader.cancel();
+
+		if (null != mPreview) {
+			mImageView.setImageBitmap(null);
+			BitmapPool.getInstance().release(mPreview.bitmap);
+			mPreview = null;
+		}
+		super.onDestroy();
 	}
 
 	@Override
 	public void onConfigurationChanged(final Configuration newConfig) {
-		Log.i("MainActivity", "onConfigurationChanged");
+		logger.info("onConfigurationChanged");
 		super.onConfigurationChanged(newConfig);
 	}
 
@@ -92,41 +116,29 @@ public class MyActivity extends Activity implements SeekBar.OnSeekBarChangeListe
 
 	}
 
-	class TestTask extends AsyncTask<String, Void, Bitmap> {
-
+	private final PreviewLoader.OnPreviewListener mPreviewListener = new PreviewLoader.OnPreviewListener() {
 		@Override
-		protected Bitmap doInBackground(final String... params) {
-
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		public void onPreviewLoaded(final PreviewLoader.Preview preview) {
+			if (logger.isLogEnabled()) {
+				logger.log(
+					"preview: %dx%d, original: %dx%d", preview.bitmap.getWidth(), preview.bitmap.getHeight(),
+					preview.originalWidth, preview.originalHeight);
 			}
 
-			InputStream stream = null;
-			Bitmap bitmap = null;
-			try {
-				stream = getResources().getAssets().open(params[0]);
-				bitmap = BitmapFactory.decodeStream(stream);
-				stream.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			return bitmap;
-		}
-
-		@Override
-		protected void onPostExecute(final Bitmap bitmap) {
-			mOriginaBitmap = bitmap;
-			mImageView.setImageBitmap(bitmap);
+			mPreview = preview;
+			mImageView.setImageBitmap(preview.bitmap);
 
 			int intensity = mImageView.getVignetteIntensity();
 			intensity = (intensity + 100) / 2;
-			Log.d(TAG, "intensity: " + intensity);
 			mSeekBar1.setProgress(intensity);
 
 			float feather = mImageView.getVignetteFeather();
 			mSeekBar2.setProgress((int) (feather*100));
 		}
-	}
+
+		@Override
+		public void onPreviewFailed(final Throwable error) {
+			logger.error("failed to load the preview: %s", error);
+		}
+	};
 }
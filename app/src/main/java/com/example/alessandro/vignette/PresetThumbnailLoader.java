@@ -0,0 +1,178 @@
+package com.example.alessandro.vignette;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import com.example.alessandro.vignette.core.PixelBuffer;
+import com.example.alessandro.vignette.core.RenderCache;
+import com.example.alessandro.vignette.core.ThumbnailRenderer;
+import com.example.alessandro.vignette.core.VignetteParams;
+import com.example.alessandro.vignette.log.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the thumbnails of a strip of vignette presets.<br />
+ * The current image is downsampled once, then every preset is rendered from that shared
+ * buffer by a {@link ThumbnailRenderer}, on a couple of low priority threads. Thumbnails are
+ * delivered in the UI thread one by one, as soon as they are ready.
+ * <p/>
+ * The strip adapter should call {@link #load(int, OnThumbnailListener)} when a thumbnail
+ * becomes visible and {@link #cancel(int)} when it scrolls off screen.
+ * All the methods must be called from the UI thread.
+ *
+ * @author alessandro
+ */
+public class PresetThumbnailLoader {
+
+	private static final String TAG = "PresetThumbnailLoader";
+	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
+
+	public static final int DEFAULT_THUMBNAIL_SIZE = 96;
+
+	public static final int[] DEFAULT_INTENSITIES = {- 60, - 30, 30, 60};
+	public static final float[] DEFAULT_FEATHERS = {0.3f, 0.6f, 0.9f};
+
+	public static interface OnThumbnailListener {
+
+		/**
+		 * The thumbnail comes from the {@link BitmapPool}: release it when it's not displayed anymore
+		 */
+		void onThumbnailLoaded(int index, VignetteParams preset, Bitmap thumbnail);
+	}
+
+	private final ThumbnailRenderer mRenderer;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final int mThumbnailSize;
+
+	/** current request of every pending thumbnail, only accessed from the UI thread */
+	private final SparseArray<Object> mRequests = new SparseArray<Object>();
+
+	private List<VignetteParams> mPresets = new ArrayList<VignetteParams>();
+
+	public PresetThumbnailLoader() {
+		this(DEFAULT_THUMBNAIL_SIZE);
+	}
+
+	/**
+	 * @param thumbnailSize max size of the thumbnails longest side, in pixels
+	 */
+	public PresetThumbnailLoader(final int thumbnailSize) {
+		mThumbnailSize = thumbnailSize;
+		mRenderer = new ThumbnailRenderer();
+	}
+
+	public void setCache(final RenderCache cache) {
+		mRenderer.setCache(cache);
+	}
+
+	/**
+	 * Uses the default presets: every combination of {@link #DEFAULT_INTENSITIES} and {@link #DEFAULT_FEATHERS}
+	 */
+	public void setPresets(final VignetteParams base) {
+		setPresets(ThumbnailRenderer.createPresets(base, DEFAULT_INTENSITIES, DEFAULT_FEATHERS));
+	}
+
+	public void setPresets(final List<VignetteParams> presets) {
+		cancelAll();
+		mPresets = new ArrayList<VignetteParams>(presets);
+	}
+
+	public int getCount() {
+		return mPresets.size();
+	}
+
+	public VignetteParams getPreset(final int index) {
+		return mPresets.get(index);
+	}
+
+	/**
+	 * Downsamples the image shown by the strip, cancelling the pending thumbnails
+	 *
+	 * @param sourceId id of the image, used as cache key
+	 */
+	public void setSource(final Bitmap bitmap, final String sourceId) {
+		cancelAll();
+
+		final float scale = Math.min(1, (float) mThumbnailSize / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+		final int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+		final int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+
+		final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+
+		// not pooled: tasks of the previous source may still be reading it after a cancel
+		final PixelBuffer source = new PixelBuffer(new int[width * height], width, height);
+		scaled.getPixels(source.pixels, 0, width, 0, 0, width, height);
+		if (scaled != bitmap) {
+			scaled.recycle();
+		}
+
+		logger.info("setSource: %s, %dx%d", sourceId, width, height);
+		mRenderer.setSource(source, sourceId);
+	}
+
+	/**
+	 * Renders the thumbnail of a preset in background, replacing the pending one with the same index
+	 */
+	public void load(final int index, final OnThumbnailListener listener) {
+		final Object request = new Object();
+		mRequests.put(index, request);
+
+		mRenderer.render(
+			index, mPresets.get(index), new ThumbnailRenderer.Listener() {
+				@Override
+				public void onThumbnail(final int index, final VignetteParams preset, final PixelBuffer thumbnail) {
+					// converted in the worker thread, the UI thread only swaps the bitmap
+					final Bitmap bitmap;
+					try {
+						bitmap = BitmapPool.getInstance().obtain(thumbnail.width, thumbnail.height, Bitmap.Config.ARGB_8888);
+						bitmap.setPixels(thumbnail.pixels, 0, thumbnail.width, 0, 0, thumbnail.width, thumbnail.height);
+					} finally {
+						thumbnail.release();
+					}
+
+					mHandler.post(
+						new Runnable() {
+							@Override
+							public void run() {
+								if (mRequests.get(index) != request) {
+									// cancelled or replaced meanwhile
+									BitmapPool.getInstance().release(bitmap);
+									return;
+								}
+								mRequests.remove(index);
+								listener.onThumbnailLoaded(index, preset, bitmap);
+							}
+						}
+					);
+				}
+
+				@Override
+				public void onThumbnailFailed(final int index, final VignetteParams preset, final Throwable error) {
+					logger.error("thumbnail %d failed: %s", index, error);
+				}
+			}
+		);
+	}
+
+	/**
+	 * Cancels a pending thumbnail, i.e. when it scrolls off screen
+	 */
+	public void cancel(final int index) {
+		mRequests.remove(index);
+		mRenderer.cancel(index);
+	}
+
+	public void cancelAll() {
+		mRequests.clear();
+		mRenderer.cancelAll();
+	}
+
+	public void release() {
+		mRequests.clear();
+		mRenderer.release();
+	}
+}
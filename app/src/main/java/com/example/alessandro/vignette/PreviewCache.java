@@ -0,0 +1,159 @@
+package com.example.alessandro.vignette;
+
+import android.graphics.Bitmap;
+
+import com.example.alessandro.vignette.core.MappedFiles;
+import com.example.alessandro.vignette.log.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Disk cache of the last decoded preview, keyed by image source and preview size (in any orientation).<br />
+ * The pixels are stored uncompressed and memory mapped in both directions (see {@link MappedFiles}),
+ * so loading the preview after a process death is a single copy into a (pooled) bitmap instead
+ * of a new decode of the original image. Only ARGB_8888 previews are cached.
+ *
+ * @author alessandro
+ */
+public class PreviewCache {
+
+	private static final String TAG = "PreviewCache";
+	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
+
+	private static final int MAGIC = 0x56505232; // VPR2
+	private static final String EXTENSION = ".preview";
+
+	/** magic, key length, then size, original size and sample size after the key */
+	private static final int HEADER_SIZE = 4 * 7;
+
+	private final File mDirectory;
+
+	public PreviewCache(File directory) {
+		mDirectory = directory;
+	}
+
+	/**
+	 * Loads a cached preview
+	 *
+	 * @return the preview, or null if not cached
+	 */
+	public PreviewLoader.Preview get(PreviewLoader.ImageSource source, int maxWidth, int maxHeight) {
+		final String key = getKey(source, maxWidth, maxHeight);
+		final File file = getFile(key);
+		if (! file.isFile()) return null;
+
+		Bitmap bitmap = null;
+
+		try {
+			final ByteBuffer buffer = MappedFiles.map(file);
+			final byte[] keyBytes = key.getBytes("UTF-8");
+			if (buffer.capacity() < HEADER_SIZE + keyBytes.length) return null;
+			if (buffer.getInt() != MAGIC || buffer.getInt() != keyBytes.length) return null;
+
+			final byte[] storedKey = new byte[keyBytes.length];
+			buffer.get(storedKey);
+			if (! Arrays.equals(keyBytes, storedKey)) return null;
+
+			final int width = buffer.getInt();
+			final int height = buffer.getInt();
+			final int originalWidth = buffer.getInt();
+			final int originalHeight = buffer.getInt();
+			final int sampleSize = buffer.getInt();
+
+			if (width <= 0 || height <= 0 || buffer.remaining() != (long) width * height * 4) return null;
+
+			bitmap = BitmapPool.getInstance().obtain(width, height, Bitmap.Config.ARGB_8888);
+			bitmap.copyPixelsFromBuffer(buffer);
+
+			final PreviewLoader.Preview preview =
+				new PreviewLoader.Preview(source, bitmap, originalWidth, originalHeight, sampleSize);
+			bitmap = null;
+			return preview;
+		} catch (IOException e) {
+			logger.warn("cannot read %s: %s", file, e);
+			return null;
+		} finally {
+			if (null != bitmap) {
+				BitmapPool.getInstance().release(bitmap);
+			}
+		}
+	}
+
+	/**
+	 * Stores a preview, replacing the previous one
+	 *
+	 * @return false if the preview cannot be cached
+	 */
+	public boolean put(final PreviewLoader.Preview preview, int maxWidth, int maxHeight) {
+		final Bitmap bitmap = preview.bitmap;
+		if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) return false;
+
+		if (! mDirectory.isDirectory() && ! mDirectory.mkdirs()) {
+			logger.warn("cannot create %s", mDirectory);
+			return false;
+		}
+
+		final String key = getKey(preview.source, maxWidth, maxHeight);
+		final File file = getFile(key);
+
+		// removed first, so a failed write doesn't leave the stale entry around
+		clear();
+
+		try {
+			final byte[] keyBytes = key.getBytes("UTF-8");
+			final long size = HEADER_SIZE + keyBytes.length + (long) bitmap.getWidth() * bitmap.getHeight() * 4;
+
+			MappedFiles.write(
+				file, size, new MappedFiles.Writer() {
+					@Override
+					public void write(final ByteBuffer buffer) {
+						buffer.putInt(MAGIC);
+						buffer.putInt(keyBytes.length);
+						buffer.put(keyBytes);
+						buffer.putInt(bitmap.getWidth());
+						buffer.putInt(bitmap.getHeight());
+						buffer.putInt(preview.originalWidth);
+						buffer.putInt(preview.originalHeight);
+						buffer.putInt(preview.sampleSize);
+						bitmap.copyPixelsToBuffer(buffer);
+					}
+				}
+			);
+		} catch (IOException e) {
+			logger.warn("cannot write %s: %s", file, e);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes the cached preview
+	 */
+	public void clear() {
+		final File[] files = mDirectory.listFiles();
+		if (null == files) return;
+
+		for (File file : files) {
+			final String name = file.getName();
+			if (name.endsWith(EXTENSION) || (MappedFiles.isTemp(file) && name.contains(EXTENSION))) {
+				file.delete();
+			}
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(mDirectory, MappedFiles.sha256(key) + EXTENSION);
+	}
+
+	/**
+	 * The size is keyed long side first: a rotation swaps the screen width and height, but
+	 * the preview is the same (see {@link PreviewLoader#computeSampleSize(int, int, int, int)})
+	 */
+	static String getKey(PreviewLoader.ImageSource source, int maxWidth, int maxHeight) {
+		return source.getId() + "@" + Math.max(maxWidth, maxHeight) + "x" + Math.min(maxWidth, maxHeight);
+	}
+}
@@ -0,0 +1,300 @@
+package com.example.alessandro.vignette;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+
+import com.example.alessandro.vignette.log.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a screen sized preview of an image: the image bounds are read first,
+ * then the image is decoded with the largest sample size which still
+ * covers the requested size.<br />
+ * The returned {@link Preview} keeps a reference to the original {@link ImageSource},
+ * so the export can decode it again at full resolution.<br />
+ * With a {@link PreviewCache} the last preview is stored on disk and reused, i.e.
+ * after a process death, without decoding the image again.
+ *
+ * @author alessandro
+ */
+public class PreviewLoader {
+
+	private static final String TAG = "PreviewLoader";
+	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
+
+	/**
+	 * An image which can be opened more than once
+	 */
+	public static interface ImageSource {
+		InputStream open() throws IOException;
+
+		String getId();
+	}
+
+	public static interface OnPreviewListener {
+		void onPreviewLoaded(Preview preview);
+
+		void onPreviewFailed(Throwable error);
+	}
+
+	public static class Preview {
+		public final ImageSource source;
+		public final Bitmap bitmap;
+		public final int originalWidth;
+		public final int originalHeight;
+		public final int sampleSize;
+
+		Preview(ImageSource source, Bitmap bitmap, int originalWidth, int originalHeight, int sampleSize) {
+			this.source = source;
+			this.bitmap = bitmap;
+			this.originalWidth = originalWidth;
+			this.originalHeight = originalHeight;
+			this.sampleSize = sampleSize;
+		}
+	}
+
+	public static class AssetSource implements ImageSource {
+		private final AssetManager mAssets;
+		private final String mPath;
+
+		public AssetSource(AssetManager assets, String path) {
+			mAssets = assets;
+			mPath = path;
+		}
+
+		@Override
+		public InputStream open() throws IOException {
+			return mAssets.open(mPath);
+		}
+
+		@Override
+		public String getId() {
+			return "asset://" + mPath;
+		}
+	}
+
+	private final ImageSource mSource;
+	private final int mMaxWidth;
+	private final int mMaxHeight;
+	private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+	private BitmapPool mBitmapPool = BitmapPool.getInstance();
+	private PreviewCache mCache;
+	private LoadTask mTask;
+
+	/**
+	 * @param source    the image to load
+	 * @param maxWidth  the preview target width (i.e. the screen width)
+	 * @param maxHeight the preview target height
+	 */
+	public PreviewLoader(ImageSource source, int maxWidth, int maxHeight) {
+		mSource = source;
+		mMaxWidth = maxWidth;
+		mMaxHeight = maxHeight;
+	}
+
+	public void setPreferredConfig(Bitmap.Config config) {
+		mConfig = config;
+	}
+
+	/**
+	 * Pool used to reuse bitmaps through inBitmap, or null to always allocate
+	 */
+	public void setBitmapPool(BitmapPool pool) {
+		mBitmapPool = pool;
+	}
+
+	/**
+	 * Disk cache of the preview, or null to always decode the image
+	 */
+	public void setCache(PreviewCache cache) {
+		mCache = cache;
+	}
+
+	/**
+	 * Starts loading the preview in background. The listener is notified in the UI thread,
+	 * unless the loader has been cancelled.
+	 */
+	public void load(OnPreviewListener listener) {
+		cancel();
+		mTask = new LoadTask(listener);
+		mTask.execute();
+	}
+
+	public void cancel() {
+		if (null != mTask) {
+			mTask.cancel(true);
+			mTask = null;
+		}
+	}
+
+	/**
+	 * Loads the preview in the current thread, from the cache if possible
+	 */
+	public Preview decode() throws IOException {
+		final PreviewCache cache = mCache;
+
+		if (null != cache) {
+			final Preview cached = cache.get(mSource, mMaxWidth, mMaxHeight);
+			if (null != cached) {
+				logger.info("cached: %s", mSource.getId());
+				return cached;
+			}
+		}
+
+		final Preview preview = decodeSource();
+
+		if (null != cache) {
+			cache.put(preview, mMaxWidth, mMaxHeight);
+		}
+		return preview;
+	}
+
+	private Preview decodeSource() throws IOException {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		decodeStream(mSource, options);
+
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			throw new IOException("cannot decode " + mSource.getId());
+		}
+
+		final int width = options.outWidth;
+		final int height = options.outHeight;
+		final int sampleSize = computeSampleSize(width, height, mMaxWidth, mMaxHeight);
+
+		logger.info("decode: %s, %dx%d, sample size: %d", mSource.getId(), width, height, sampleSize);
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = mConfig;
+
+		Bitmap bitmap = null;
+		if (null != mBitmapPool) {
+			mBitmapPool.prepareOptions(
+				options, (width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize);
+
+			if (null != options.inBitmap) {
+				try {
+					bitmap = decodeStream(mSource, options);
+				} catch (IllegalArgumentException e) {
+					// the pooled bitmap cannot be reused for this image
+					logger.warn("inBitmap rejected: %s", e.getMessage());
+				}
+
+				if (bitmap != options.inBitmap) {
+					mBitmapPool.release(options.inBitmap);
+				}
+				options.inBitmap = null;
+			}
+		}
+
+		if (null == bitmap) {
+			bitmap = decodeStream(mSource, options);
+		}
+
+		if (null == bitmap) {
+			throw new IOException("cannot decode " + mSource.getId());
+		}
+		return new Preview(mSource, bitmap, width, height, sampleSize);
+	}
+
+	/**
+	 * Decodes the original image at full resolution, as a mutable bitmap
+	 * which can be passed to {@link VignetteExporter#renderInPlace(Bitmap)}
+	 */
+	public static Bitmap decodeOriginal(ImageSource source) throws IOException {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		options.inMutable = true;
+
+		final Bitmap bitmap = decodeStream(source, options);
+		if (null == bitmap) {
+			throw new IOException("cannot decode " + source.getId());
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Largest power of 2 sample size which keeps both the dimensions
+	 * greater than or equal to the requested ones. The long side is compared with the
+	 * long side, so a landscape image on a portrait screen gets the same sample size
+	 * as on a landscape one.
+	 */
+	public static int computeSampleSize(int width, int height, int reqWidth, int reqHeight) {
+		int sampleSize = 1;
+		if (reqWidth <= 0 || reqHeight <= 0) return sampleSize;
+
+		final int longSide = Math.max(width, height);
+		final int shortSide = Math.min(width, height);
+		final int reqLongSide = Math.max(reqWidth, reqHeight);
+		final int reqShortSide = Math.min(reqWidth, reqHeight);
+
+		while ((longSide / (sampleSize * 2)) >= reqLongSide && (shortSide / (sampleSize * 2)) >= reqShortSide) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	private static Bitmap decodeStream(ImageSource source, BitmapFactory.Options options) throws IOException {
+		final InputStream stream = source.open();
+		try {
+			return BitmapFactory.decodeStream(stream, null, options);
+		} finally {
+			stream.close();
+		}
+	}
+
+	class LoadTask extends AsyncTask<Void, Void, Preview> {
+
+		private final OnPreviewListener mListener;
+		private Throwable mError;
+
+		LoadTask(final OnPreviewListener listener) {
+			mListener = listener;
+		}
+
+		@Override
+		protected Preview doInBackground(final Void... params) {
+			try {
+				return decode();
+			} catch (Throwable t) {
+				mError = t;
+				return null;
+			}
+		}
+
+		@Override
+		protected void onCancelled(final Preview preview) {
+			logger.info("load cancelled: %s", mSource.getId());
+			if (null != preview) {
+				final BitmapPool pool = mBitmapPool;
+				if (null != pool) {
+					pool.release(preview.bitmap);
+				}
+				else {
+					preview.bitmap.recycle();
+				}
+			}
+		}
+
+		@Override
+		protected void onPostExecute(final Preview preview) {
+			if (mTask == this) {
+				mTask = null;
+			}
+
+			if (null == mListener) return;
+
+			if (null != preview) {
+				mListener.onPreviewLoaded(preview);
+			}
+			else {
+				mListener.onPreviewFailed(mError);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.example.alessandro.vignette;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import com.example.alessandro.vignette.core.TileSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link TileSource} backed by a {@link BitmapRegionDecoder}: only the requested
+ * region of the image is decoded, so images larger than the texture limit
+ * (or the heap) can be processed.
+ *
+ * @author alessandro
+ */
+public class RegionTileSource implements TileSource {
+
+	private final BitmapRegionDecoder mDecoder;
+	private final BitmapFactory.Options mOptions;
+	private final Rect mRect = new Rect();
+
+	public RegionTileSource(PreviewLoader.ImageSource source) throws IOException {
+		final InputStream stream = source.open();
+		try {
+			mDecoder = BitmapRegionDecoder.newInstance(stream, false);
+		} finally {
+			stream.close();
+		}
+
+		mOptions = new BitmapFactory.Options();
+		mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+	}
+
+	@Override
+	public int getWidth() {
+		return mDecoder.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return mDecoder.getHeight();
+	}
+
+	@Override
+	public void readTile(
+		final int x, final int y, final int width, final int height, final int[] pixels, final int offset, final int stride)
+		throws IOException {
+
+		mRect.set(x, y, x + width, y + height);
+		final Bitmap tile = mDecoder.decodeRegion(mRect, mOptions);
+		if (null == tile) {
+			throw new IOException("cannot decode region " + mRect);
+		}
+
+		tile.getPixels(pixels, offset, stride, 0, 0, width, height);
+		tile.recycle();
+	}
+
+	@Override
+	public void close() {
+		mDecoder.recycle();
+	}
+}
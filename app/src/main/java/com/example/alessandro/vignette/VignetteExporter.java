@@ -0,0 +1,405 @@
+package com.example.alessandro.vignette;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.os.AsyncTask;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.example.alessandro.vignette.core.FalloffTable;
+import com.example.alessandro.vignette.core.IntArrayPool;
+import com.example.alessandro.vignette.core.MultiVignetteKernel;
+import com.example.alessandro.vignette.core.ParallelVignetteRenderer;
+import com.example.alessandro.vignette.core.PngScanlineSink;
+import com.example.alessandro.vignette.core.RenderCache;
+import com.example.alessandro.vignette.core.ScanlineSink;
+import com.example.alessandro.vignette.core.StreamingVignetteRenderer;
+import com.example.alessandro.vignette.core.TileSource;
+import com.example.alessandro.vignette.core.VignetteKernel;
+import com.example.alessandro.vignette.core.VignetteParams;
+import com.example.alessandro.vignette.log.LoggerFactory;
+
+/**
+ * Bakes the vignette effect into a full resolution bitmap.<br />
+ * The bitmap is processed in square tiles through a {@link MultiVignetteKernel} (the main vignette
+ * plus the additional masks), using all the available
+ * cores. The only full size buffer allocated is the output bitmap itself (none at all when using
+ * {@link #renderInPlace(Bitmap)}), plus one tile buffer per thread; the {@link RenderCache}
+ * is read and written one band of rows at a time.
+ * Use {@link ImageViewVignette#createExporter(int, int)} to get an exporter
+ * already mapped to the bitmap space.
+ *
+ * @author alessandro
+ */
+public class VignetteExporter {
+
+	private static final String TAG = "VignetteExporter";
+	private static final LoggerFactory.Logger logger = LoggerFactory.getLogger(TAG);
+
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+	private static ExecutorService sExecutor;
+
+	public static interface OnExportListener {
+		void onExportComplete(Bitmap result);
+
+		void onExportFailed(Throwable error);
+	}
+
+	private final RectF mOvalRect;
+	private final VignetteKernel mKernel;
+	private final MultiVignetteKernel mKernels;
+	private final int mTileSize;
+
+	private RenderCache mCache;
+	private String mCacheKey;
+
+	private volatile boolean mCancelled;
+	private volatile StreamingVignetteRenderer mStreamingRenderer;
+
+	/**
+	 * @param ovalRect  the gradient oval, in bitmap coordinates
+	 * @param feather   the feather value, between 0 and 1
+	 * @param intensity the intensity value, between -100 and 100
+	 */
+	public VignetteExporter(final RectF ovalRect, final float feather, final int intensity) {
+		this(ovalRect, new FalloffTable(feather, intensity));
+	}
+
+	/**
+	 * @param ovalRect the gradient oval, in bitmap coordinates
+	 * @param falloff  the precomputed falloff table
+	 */
+	public VignetteExporter(final RectF ovalRect, final FalloffTable falloff) {
+		this(ovalRect, falloff, DEFAULT_TILE_SIZE);
+	}
+
+	public VignetteExporter(final RectF ovalRect, final FalloffTable falloff, final int tileSize) {
+		this(VignetteKernel.fromOval(ovalRect.left, ovalRect.top, ovalRect.right, ovalRect.bottom, falloff), tileSize);
+	}
+
+	/**
+	 * @param kernel the kernel, in bitmap coordinates (see {@link VignetteParams#toKernel(int, int, FalloffTable)})
+	 */
+	public VignetteExporter(final VignetteKernel kernel, final int tileSize) {
+		this(new MultiVignetteKernel(kernel), tileSize);
+	}
+
+	/**
+	 * @param kernels the main vignette kernel followed by the additional masks, in bitmap coordinates
+	 */
+	public VignetteExporter(final MultiVignetteKernel kernels, final int tileSize) {
+		if (tileSize <= 0) throw new IllegalArgumentException("invalid tile size: " + tileSize);
+		if (kernels.size() == 0) throw new IllegalArgumentException("no kernels");
+
+		final VignetteKernel kernel = kernels.getKernel(0);
+		mKernel = kernel;
+		mKernels = kernels;
+		mOvalRect = new RectF(
+			kernel.getCenterX() - kernel.getRadiusX(), kernel.getCenterY() - kernel.getRadiusY(),
+			kernel.getCenterX() + kernel.getRadiusX(), kernel.getCenterY() + kernel.getRadiusY()
+		);
+		mTileSize = tileSize;
+	}
+
+	/**
+	 * The gradient oval, in bitmap coordinates, before the rotation
+	 */
+	public RectF getOvalRect() {
+		return mOvalRect;
+	}
+
+	/**
+	 * The main vignette kernel
+	 */
+	public VignetteKernel getKernel() {
+		return mKernel;
+	}
+
+	/**
+	 * All the kernels applied by the exporter, the main one first
+	 */
+	public MultiVignetteKernel getKernels() {
+		return mKernels;
+	}
+
+	public void cancel() {
+		mCancelled = true;
+
+		final StreamingVignetteRenderer renderer = mStreamingRenderer;
+		if (null != renderer) {
+			renderer.cancel();
+		}
+	}
+
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
+	/**
+	 * Makes {@link #render(Bitmap)} read the result from the cache, or store it there
+	 *
+	 * @param key the key of the rendered image, see {@link RenderCache#key(String, int, int, java.util.List)}
+	 */
+	public void setCache(final RenderCache cache, final String key) {
+		mCache = cache;
+		mCacheKey = key;
+	}
+
+	/**
+	 * Renders the vignette into a mutable copy of the source bitmap, taken from the
+	 * {@link BitmapPool}. Must not be called from the UI thread.
+	 *
+	 * @return the output bitmap, or null if the export has been cancelled
+	 */
+	public Bitmap render(final Bitmap source) {
+		final BitmapPool pool = BitmapPool.getInstance();
+		final Bitmap output = pool.obtain(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+		final RenderCache cache = mCache;
+
+		// the cache is streamed a band at a time: no full size buffer besides the bitmap
+		if (null != cache) {
+			try {
+				if (cache.get(mCacheKey, new BitmapBands(output))) {
+					logger.info("render: cached %s", mCacheKey);
+					return output;
+				}
+			} catch (IOException e) {
+				logger.warn("cannot read %s: %s", mCacheKey, e.getMessage());
+			}
+		}
+
+		new Canvas(output).drawBitmap(source, 0, 0, null);
+
+		if (! renderInPlace(output)) {
+			pool.release(output);
+			return null;
+		}
+
+		if (null != cache) {
+			cache.put(mCacheKey, new BitmapBands(output));
+		}
+		return output;
+	}
+
+	/**
+	 * Renders the vignette directly into the passed bitmap, which must be mutable.
+	 * Must not be called from the UI thread.
+	 *
+	 * @return false if the export has been cancelled
+	 */
+	public boolean renderInPlace(final Bitmap bitmap) {
+		if (! bitmap.isMutable()) {
+			throw new IllegalArgumentException("bitmap is not mutable");
+		}
+
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		final long time = System.currentTimeMillis();
+
+		logger.info("renderInPlace: %dx%d, tile: %d, threads: %d", width, height, mTileSize, THREAD_COUNT);
+
+		final ParallelVignetteRenderer renderer = new ParallelVignetteRenderer(getExecutor(), THREAD_COUNT);
+
+		// one tile buffer per thread
+		final IntArrayPool pool = IntArrayPool.getInstance();
+		final BlockingQueue<int[]> buffers = new ArrayBlockingQueue<int[]>(THREAD_COUNT);
+		for (int i = 0; i < THREAD_COUNT; i++) {
+			buffers.add(pool.obtain(mTileSize * mTileSize));
+		}
+
+		final boolean completed;
+		try {
+			completed = renderer.forEachTile(
+				width, height, mTileSize, mTileSize, new ParallelVignetteRenderer.TileHandler() {
+					@Override
+					public boolean onTile(final int x, final int y, final int w, final int h) throws InterruptedException {
+						if (mCancelled) return false;
+						if (mKernels.isRegionUnaffected(x, y, x + w, y + h)) return true;
+
+						final int[] pixels = buffers.take();
+						try {
+							bitmap.getPixels(pixels, 0, w, x, y, w, h);
+							mKernels.apply(pixels, 0, w, x, y, w, h);
+							bitmap.setPixels(pixels, 0, w, x, y, w, h);
+						} finally {
+							buffers.add(pixels);
+						}
+						return true;
+					}
+				}
+			);
+		} catch (InterruptedException e) {
+			logger.warn("export interrupted");
+			return false;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			// buffers still held by running tasks (after an interrupt) are left to the GC
+			for (int[] buffer : buffers) {
+				pool.release(buffer);
+			}
+		}
+
+		if (! completed) {
+			logger.warn("export cancelled");
+			return false;
+		}
+
+		logger.info("renderInPlace completed in %dms", System.currentTimeMillis() - time);
+		return true;
+	}
+
+	/**
+	 * Streams the source image into the sink, one band at a time, without ever loading the
+	 * full image. Use this for images which don't fit in memory: the exporter must have been
+	 * created for the full size of the source image. Must not be called from the UI thread.
+	 * The sink encodes the result while it's received, i.e. a {@link PngScanlineSink}.
+	 *
+	 * @return false if the export has been cancelled
+	 */
+	public boolean renderStreaming(final PreviewLoader.ImageSource source, final ScanlineSink sink) throws IOException {
+		final long time = System.currentTimeMillis();
+		final RegionTileSource tiles = new RegionTileSource(source);
+
+		try {
+			logger.info("renderStreaming: %s, %dx%d", source.getId(), tiles.getWidth(), tiles.getHeight());
+
+			final StreamingVignetteRenderer renderer = new StreamingVignetteRenderer(mTileSize, mTileSize);
+			mStreamingRenderer = renderer;
+			if (mCancelled || ! renderer.render(tiles, mKernels, sink)) {
+				logger.warn("export cancelled");
+				return false;
+			}
+		} finally {
+			mStreamingRenderer = null;
+			tiles.close();
+		}
+
+		logger.info("renderStreaming completed in %dms", System.currentTimeMillis() - time);
+		return true;
+	}
+
+	/**
+	 * Starts the export in a background thread. The listener is notified in the UI thread.
+	 * Cancelling the returned task with {@code cancel(true)} stops the export at the next tile.
+	 */
+	public AsyncTask<Bitmap, Void, Bitmap> execute(final Bitmap source, final OnExportListener listener) {
+		return new ExportTask(listener).execute(source);
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (null == sExecutor) {
+			sExecutor = Executors.newFixedThreadPool(
+				THREAD_COUNT, new ThreadFactory() {
+					int mCount;
+
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread = new Thread(runnable, TAG + "-" + (mCount++));
+						thread.setPriority(Thread.MIN_PRIORITY);
+						thread.setDaemon(true);
+						return thread;
+					}
+				}
+			);
+		}
+		return sExecutor;
+	}
+
+	/**
+	 * Reads or writes the pixels of a bitmap a band of rows at a time
+	 */
+	private static class BitmapBands implements TileSource, ScanlineSink {
+		private final Bitmap mBitmap;
+		private int mRow;
+
+		BitmapBands(final Bitmap bitmap) {
+			mBitmap = bitmap;
+		}
+
+		@Override
+		public int getWidth() {
+			return mBitmap.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return mBitmap.getHeight();
+		}
+
+		@Override
+		public void readTile(
+			final int x, final int y, final int width, final int height, final int[] pixels, final int offset, final int stride) {
+			mBitmap.getPixels(pixels, offset, stride, x, y, width, height);
+		}
+
+		@Override
+		public void close() {}
+
+		@Override
+		public void begin(final int width, final int height) throws IOException {
+			if (width != mBitmap.getWidth() || height != mBitmap.getHeight()) {
+				throw new IOException("size mismatch: " + width + "x" + height);
+			}
+			mRow = 0;
+		}
+
+		@Override
+		public void write(final int[] pixels, final int offset, final int stride, final int rows) {
+			mBitmap.setPixels(pixels, offset, stride, 0, mRow, mBitmap.getWidth(), rows);
+			mRow += rows;
+		}
+
+		@Override
+		public void end() {}
+	}
+
+	class ExportTask extends AsyncTask<Bitmap, Void, Bitmap> {
+
+		private final OnExportListener mListener;
+		private Throwable mError;
+
+		ExportTask(final OnExportListener listener) {
+			mListener = listener;
+		}
+
+		@Override
+		protected Bitmap doInBackground(final Bitmap... params) {
+			try {
+				return render(params[0]);
+			} catch (Throwable t) {
+				mError = t;
+				return null;
+			}
+		}
+
+		@Override
+		protected void onCancelled(final Bitmap bitmap) {
+			if (null != bitmap) {
+				BitmapPool.getInstance().release(bitmap);
+			}
+		}
+
+		@Override
+		protected void onPostExecute(final Bitmap bitmap) {
+			if (null == mListener) return;
+
+			if (null != bitmap) {
+				mListener.onExportComplete(bitmap);
+			}
+			else {
+				mListener.onExportFailed(null != mError ? mError : new InterruptedException("export cancelled"));
+			}
+		}
+	}
+}
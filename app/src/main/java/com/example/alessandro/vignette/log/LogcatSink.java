@@ -0,0 +1,24 @@
+package com.example.alessandro.vignette.log;
+
+import android.util.Log;
+
+import com.example.alessandro.vignette.core.AsyncLogWriter;
+
+/**
+ * {@link AsyncLogWriter.Sink} writing the records to logcat
+ *
+ * @author alessandro
+ */
+public class LogcatSink implements AsyncLogWriter.Sink {
+
+	@Override
+	public void write(int priority, String tag, String message, long time) {
+		Log.println(priority, tag, message);
+	}
+
+	@Override
+	public void flush() {}
+
+	@Override
+	public void close() {}
+}
@@ -3,27 +3,65 @@ package com.example.alessandro.vignette.log;
 
 import android.util.Log;
 
+import com.example.alessandro.vignette.BuildConfig;
+import com.example.alessandro.vignette.core.AsyncLogWriter;
+
 import java.util.Formatter;
 
 /**
- * Utility class used for android logging
+ * Utility class used for android logging.<br />
+ * Every logger decides which levels are enabled when it's created, so a disabled call
+ * is a single branch: the fixed arity methods don't even allocate the varargs array, and
+ * the message is only formatted when the level is enabled, using a per thread Formatter.<br />
+ * Arguments are still boxed by the caller: guard calls with primitive arguments in hot
+ * paths with the isXxxEnabled methods.
  *
  * @author alessandro
  */
 public class LoggerFactory {
 
 	/**
-	 * turning LOG_ENABLED to false will prevent any debug event with the
-	 * exception of error logs
+	 * false in release builds: no debug event is logged, with the exception of error logs
 	 */
-	public static boolean LOG_ENABLED = true;
+	public static final boolean LOG_ENABLED = BuildConfig.DEBUG;
+
+	/** minimum level of the loggers created from now on */
+	private static volatile int sMinLevel = Log.VERBOSE;
+
+	/** reused builders larger than this are released */
+	private static final int MAX_BUILDER_CAPACITY = 4096;
+
+	private static final ThreadLocal<MessageFormatter> sFormatter = new ThreadLocal<MessageFormatter>() {
+		@Override
+		protected MessageFormatter initialValue() {
+			return new MessageFormatter();
+		}
+	};
+
+	/** shared by all the async loggers, see {@link #setAsyncWriter(AsyncLogWriter)} */
+	private static AsyncLogWriter sAsyncWriter;
 
 	public static enum LoggerType {
 		ConsoleLoggerType,
+
+		/** records are queued and written to logcat (or to the async writer sink) by a background thread */
+		AsyncLoggerType,
 	}
 
 	public static interface Logger {
 
+		boolean isVerboseEnabled();
+
+		boolean isLogEnabled();
+
+		boolean isInfoEnabled();
+
+		boolean isWarnEnabled();
+
+		boolean isErrorEnabled();
+
+		void verbose(String message);
+
 		void log(String message);
 
 		void info(String message);
@@ -43,124 +81,349 @@ public class LoggerFactory {
 		 */
 		void log(String format, Object... args);
 
+		void log(String format, Object arg);
+
+		void log(String format, Object arg1, Object arg2);
+
+		void log(String format, Object arg1, Object arg2, Object arg3);
+
 		void info(String format, Object... args);
 
+		void info(String format, Object arg);
+
+		void info(String format, Object arg1, Object arg2);
+
+		void info(String format, Object arg1, Object arg2, Object arg3);
+
 		void warn(String format, Object... args);
 
+		void warn(String format, Object arg);
+
+		void warn(String format, Object arg1, Object arg2);
+
+		void warn(String format, Object arg1, Object arg2, Object arg3);
+
 		void error(String format, Object... args);
 
+		void error(String format, Object arg);
+
+		void error(String format, Object arg1, Object arg2);
+
+		void error(String format, Object arg1, Object arg2, Object arg3);
+
 		void verbose(String s, Object... args);
+
+		void verbose(String format, Object arg);
+
+		void verbose(String format, Object arg1, Object arg2);
+
+		void verbose(String format, Object arg1, Object arg2, Object arg3);
 	}
 
 	abstract static class BaseLogger implements Logger {
 
-		String tag;
+		final String tag;
+
+		private final boolean mVerbose;
+		private final boolean mDebug;
+		private final boolean mInfo;
+		private final boolean mWarn;
+		private final boolean mError;
 
-		public BaseLogger(String basetag) {
+		/**
+		 * @param minLevel the lowest enabled level, one of the {@link Log} priorities
+		 */
+		public BaseLogger(String basetag, int minLevel) {
 			tag = basetag;
+			mVerbose = minLevel <= Log.VERBOSE;
+			mDebug = minLevel <= Log.DEBUG;
+			mInfo = minLevel <= Log.INFO;
+			mWarn = minLevel <= Log.WARN;
+			mError = minLevel <= Log.ERROR;
 		}
 
+		/**
+		 * Writes a message, only called for the enabled levels
+		 */
+		protected abstract void print(int priority, String message);
+
 		protected StringBuilder formatArguments(Object... args) {
 			StringBuilder b = new StringBuilder();
-			for (Object obj : args) {
-				b.append(obj + ", ");
+			for (int i = 0; i < args.length; i++) {
+				if (i > 0) b.append(", ");
+				b.append(args[i]);
 			}
 			return b;
 		}
-	}
 
-	static class NullLogger extends BaseLogger {
+		@Override
+		public boolean isVerboseEnabled() {
+			return mVerbose;
+		}
 
-		public NullLogger(String basetag) {
-			super(basetag);
+		@Override
+		public boolean isLogEnabled() {
+			return mDebug;
 		}
 
 		@Override
-		public void log(String message) {}
+		public boolean isInfoEnabled() {
+			return mInfo;
+		}
 
 		@Override
-		public void info(String message) {}
+		public boolean isWarnEnabled() {
+			return mWarn;
+		}
 
 		@Override
-		public void warn(String message) {}
+		public boolean isErrorEnabled() {
+			return mError;
+		}
+
+		// verbose
 
 		@Override
-		public void error(String message) {}
+		public void verbose(String message) {
+			if (mVerbose) print(Log.VERBOSE, message);
+		}
 
 		@Override
-		public void verbose(String format, Object... args) {}
+		public void verbose(String format, Object... args) {
+			if (mVerbose) print(Log.VERBOSE, format(format, args));
+		}
 
 		@Override
-		public void log(String format, Object... args) {}
+		public void verbose(String format, Object arg) {
+			if (mVerbose) print(Log.VERBOSE, format(format, arg));
+		}
 
 		@Override
-		public void info(String format, Object... args) {}
+		public void verbose(String format, Object arg1, Object arg2) {
+			if (mVerbose) print(Log.VERBOSE, format(format, arg1, arg2));
+		}
 
 		@Override
-		public void warn(String format, Object... args) {}
+		public void verbose(String format, Object arg1, Object arg2, Object arg3) {
+			if (mVerbose) print(Log.VERBOSE, format(format, arg1, arg2, arg3));
+		}
+
+		// debug
 
 		@Override
-		public void error(String format, Object... args) {}
+		public void log(String message) {
+			if (mDebug) print(Log.DEBUG, message);
+		}
 
-	}
+		@Override
+		public void log(String format, Object... args) {
+			if (mDebug) print(Log.DEBUG, format(format, args));
+		}
 
-	static class ConsoleLogger extends BaseLogger {
+		@Override
+		public void log(String format, Object arg) {
+			if (mDebug) print(Log.DEBUG, format(format, arg));
+		}
 
-		public ConsoleLogger(String basetag) {
-			super(basetag);
+		@Override
+		public void log(String format, Object arg1, Object arg2) {
+			if (mDebug) print(Log.DEBUG, format(format, arg1, arg2));
 		}
 
 		@Override
-		public void log(String message) {
-			Log.d(tag, message);
+		public void log(String format, Object arg1, Object arg2, Object arg3) {
+			if (mDebug) print(Log.DEBUG, format(format, arg1, arg2, arg3));
 		}
 
+		// info
+
 		@Override
 		public void info(String message) {
-			Log.i(tag, message);
+			if (mInfo) print(Log.INFO, message);
 		}
 
 		@Override
-		public void warn(String message) {
-			Log.w(tag, message);
+		public void info(String format, Object... args) {
+			if (mInfo) print(Log.INFO, format(format, args));
 		}
 
 		@Override
-		public void error(String message) {
-			Log.e(tag, message);
+		public void info(String format, Object arg) {
+			if (mInfo) print(Log.INFO, format(format, arg));
 		}
 
 		@Override
-		public void verbose(String format, Object... args) {
-			Log.v(tag, String.format(format, args));
+		public void info(String format, Object arg1, Object arg2) {
+			if (mInfo) print(Log.INFO, format(format, arg1, arg2));
 		}
 
 		@Override
-		public void log(String format, Object... args) {
-			Log.d(tag, String.format(format, args));
+		public void info(String format, Object arg1, Object arg2, Object arg3) {
+			if (mInfo) print(Log.INFO, format(format, arg1, arg2, arg3));
 		}
 
+		// warn
+
 		@Override
-		public void info(String format, Object... args) {
-			Log.i(tag, String.format(format, args));
+		public void warn(String message) {
+			if (mWarn) print(Log.WARN, message);
 		}
 
 		@Override
 		public void warn(String format, Object... args) {
-			Log.w(tag, String.format(format, args));
+			if (mWarn) print(Log.WARN, format(format, args));
+		}
+
+		@Override
+		public void warn(String format, Object arg) {
+			if (mWarn) print(Log.WARN, format(format, arg));
+		}
+
+		@Override
+		public void warn(String format, Object arg1, Object arg2) {
+			if (mWarn) print(Log.WARN, format(format, arg1, arg2));
+		}
+
+		@Override
+		public void warn(String format, Object arg1, Object arg2, Object arg3) {
+			if (mWarn) print(Log.WARN, format(format, arg1, arg2, arg3));
+		}
+
+		// error
+
+		@Override
+		public void error(String message) {
+			if (mError) print(Log.ERROR, message);
 		}
 
 		@Override
 		public void error(String format, Object... args) {
-			Log.e(tag, String.format(format, args));
+			if (mError) print(Log.ERROR, format(format, args));
+		}
+
+		@Override
+		public void error(String format, Object arg) {
+			if (mError) print(Log.ERROR, format(format, arg));
+		}
+
+		@Override
+		public void error(String format, Object arg1, Object arg2) {
+			if (mError) print(Log.ERROR, format(format, arg1, arg2));
+		}
+
+		@Override
+		public void error(String format, Object arg1, Object arg2, Object arg3) {
+			if (mError) print(Log.ERROR, format(format, arg1, arg2, arg3));
 		}
 	}
 
-	public static Logger getLogger(String basetag, LoggerType type) {
-		if (LOG_ENABLED) {
-			if (type == LoggerType.ConsoleLoggerType) {
-				return new ConsoleLogger(basetag);
+	static class NullLogger extends BaseLogger {
+
+		public NullLogger(String basetag) {
+			super(basetag, Integer.MAX_VALUE);
+		}
+
+		@Override
+		protected void print(int priority, String message) {}
+	}
+
+	static class ConsoleLogger extends BaseLogger {
+
+		public ConsoleLogger(String basetag, int minLevel) {
+			super(basetag, minLevel);
+		}
+
+		@Override
+		protected void print(int priority, String message) {
+			Log.println(priority, tag, message);
+		}
+	}
+
+	/**
+	 * Only formats the message on the calling thread, see {@link AsyncLogWriter}
+	 */
+	static class AsyncLogger extends BaseLogger {
+
+		private final AsyncLogWriter mWriter;
+
+		public AsyncLogger(String basetag, int minLevel, AsyncLogWriter writer) {
+			super(basetag, minLevel);
+			mWriter = writer;
+		}
+
+		@Override
+		protected void print(int priority, String message) {
+			mWriter.write(priority, tag, message);
+		}
+	}
+
+	/**
+	 * Formatter writing into a reusable StringBuilder
+	 */
+	static final class MessageFormatter {
+		final StringBuilder builder = new StringBuilder(128);
+		final Formatter formatter = new Formatter(builder);
+		boolean busy;
+	}
+
+	/**
+	 * Same as String.format, reusing the Formatter of the current thread
+	 */
+	static String format(String format, Object... args) {
+		final MessageFormatter holder = sFormatter.get();
+
+		// an argument's toString is logging too
+		if (holder.busy) return String.format(format, args);
+
+		holder.busy = true;
+		try {
+			holder.builder.setLength(0);
+			holder.formatter.format(format, args);
+			return holder.builder.toString();
+		} finally {
+			if (holder.builder.capacity() > MAX_BUILDER_CAPACITY) {
+				holder.builder.setLength(0);
+				holder.builder.trimToSize();
 			}
+			holder.busy = false;
+		}
+	}
+
+	/**
+	 * Sets the lowest level (one of the {@link Log} priorities) of the loggers created
+	 * after this call. In release builds only errors are logged anyway.
+	 */
+	public static void setMinLevel(int level) {
+		sMinLevel = level;
+	}
+
+	/**
+	 * Sets the writer used by the async loggers created after this call
+	 * (i.e. one with a file sink). The previous writer is not closed.
+	 */
+	public static synchronized void setAsyncWriter(AsyncLogWriter writer) {
+		sAsyncWriter = writer;
+	}
+
+	/**
+	 * Returns the writer of the async loggers, writing to logcat unless
+	 * another one has been set
+	 */
+	public static synchronized AsyncLogWriter getAsyncWriter() {
+		if (null == sAsyncWriter || sAsyncWriter.isClosed()) {
+			sAsyncWriter = new AsyncLogWriter(new LogcatSink());
+		}
+		return sAsyncWriter;
+	}
+
+	public static Logger getLogger(String basetag, LoggerType type) {
+		final int minLevel = LOG_ENABLED ? sMinLevel : Math.max(sMinLevel, Log.ERROR);
+
+		if (type == LoggerType.ConsoleLoggerType) {
+			return new ConsoleLogger(basetag, minLevel);
+		}
+		else if (type == LoggerType.AsyncLoggerType) {
+			return new AsyncLogger(basetag, minLevel, getAsyncWriter());
 		}
 		return new NullLogger(basetag);
 	}
@@ -169,4 +432,3 @@ public class LoggerFactory {
 		return getLogger(basetag, LoggerType.ConsoleLoggerType);
 	}
 }
-
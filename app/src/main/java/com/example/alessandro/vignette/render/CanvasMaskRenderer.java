@@ -0,0 +1,94 @@
+package com.example.alessandro.vignette.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.List;
+
+/**
+ * Draws the mask through Skia: the background rect, then the gradient
+ * oval with DST_OUT to remove the background inside the ellipse.<br />
+ * Additional masks are a single SRC_OVER draw each: the whole bitmap rect for
+ * vignettes (the gradient is clamped to the overlay color outside the ellipse),
+ * the oval for spots, so all the masks end up in the same bitmap without any layer.<br />
+ * RadialGradient has no focal point, so the focal offset is ignored.<br />
+ * The lower quality tiers draw through a scaled canvas, the tiers which are not smooth
+ * temporarily clear the anti alias and dither flags of the paints.
+ *
+ * @author alessandro
+ */
+abstract class CanvasMaskRenderer extends MaskRenderer {
+
+	/** paint flags saved while drawing a tier without anti aliasing and dithering */
+	private int[] mSavedFlags = new int[0];
+
+	@Override
+	protected void onRender(
+		final Canvas canvas, final Bitmap bitmap, final List<VignetteMask> masks, final MaskQuality quality) {
+		final int saveCount = canvas.save();
+		if (quality.sampleSize != 1) {
+			final float scale = 1f / quality.sampleSize;
+			canvas.scale(scale, scale);
+		}
+
+		if (! quality.smooth) {
+			setSmooth(masks, false);
+		}
+
+		try {
+			for (int i = 0, count = masks.size(); i < count; i++) {
+				final VignetteMask mask = masks.get(i);
+
+				if (null != mask.backgroundPaint) {
+					canvas.drawRect(mask.bitmapRect, mask.backgroundPaint);
+				}
+				else if (! mask.falloff.isInverted()) {
+					canvas.drawRect(mask.bitmapRect, mask.shaderPaint);
+					continue;
+				}
+
+				// the shader matrix is already rotated
+				if (mask.rotation == 0) {
+					canvas.drawOval(mask.ovalRect, mask.shaderPaint);
+				}
+				else {
+					canvas.drawPath(mask.ovalPath, mask.shaderPaint);
+				}
+			}
+		} finally {
+			if (! quality.smooth) {
+				setSmooth(masks, true);
+			}
+			canvas.restoreToCount(saveCount);
+		}
+	}
+
+	/**
+	 * Clears the anti alias and dither flags of the masks paints, or restores them
+	 */
+	private void setSmooth(final List<VignetteMask> masks, final boolean restore) {
+		final int count = masks.size();
+		if (! restore && mSavedFlags.length < count * 2) {
+			mSavedFlags = new int[count * 2];
+		}
+
+		for (int i = 0; i < count; i++) {
+			final VignetteMask mask = masks.get(i);
+			setSmooth(mask.backgroundPaint, i * 2, restore);
+			setSmooth(mask.shaderPaint, i * 2 + 1, restore);
+		}
+	}
+
+	private void setSmooth(final Paint paint, final int index, final boolean restore) {
+		if (null == paint) return;
+
+		if (restore) {
+			paint.setFlags(mSavedFlags[index]);
+		}
+		else {
+			mSavedFlags[index] = paint.getFlags();
+			paint.setFlags(mSavedFlags[index] & ~ (Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG));
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.example.alessandro.vignette.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+
+import com.example.alessandro.vignette.core.IntArrayPool;
+import com.example.alessandro.vignette.core.MultiVignetteKernel;
+import com.example.alessandro.vignette.core.VignetteKernel;
+
+import java.util.List;
+
+/**
+ * Computes the mask pixels with the plain java {@link VignetteKernel}, the same
+ * code used by the exporter, so the preview matches the exported image.<br />
+ * Multiple masks are evaluated in a single pass by a {@link MultiVignetteKernel}.
+ *
+ * @author alessandro
+ */
+public class CpuKernelMaskRenderer extends MaskRenderer {
+
+	/** kernels of the last render, rebuilt only for the masks which changed */
+	private VignetteKernel[] mKernels = new VignetteKernel[0];
+	private MultiVignetteKernel mMultiKernel;
+
+	@Override
+	public String getName() {
+		return "CpuKernel";
+	}
+
+	@Override
+	public boolean isSupported(final View view) {
+		return true;
+	}
+
+	@Override
+	public boolean supportsFocalOffset() {
+		return true;
+	}
+
+	@Override
+	public void onAttached(final View view) {
+		// the mask is a plain bitmap, no need for an extra layer
+		view.setLayerType(View.LAYER_TYPE_NONE, null);
+	}
+
+	@Override
+	protected void onRender(
+		final Canvas canvas, final Bitmap bitmap, final List<VignetteMask> masks, final MaskQuality quality) {
+		if (masks.isEmpty()) return;
+
+		// the kernel is evaluated directly in the (smaller) bitmap space
+		final float scale = 1f / quality.sampleSize;
+
+		final VignetteMask main = masks.get(0);
+		final int left = Math.max(0, (int) (main.bitmapRect.left * scale));
+		final int top = Math.max(0, (int) (main.bitmapRect.top * scale));
+		final int right = Math.min(bitmap.getWidth(), (int) Math.ceil(main.bitmapRect.right * scale));
+		final int bottom = Math.min(bitmap.getHeight(), (int) Math.ceil(main.bitmapRect.bottom * scale));
+
+		final int width = right - left;
+		final int height = bottom - top;
+		if (width <= 0 || height <= 0) return;
+
+		final IntArrayPool pool = IntArrayPool.getInstance();
+		final int[] pixels = pool.obtain(width * height);
+
+		final boolean changed = updateKernels(masks, scale);
+
+		if (masks.size() == 1) {
+			mKernels[0].renderMask(pixels, 0, width, left, top, width, height);
+		}
+		else {
+			if (changed || null == mMultiKernel) {
+				mMultiKernel = new MultiVignetteKernel(mKernels);
+			}
+			mMultiKernel.renderMask(pixels, 0, width, left, top, width, height);
+		}
+
+		bitmap.setPixels(pixels, 0, width, left, top, width, height);
+		pool.release(pixels);
+	}
+
+	/**
+	 * Rebuilds the kernels of the masks which changed since the last render
+	 *
+	 * @return true if any kernel has been rebuilt
+	 */
+	private boolean updateKernels(final List<VignetteMask> masks, final float scale) {
+		boolean changed = false;
+
+		if (mKernels.length != masks.size()) {
+			mKernels = new VignetteKernel[masks.size()];
+			changed = true;
+		}
+
+		for (int i = 0; i < mKernels.length; i++) {
+			final VignetteMask mask = masks.get(i);
+			if (null == mKernels[i] || ! matches(mKernels[i], mask, scale)) {
+				mKernels[i] = createKernel(mask, scale);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static boolean matches(final VignetteKernel kernel, final VignetteMask mask, final float scale) {
+		return kernel.getFalloff() == mask.falloff && kernel.getRotation() == mask.rotation
+		       && kernel.getFocalX() == mask.focalX && kernel.getFocalY() == mask.focalY
+		       && kernel.getCenterX() == (mask.ovalRect.left * scale + mask.ovalRect.right * scale) / 2
+		       && kernel.getCenterY() == (mask.ovalRect.top * scale + mask.ovalRect.bottom * scale) / 2
+		       && kernel.getRadiusX() == (mask.ovalRect.right * scale - mask.ovalRect.left * scale) / 2
+		       && kernel.getRadiusY() == (mask.ovalRect.bottom * scale - mask.ovalRect.top * scale) / 2;
+	}
+
+	private static VignetteKernel createKernel(final VignetteMask mask, final float scale) {
+		return VignetteKernel.fromOval(
+			mask.ovalRect.left * scale, mask.ovalRect.top * scale, mask.ovalRect.right * scale, mask.ovalRect.bottom * scale,
+			mask.rotation, mask.focalX, mask.focalY, mask.falloff);
+	}
+}
@@ -0,0 +1,31 @@
+package com.example.alessandro.vignette.render;
+
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.view.View;
+
+/**
+ * Skia mask, with the view rendered into a hardware layer composited in OVERLAY mode
+ *
+ * @author alessandro
+ */
+public class HardwareLayerMaskRenderer extends CanvasMaskRenderer {
+
+	@Override
+	public String getName() {
+		return "HardwareLayer";
+	}
+
+	@Override
+	public boolean isSupported(final View view) {
+		return view.isHardwareAccelerated();
+	}
+
+	@Override
+	public void onAttached(final View view) {
+		Paint hardwarePaint = new Paint();
+		hardwarePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.OVERLAY));
+		view.setLayerType(View.LAYER_TYPE_HARDWARE, hardwarePaint);
+	}
+}
@@ -0,0 +1,32 @@
+package com.example.alessandro.vignette.render;
+
+/**
+ * Quality tiers of the vignette mask.<br />
+ * The lower tiers render the mask into a smaller bitmap which is then scaled up
+ * (filtered) when drawn: they are meant to be used while the vignette is being dragged,
+ * followed by a {@link #Full} pass once the gesture settles.
+ *
+ * @author alessandro
+ */
+public enum MaskQuality {
+
+	/** view resolution, anti aliased and dithered */
+	Full(1, true),
+
+	/** half resolution, anti aliased and dithered */
+	Half(2, true),
+
+	/** quarter resolution, without anti aliasing and dithering */
+	Quarter(4, false);
+
+	/** the mask bitmap is this many times smaller than the view */
+	public final int sampleSize;
+
+	/** false to skip anti aliasing and dithering */
+	public final boolean smooth;
+
+	MaskQuality(final int sampleSize, final boolean smooth) {
+		this.sampleSize = sampleSize;
+		this.smooth = smooth;
+	}
+}
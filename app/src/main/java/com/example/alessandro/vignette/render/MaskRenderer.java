@@ -0,0 +1,110 @@
+package com.example.alessandro.vignette.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+
+import java.util.List;
+
+/**
+ * Backend used by ImageViewVignette to draw the vignette mask into its cache bitmap.<br />
+ * Every backend keeps track of the time spent rendering, so it's possible to know
+ * which path actually ran and what it cost.
+ * <p/>
+ * Backends draw through the native Canvas and Bitmap, so they are tested on a device
+ * (androidTest); the kernel math they share with the exporter is tested on the JVM in core.
+ *
+ * @author alessandro
+ */
+public abstract class MaskRenderer {
+
+	private long mLastRenderTime;
+	private long mTotalRenderTime;
+	private int mRenderCount;
+
+	/**
+	 * Name of the backend, for logging
+	 */
+	public abstract String getName();
+
+	/**
+	 * Returns true if the backend can be used with the given view
+	 */
+	public abstract boolean isSupported(View view);
+
+	/**
+	 * Returns true if the backend can draw a falloff whose focal point is not the oval center
+	 */
+	public boolean supportsFocalOffset() {
+		return false;
+	}
+
+	/**
+	 * Called when the backend is selected, to configure the view (i.e. its layer type)
+	 */
+	public abstract void onAttached(View view);
+
+	/**
+	 * Draws the masks, composited in order, at full quality.
+	 *
+	 * @param canvas a canvas drawing into bitmap
+	 * @param bitmap the (already cleared) mask bitmap
+	 * @param masks  the masks to draw: the first one is the main vignette
+	 */
+	public final void render(final Canvas canvas, final Bitmap bitmap, final List<VignetteMask> masks) {
+		render(canvas, bitmap, masks, MaskQuality.Full);
+	}
+
+	/**
+	 * Draws the masks, composited in order.
+	 *
+	 * @param bitmap  the (already cleared) mask bitmap, {@link MaskQuality#sampleSize} times smaller than the view
+	 * @param quality the quality tier, the masks coordinates are still in view space
+	 */
+	public final void render(final Canvas canvas, final Bitmap bitmap, final List<VignetteMask> masks, final MaskQuality quality) {
+		final long time = System.nanoTime();
+		onRender(canvas, bitmap, masks, quality);
+		mLastRenderTime = System.nanoTime() - time;
+		mTotalRenderTime += mLastRenderTime;
+		mRenderCount++;
+	}
+
+	protected abstract void onRender(Canvas canvas, Bitmap bitmap, List<VignetteMask> masks, MaskQuality quality);
+
+	public long getLastRenderTimeNanos() {
+		return mLastRenderTime;
+	}
+
+	public long getAverageRenderTimeNanos() {
+		return mRenderCount > 0 ? mTotalRenderTime / mRenderCount : 0;
+	}
+
+	public int getRenderCount() {
+		return mRenderCount;
+	}
+
+	public void resetStats() {
+		mLastRenderTime = 0;
+		mTotalRenderTime = 0;
+		mRenderCount = 0;
+	}
+
+	@Override
+	public String toString() {
+		return getName() + "{renders: " + mRenderCount + ", avg: " + getAverageRenderTimeNanos() / 1000 + "us}";
+	}
+
+	/**
+	 * Selects the best backend for the view: the hardware layer when the view is
+	 * hardware accelerated and acceleration is requested, the software layer otherwise.
+	 */
+	public static MaskRenderer select(final View view, final boolean accelerated) {
+		if (accelerated) {
+			final MaskRenderer renderer = new HardwareLayerMaskRenderer();
+			if (renderer.isSupported(view)) {
+				return renderer;
+			}
+		}
+		return new SoftwareLayerMaskRenderer();
+	}
+}
@@ -0,0 +1,171 @@
+package com.example.alessandro.vignette.render;
+
+import android.os.Debug;
+
+import com.example.alessandro.vignette.core.Log2Histogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame timing and render costs of ImageViewVignette: per phase draw times (in
+ * nanoseconds), counts of the expensive operations and the allocations of every gesture.<br />
+ * The view only records anything when a RenderStats is attached to it, otherwise the
+ * cost is a null check per phase. Everything is lock-free, so the stats can be read or
+ * dumped from any thread while the view draws.
+ *
+ * @author alessandro
+ */
+public class RenderStats {
+
+	public static enum Phase {
+		/** the image, drawn by ImageViewTouch */
+		Image,
+		/** mask bitmap update (when dirty) and draw */
+		Mask,
+		/** the ellipse and the control points */
+		Controls,
+		/** the whole onDraw */
+		Frame
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final Log2Histogram[] mPhases = new Log2Histogram[PHASES.length];
+	private final Log2Histogram mGestureAllocations = new Log2Histogram();
+
+	private final AtomicLong mShaderRebuilds = new AtomicLong();
+	private final AtomicLong mMaskRenders = new AtomicLong();
+	private final AtomicLong mGestures = new AtomicLong();
+
+	private final boolean mTrackAllocations;
+	private int mGestureStartAllocations = - 1;
+
+	public RenderStats() {
+		this(false);
+	}
+
+	/**
+	 * @param trackAllocations count the objects allocated by the ui thread during every gesture.
+	 *                         Allocation counting slows down every allocation of the process,
+	 *                         use it only for debugging.
+	 */
+	public RenderStats(boolean trackAllocations) {
+		for (int i = 0; i < mPhases.length; i++) {
+			mPhases[i] = new Log2Histogram();
+		}
+		mTrackAllocations = trackAllocations;
+	}
+
+	/**
+	 * Records the time spent in a phase
+	 *
+	 * @param start {@link System#nanoTime()} at the beginning of the phase
+	 * @return the current time, the start of the next phase
+	 */
+	public long record(Phase phase, long start) {
+		final long now = System.nanoTime();
+		mPhases[phase.ordinal()].record(now - start);
+		return now;
+	}
+
+	public void countShaderRebuild() {
+		mShaderRebuilds.incrementAndGet();
+	}
+
+	public void countMaskRender() {
+		mMaskRenders.incrementAndGet();
+	}
+
+	/**
+	 * Called on the ui thread when a gesture starts
+	 */
+	@SuppressWarnings ("deprecation")
+	public void onGestureStart() {
+		mGestures.incrementAndGet();
+
+		if (mTrackAllocations) {
+			if (mGestureStartAllocations < 0) {
+				Debug.startAllocCounting();
+			}
+			mGestureStartAllocations = Debug.getThreadAllocCount();
+		}
+	}
+
+	/**
+	 * Called on the ui thread when a gesture ends
+	 */
+	@SuppressWarnings ("deprecation")
+	public void onGestureEnd() {
+		if (mTrackAllocations && mGestureStartAllocations >= 0) {
+			mGestureAllocations.record(Debug.getThreadAllocCount() - mGestureStartAllocations);
+		}
+	}
+
+	/**
+	 * Stops the allocation counting, if started
+	 */
+	@SuppressWarnings ("deprecation")
+	public void release() {
+		if (mGestureStartAllocations >= 0) {
+			Debug.stopAllocCounting();
+			mGestureStartAllocations = - 1;
+		}
+	}
+
+	public Log2Histogram getHistogram(Phase phase) {
+		return mPhases[phase.ordinal()];
+	}
+
+	public Log2Histogram getGestureAllocations() {
+		return mGestureAllocations;
+	}
+
+	public long getShaderRebuildCount() {
+		return mShaderRebuilds.get();
+	}
+
+	public long getMaskRenderCount() {
+		return mMaskRenders.get();
+	}
+
+	public long getGestureCount() {
+		return mGestures.get();
+	}
+
+	public void reset() {
+		for (Log2Histogram histogram : mPhases) {
+			histogram.reset();
+		}
+		mGestureAllocations.reset();
+		mShaderRebuilds.set(0);
+		mMaskRenders.set(0);
+		mGestures.set(0);
+	}
+
+	/**
+	 * Dumps all the stats as a json object, times are in nanoseconds
+	 */
+	public String toJson() {
+		final StringBuilder out = new StringBuilder(1024);
+		out.append("{\"phases\":{");
+
+		for (int i = 0; i < PHASES.length; i++) {
+			if (i > 0) out.append(',');
+			out.append('"').append(PHASES[i].name()).append("\":");
+			mPhases[i].toJson(out);
+		}
+
+		out.append("},\"shaderRebuilds\":").append(getShaderRebuildCount());
+		out.append(",\"maskRenders\":").append(getMaskRenderCount());
+		out.append(",\"gestures\":").append(getGestureCount());
+		out.append(",\"gestureAllocations\":");
+		mGestureAllocations.toJson(out);
+		return out.append('}').toString();
+	}
+
+	@Override
+	public String toString() {
+		return "RenderStats{frames: " + getHistogram(Phase.Frame).getCount() + ", p90: "
+		       + getHistogram(Phase.Frame).getPercentile(0.9) / 1000 + "us, shaders: " + getShaderRebuildCount() + "}";
+	}
+}
@@ -0,0 +1,26 @@
+package com.example.alessandro.vignette.render;
+
+import android.view.View;
+
+/**
+ * Skia mask, with the view rendered into a software layer
+ *
+ * @author alessandro
+ */
+public class SoftwareLayerMaskRenderer extends CanvasMaskRenderer {
+
+	@Override
+	public String getName() {
+		return "SoftwareLayer";
+	}
+
+	@Override
+	public boolean isSupported(final View view) {
+		return true;
+	}
+
+	@Override
+	public void onAttached(final View view) {
+		view.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+	}
+}
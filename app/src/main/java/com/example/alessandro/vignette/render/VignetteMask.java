@@ -0,0 +1,48 @@
+package com.example.alessandro.vignette.render;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import com.example.alessandro.vignette.core.FalloffTable;
+
+/**
+ * Everything a {@link MaskRenderer} needs to draw the vignette mask.
+ * All the coordinates are in view space.
+ *
+ * @author alessandro
+ */
+public class VignetteMask {
+
+	/** bounds of the displayed bitmap, the mask is drawn only inside them */
+	public final RectF bitmapRect = new RectF();
+
+	/** bounds of the gradient oval, before the rotation */
+	public final RectF ovalRect = new RectF();
+
+	/** the gradient oval, rotated */
+	public final Path ovalPath = new Path();
+
+	/** rotation of the oval around its center, in degrees */
+	public float rotation;
+
+	/** focal point of the falloff, relative to the oval radii */
+	public float focalX;
+	public float focalY;
+
+	/**
+	 * paint used for the background (black or white, with the intensity alpha).
+	 * Only the main vignette has a background, the other masks are drawn with
+	 * the shader paint alone.
+	 */
+	public Paint backgroundPaint;
+
+	/**
+	 * paint used to punch the gradient oval (DST_OUT radial gradient) of the main vignette,
+	 * or to draw the other masks (SRC_OVER radial gradient, already including the alpha)
+	 */
+	public Paint shaderPaint;
+
+	/** falloff used by the cpu renderers */
+	public FalloffTable falloff;
+}
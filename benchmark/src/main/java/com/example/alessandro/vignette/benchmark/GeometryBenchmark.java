@@ -0,0 +1,126 @@
+package com.example.alessandro.vignette.benchmark;
+
+import com.example.alessandro.vignette.core.FalloffTable;
+import com.example.alessandro.vignette.core.HandleHitTester;
+import com.example.alessandro.vignette.core.VignetteGeometry;
+import com.example.alessandro.vignette.core.VignetteKernel;
+import com.example.alessandro.vignette.core.VignetteParams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per touch event work of ImageViewVignette: handle hit test (onDown),
+ * drag geometry (onScroll) and the mapping between view and bitmap space.
+ * The view is a 1080x1920 screen showing a centered 1080x810 image.
+ *
+ * @author alessandro
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class GeometryBenchmark {
+
+	static final int POINTS = 1024;
+	static final float TOLERANCE = 45;
+	static final float ROTATE_DISTANCE = 72;
+
+	@Param ({"0", "30"})
+	float rotation;
+
+	final float[] image = {0, 555, 1080, 1365};
+	final float[] oval = {140, 655, 940, 1265};
+	final float[] drag = new float[4];
+	final float[] bounds = new float[4];
+	final float[] points = new float[POINTS * 2];
+	final FalloffTable falloff = new FalloffTable(0.7f, 60);
+
+	HandleHitTester tester;
+	VignetteParams params;
+	int index;
+
+	@Setup
+	public void setup() {
+		tester = new HandleHitTester(VignetteGeometry.Handle.values().length);
+		VignetteGeometry.addHandles(tester, oval, TOLERANCE, ROTATE_DISTANCE);
+		params = VignetteParams.fromOval(oval, image, 0.7f, 60).withRotation(rotation);
+
+		// touches spread around the ellipse, so both hits and misses are measured
+		final Random random = new Random(1);
+		for (int i = 0; i < POINTS; i++) {
+			points[i * 2] = oval[0] - 100 + random.nextFloat() * (oval[2] - oval[0] + 200);
+			points[i * 2 + 1] = oval[1] - 150 + random.nextFloat() * (oval[3] - oval[1] + 250);
+		}
+	}
+
+	private int next() {
+		index = (index + 2) & (POINTS * 2 - 1);
+		return index;
+	}
+
+	@Benchmark
+	public int hitTest() {
+		final int i = next();
+		return tester.hitTest(points[i], points[i + 1]);
+	}
+
+	@Benchmark
+	public HandleHitTester addHandles() {
+		VignetteGeometry.addHandles(tester, oval, TOLERANCE, ROTATE_DISTANCE);
+		return tester;
+	}
+
+	@Benchmark
+	public float[] dragCorner() {
+		final int i = next();
+		VignetteGeometry.drag(
+			VignetteGeometry.Handle.TopRight, oval, image, rotation, points[i] * 0.01f - 5, points[i + 1] * 0.01f - 10,
+			TOLERANCE, drag);
+		return drag;
+	}
+
+	@Benchmark
+	public float[] dragCenter() {
+		final int i = next();
+		VignetteGeometry.drag(
+			VignetteGeometry.Handle.Center, oval, image, rotation, points[i] * 0.01f - 5, points[i + 1] * 0.01f - 10,
+			TOLERANCE, drag);
+		return drag;
+	}
+
+	@Benchmark
+	public float rotate() {
+		final int i = next();
+		return VignetteGeometry.rotationAt(oval, points[i], points[i + 1]);
+	}
+
+	@Benchmark
+	public VignetteParams toBitmap() {
+		return VignetteParams.fromOval(oval, image, 0.7f, 60).withRotation(rotation);
+	}
+
+	@Benchmark
+	public float[] toView() {
+		return params.toOval(image, bounds);
+	}
+
+	@Benchmark
+	public VignetteKernel toKernel() {
+		return params.toKernel(4000, 3000, falloff);
+	}
+}
@@ -0,0 +1,97 @@
+package com.example.alessandro.vignette.benchmark;
+
+import com.example.alessandro.vignette.core.FalloffTable;
+import com.example.alessandro.vignette.core.ParallelVignetteRenderer;
+import com.example.alessandro.vignette.core.VignetteKernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pixel kernel across image sizes (preview, 8 MP, 24 MP), feather values
+ * and thread counts. One thread applies the kernel directly, more threads
+ * go through the tiled renderer.
+ *
+ * @author alessandro
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3)
+@Measurement (iterations = 5)
+@Fork (value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class KernelBenchmark {
+
+	@Param ({"1080x1920", "3264x2448", "6000x4000"})
+	String size;
+
+	@Param ({"0", "0.5", "0.9"})
+	float feather;
+
+	@Param ({"1", "4"})
+	int threads;
+
+	int width;
+	int height;
+	/** untouched image, copied into the work buffer before every invocation */
+	int[] source;
+	int[] pixels;
+	ForkJoinPool pool;
+	ParallelVignetteRenderer renderer;
+	VignetteKernel kernel;
+
+	@Setup
+	public void setup() {
+		final String[] values = size.split("x");
+		width = Integer.parseInt(values[0]);
+		height = Integer.parseInt(values[1]);
+
+		source = new int[width * height];
+		Arrays.fill(source, 0xff808080);
+		pixels = new int[source.length];
+
+		pool = new ForkJoinPool(threads);
+		renderer = new ParallelVignetteRenderer(pool, threads);
+		kernel = new VignetteKernel(width / 2, height / 2, width * 0.4f, height * 0.4f, new FalloffTable(feather, 60));
+	}
+
+	/**
+	 * The kernel darkens the pixels in place: without a reset every invocation
+	 * would process the output of the previous one
+	 */
+	@Setup (Level.Invocation)
+	public void reset() {
+		System.arraycopy(source, 0, pixels, 0, pixels.length);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public int[] render() throws Exception {
+		if (threads == 1) {
+			kernel.apply(pixels, 0, width, 0, 0, width, height);
+		}
+		else {
+			renderer.render(kernel, pixels, width, height);
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,77 @@
+package com.example.alessandro.vignette.benchmark;
+
+import com.example.alessandro.vignette.core.ParallelVignetteRenderer;
+import com.example.alessandro.vignette.core.VignetteKernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread scaling of the tiled renderer on a 24 MP image (6000x4000).
+ *
+ * @author alessandro
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3)
+@Measurement (iterations = 5)
+@Fork (value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ParallelRenderBenchmark {
+
+	@Param ({"1", "2", "4", "8"})
+	int threads;
+
+	static final int WIDTH = 6000;
+	static final int HEIGHT = 4000;
+
+	int[] source;
+	int[] pixels;
+	ForkJoinPool pool;
+	ParallelVignetteRenderer renderer;
+	VignetteKernel kernel;
+
+	@Setup
+	public void setup() {
+		source = new int[WIDTH * HEIGHT];
+		Arrays.fill(source, 0xff808080);
+		pixels = new int[source.length];
+
+		pool = new ForkJoinPool(threads);
+		renderer = new ParallelVignetteRenderer(pool, threads);
+		kernel = new VignetteKernel(WIDTH / 2, HEIGHT / 2, WIDTH * 0.4f, HEIGHT * 0.4f, 0.5f, 60);
+	}
+
+	/**
+	 * Restores the source image, the renderer works in place
+	 */
+	@Setup (Level.Invocation)
+	public void reset() {
+		System.arraycopy(source, 0, pixels, 0, pixels.length);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public boolean render() throws Exception {
+		return renderer.render(kernel, pixels, WIDTH, HEIGHT);
+	}
+}
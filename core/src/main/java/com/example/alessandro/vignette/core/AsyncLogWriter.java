@@ -0,0 +1,214 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves the writing of log records off the logging threads: records go into a
+ * {@link LogRingBuffer} and a background thread drains them into a {@link Sink}.<br />
+ * Logging never blocks: when the writer can't keep up the records are dropped and counted.
+ * The writer thread wakes up periodically, or as soon as the buffer is half full.
+ * After {@link #close()} every record is either written or counted as dropped.
+ *
+ * @author alessandro
+ */
+public class AsyncLogWriter {
+
+	/**
+	 * Destination of the records, only called from the writer thread
+	 */
+	public static interface Sink {
+
+		/**
+		 * @param priority the record level, i.e. one of the android.util.Log priorities
+		 * @param time     creation time of the record, in milliseconds
+		 */
+		void write(int priority, String tag, String message, long time) throws IOException;
+
+		/**
+		 * Called after every batch of records
+		 */
+		void flush() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+	private final Sink mSink;
+	private final LogRingBuffer mBuffer;
+	private final int mWakeThreshold;
+	private final Thread mThread;
+	private final AtomicLong mSinkErrors = new AtomicLong();
+
+	/** records refused because the writer was closed */
+	private final AtomicLong mRejected = new AtomicLong();
+
+	/** threads between the closed check and the end of their offer */
+	private final AtomicInteger mWriters = new AtomicInteger();
+
+	/** records read and flushed to the sink */
+	private volatile long mFlushed;
+	private volatile boolean mClosed;
+
+	public AsyncLogWriter(Sink sink) {
+		this(sink, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity max number of records waiting to be written
+	 */
+	public AsyncLogWriter(Sink sink, int capacity) {
+		mSink = sink;
+		mBuffer = new LogRingBuffer(capacity);
+		mWakeThreshold = mBuffer.getCapacity() / 2;
+
+		mThread = new Thread(
+			new Runnable() {
+				@Override
+				public void run() {
+					loop();
+				}
+			}, "AsyncLogWriter");
+		mThread.setDaemon(true);
+		mThread.setPriority(Thread.MIN_PRIORITY);
+		mThread.start();
+	}
+
+	/**
+	 * Queues a record, from any thread
+	 *
+	 * @return false if the record has been dropped
+	 */
+	public boolean write(int priority, String tag, String message) {
+		// the writer thread waits for the records of the threads already past the check
+		mWriters.incrementAndGet();
+		try {
+			if (mClosed) {
+				mRejected.incrementAndGet();
+				return false;
+			}
+
+			final boolean result = mBuffer.offer(priority, tag, message, System.currentTimeMillis());
+			if (mBuffer.size() >= mWakeThreshold) {
+				LockSupport.unpark(mThread);
+			}
+			return result;
+		} finally {
+			mWriters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Waits until all the records queued so far have been written and flushed
+	 *
+	 * @return false if the timeout expired
+	 */
+	public boolean flush(long timeout, TimeUnit unit) {
+		final long target = mBuffer.getWrittenCount();
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (mFlushed < target) {
+			if (! mThread.isAlive() || System.nanoTime() >= deadline) return false;
+			LockSupport.unpark(mThread);
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting records, writes the pending ones and closes the sink
+	 */
+	public void close() throws InterruptedException {
+		mClosed = true;
+		LockSupport.unpark(mThread);
+		mThread.join();
+	}
+
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+	/**
+	 * Number of records dropped because the buffer was full, or refused after {@link #close()}
+	 */
+	public long getDroppedCount() {
+		return mBuffer.getDroppedCount() + mRejected.get();
+	}
+
+	/**
+	 * Number of records (or flushes) the sink failed to write
+	 */
+	public long getSinkErrorCount() {
+		return mSinkErrors.get();
+	}
+
+	public int getCapacity() {
+		return mBuffer.getCapacity();
+	}
+
+	private void loop() {
+		final LogRingBuffer.Record record = new LogRingBuffer.Record();
+
+		while (! mClosed) {
+			if (! drain(record)) {
+				LockSupport.parkNanos(this, IDLE_NANOS);
+			}
+		}
+
+		// records offered right before closing: once no writer is left past the
+		// closed check, every claimed slot has been published
+		while (mWriters.get() > 0) {
+			drain(record);
+			Thread.yield();
+		}
+		drain(record);
+
+		try {
+			mSink.close();
+		} catch (IOException e) {
+			mSinkErrors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return true if any record has been written
+	 */
+	private boolean drain(LogRingBuffer.Record record) {
+		boolean written = false;
+
+		while (mBuffer.poll(record)) {
+			try {
+				mSink.write(record.priority, record.tag, record.message, record.time);
+			} catch (IOException e) {
+				mSinkErrors.incrementAndGet();
+			}
+			written = true;
+		}
+
+		if (written) {
+			record.tag = null;
+			record.message = null;
+
+			try {
+				mSink.flush();
+			} catch (IOException e) {
+				mSinkErrors.incrementAndGet();
+			}
+		}
+
+		mFlushed = mBuffer.getReadCount();
+		return written;
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncLogWriter{capacity: " + getCapacity() + ", dropped: " + getDroppedCount() + ", errors: "
+		       + getSinkErrorCount() + "}";
+	}
+}
@@ -0,0 +1,378 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies the same vignette to a list of images, without any view.<br />
+ * Decode, vignette and encode run as a pipeline on three separate thread pools, connected
+ * by bounded queues: I/O overlaps with compute, and at most {@code queueCapacity} decoded
+ * images wait for each stage, which bounds the memory used.
+ * <p/>
+ * Listener methods are called from the encoder threads. The worker threads are daemon
+ * threads, stopped by {@link #shutdown()}.
+ *
+ * @author alessandro
+ */
+public class BatchProcessor<T> {
+
+	public static interface Decoder<T> {
+		PixelBuffer decode(T input) throws Exception;
+	}
+
+	public static interface Encoder<T> {
+		void encode(T input, PixelBuffer image) throws Exception;
+	}
+
+	public static interface Listener<T> {
+
+		/**
+		 * An image has been processed and encoded
+		 */
+		void onProgress(T input, int completed, int total);
+
+		void onError(T input, Throwable error);
+
+		/**
+		 * The batch finished, or has been cancelled
+		 */
+		void onComplete(BatchProcessor<T>.Batch batch);
+	}
+
+	/** how often a blocked end of stream checks whether its consumers are still there */
+	private static final long END_OF_STREAM_RETRY_MILLIS = 100;
+
+	private final Decoder<T> mDecoder;
+	private final Encoder<T> mEncoder;
+	private final int mDecodeThreads;
+	private final int mComputeThreads;
+	private final int mEncodeThreads;
+	private final int mQueueCapacity;
+
+	private final ExecutorService mDecodeExecutor;
+	private final ExecutorService mComputeExecutor;
+	private final ExecutorService mEncodeExecutor;
+
+	private volatile boolean mShutdown;
+
+	public BatchProcessor(Decoder<T> decoder, Encoder<T> encoder) {
+		this(decoder, encoder, 2, Runtime.getRuntime().availableProcessors(), 2, 4);
+	}
+
+	/**
+	 * @param decodeThreads  threads reading and decoding the inputs
+	 * @param computeThreads threads applying the vignette
+	 * @param encodeThreads  threads encoding and writing the outputs
+	 * @param queueCapacity  max number of images waiting between two stages
+	 */
+	public BatchProcessor(
+		Decoder<T> decoder, Encoder<T> encoder, int decodeThreads, int computeThreads, int encodeThreads, int queueCapacity) {
+
+		if (decodeThreads <= 0 || computeThreads <= 0 || encodeThreads <= 0 || queueCapacity <= 0) {
+			throw new IllegalArgumentException("invalid pool size");
+		}
+
+		mDecoder = decoder;
+		mEncoder = encoder;
+		mDecodeThreads = decodeThreads;
+		mComputeThreads = computeThreads;
+		mEncodeThreads = encodeThreads;
+		mQueueCapacity = queueCapacity;
+
+		mDecodeExecutor = Executors.newFixedThreadPool(decodeThreads, newThreadFactory("decode"));
+		mComputeExecutor = Executors.newFixedThreadPool(computeThreads, newThreadFactory("compute"));
+		mEncodeExecutor = Executors.newFixedThreadPool(encodeThreads, newThreadFactory("encode"));
+	}
+
+	/**
+	 * Daemon threads, so a caller which never calls {@link #shutdown()} doesn't keep the JVM alive
+	 */
+	private static ThreadFactory newThreadFactory(final String stage) {
+		return new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "BatchProcessor-" + stage + "-" + mCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Starts processing the inputs. Batches are meant to run one at a time: a second
+	 * batch submitted while one is running waits for free threads.
+	 */
+	public Batch submit(List<T> inputs, VignetteParams params, Listener<T> listener) {
+		final Batch batch = new Batch(new ArrayList<T>(inputs), params, listener);
+		batch.start();
+		return batch;
+	}
+
+	/**
+	 * Stops the worker threads. Running batches are cancelled.
+	 */
+	public void shutdown() {
+		mShutdown = true;
+		mDecodeExecutor.shutdownNow();
+		mComputeExecutor.shutdownNow();
+		mEncodeExecutor.shutdownNow();
+	}
+
+	private static final class Job<T> {
+		final T input;
+		final PixelBuffer image;
+
+		Job(T input, PixelBuffer image) {
+			this.input = input;
+			this.image = image;
+		}
+	}
+
+	public class Batch {
+
+		private final List<T> mInputs;
+		private final VignetteParams mParams;
+		private final Listener<T> mListener;
+		private final FalloffTable mFalloff;
+
+		private final BlockingQueue<Job<T>> mDecoded = new ArrayBlockingQueue<Job<T>>(mQueueCapacity);
+		private final BlockingQueue<Job<T>> mProcessed = new ArrayBlockingQueue<Job<T>>(mQueueCapacity);
+
+		/** end of stream marker */
+		private final Job<T> mEnd = new Job<T>(null, null);
+
+		private final AtomicInteger mNext = new AtomicInteger();
+		private final AtomicInteger mDecodersRunning = new AtomicInteger(mDecodeThreads);
+		private final AtomicInteger mComputersRunning = new AtomicInteger(mComputeThreads);
+		private final AtomicInteger mEncodersRunning = new AtomicInteger(mEncodeThreads);
+		private final AtomicInteger mCompleted = new AtomicInteger();
+		private final AtomicInteger mFailed = new AtomicInteger();
+		private final CountDownLatch mDone = new CountDownLatch(1);
+
+		private volatile boolean mCancelled;
+		private long mStartTime;
+		private volatile long mEndTime;
+
+		Batch(List<T> inputs, VignetteParams params, Listener<T> listener) {
+			mInputs = inputs;
+			mParams = params;
+			mListener = listener;
+			mFalloff = new FalloffTable(params.feather, params.intensity, params.inverted);
+		}
+
+		void start() {
+			mStartTime = System.nanoTime();
+
+			for (int i = 0; i < mDecodeThreads; i++) {
+				mDecodeExecutor.execute(mDecodeWorker);
+			}
+			for (int i = 0; i < mComputeThreads; i++) {
+				mComputeExecutor.execute(mComputeWorker);
+			}
+			for (int i = 0; i < mEncodeThreads; i++) {
+				mEncodeExecutor.execute(mEncodeWorker);
+			}
+		}
+
+		/**
+		 * Stops the batch: images already decoded are dropped, {@link Listener#onComplete(Batch)}
+		 * is still called.
+		 */
+		public void cancel() {
+			mCancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+
+		public VignetteParams getParams() {
+			return mParams;
+		}
+
+		public int getTotal() {
+			return mInputs.size();
+		}
+
+		public int getCompletedCount() {
+			return mCompleted.get();
+		}
+
+		public int getFailedCount() {
+			return mFailed.get();
+		}
+
+		public boolean isDone() {
+			return mDone.getCount() == 0;
+		}
+
+		/**
+		 * Waits for the batch to finish
+		 */
+		public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			return mDone.await(timeout, unit);
+		}
+
+		public long getElapsedNanos() {
+			return (isDone() ? mEndTime : System.nanoTime()) - mStartTime;
+		}
+
+		/**
+		 * Completed images per second
+		 */
+		public double getThroughput() {
+			final long elapsed = getElapsedNanos();
+			return elapsed > 0 ? mCompleted.get() * 1e9 / elapsed : 0;
+		}
+
+		private void fail(T input, Throwable error) {
+			mFailed.incrementAndGet();
+			if (null != mListener) {
+				mListener.onError(input, error);
+			}
+		}
+
+		private void finish() {
+			mEndTime = System.nanoTime();
+			mDone.countDown();
+			if (null != mListener) {
+				mListener.onComplete(this);
+			}
+		}
+
+		private final Runnable mDecodeWorker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					int index;
+					while (! mCancelled && (index = mNext.getAndIncrement()) < mInputs.size()) {
+						final T input = mInputs.get(index);
+						try {
+							final PixelBuffer image = mDecoder.decode(input);
+							if (null == image) throw new IllegalStateException("decoder returned null for " + input);
+							mDecoded.put(new Job<T>(input, image));
+						} catch (InterruptedException e) {
+							throw e;
+						} catch (Throwable t) {
+							fail(input, t);
+						}
+					}
+				} catch (InterruptedException e) {
+					mCancelled = true;
+				} finally {
+					if (mDecodersRunning.decrementAndGet() == 0) {
+						endOfStream(mDecoded, mComputeThreads, mComputersRunning);
+					}
+				}
+			}
+		};
+
+		private final Runnable mComputeWorker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Job<T> job;
+					while ((job = mDecoded.take()) != mEnd) {
+						if (mCancelled) {
+							job.image.release();
+							continue;
+						}
+
+						try {
+							final PixelBuffer image = job.image;
+							mParams.toKernel(image.width, image.height, mFalloff)
+							       .apply(image.pixels, 0, image.width, 0, 0, image.width, image.height);
+							mProcessed.put(job);
+						} catch (InterruptedException e) {
+							throw e;
+						} catch (Throwable t) {
+							job.image.release();
+							fail(job.input, t);
+						}
+					}
+				} catch (InterruptedException e) {
+					mCancelled = true;
+				} finally {
+					if (mComputersRunning.decrementAndGet() == 0) {
+						endOfStream(mProcessed, mEncodeThreads, mEncodersRunning);
+					}
+				}
+			}
+		};
+
+		private final Runnable mEncodeWorker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Job<T> job;
+					while ((job = mProcessed.take()) != mEnd) {
+						try {
+							if (! mCancelled) {
+								mEncoder.encode(job.input, job.image);
+								final int completed = mCompleted.incrementAndGet();
+								if (null != mListener) {
+									mListener.onProgress(job.input, completed, mInputs.size());
+								}
+							}
+						} catch (Throwable t) {
+							fail(job.input, t);
+						} finally {
+							job.image.release();
+						}
+					}
+				} catch (InterruptedException e) {
+					mCancelled = true;
+				} finally {
+					if (mEncodersRunning.decrementAndGet() == 0) {
+						finish();
+					}
+				}
+			}
+		};
+
+		/**
+		 * Tells every consumer of the queue that there's nothing else to process. Gives up when
+		 * the consumers are gone (i.e. after {@link #shutdown()}) and nobody would ever take the
+		 * marker, releasing the images left in the queue.
+		 *
+		 * @param running number of consumers still running
+		 */
+		private void endOfStream(BlockingQueue<Job<T>> queue, int consumers, AtomicInteger running) {
+			for (int i = 0; i < consumers; i++) {
+				while (true) {
+					try {
+						if (queue.offer(mEnd, END_OF_STREAM_RETRY_MILLIS, TimeUnit.MILLISECONDS)) break;
+					} catch (InterruptedException e) {
+						// the marker must be delivered, or the consumers would wait forever
+						mCancelled = true;
+					}
+
+					if (mShutdown || running.get() == 0) {
+						mCancelled = true;
+						drain(queue);
+						return;
+					}
+				}
+			}
+		}
+
+		private void drain(BlockingQueue<Job<T>> queue) {
+			Job<T> job;
+			while (null != (job = queue.poll())) {
+				if (job != mEnd) {
+					job.image.release();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.example.alessandro.vignette.core;
+
+/**
+ * Lookup table of the overlay alpha, indexed by the squared normalized distance
+ * from the ellipse center, so the kernel inner loop needs neither a sqrt nor a divide.<br />
+ * The table already includes the intensity, so it must be rebuilt every time the
+ * feather or the intensity change: use {@link #obtain(FalloffTable, float, int)} to
+ * reuse the current table when the values didn't change. Instances are immutable and
+ * can be shared between threads.
+ * <p/>
+ * An inverted table describes a bright (or dark) spot instead of a vignette: the
+ * overlay has the full alpha inside the feather, fades out towards the ellipse border
+ * and is transparent outside.
+ *
+ * @author alessandro
+ */
+public final class FalloffTable {
+
+	public static final int DEFAULT_SIZE = 4096;
+
+	private final float mFeather;
+	private final int mIntensity;
+	private final int mAlpha;
+	private final boolean mInverted;
+	private final byte[] mTable;
+	private final float mScale;
+
+	public FalloffTable(float feather, int intensity) {
+		this(feather, intensity, DEFAULT_SIZE);
+	}
+
+	public FalloffTable(float feather, int intensity, int size) {
+		this(feather, intensity, false, size);
+	}
+
+	public FalloffTable(float feather, int intensity, boolean inverted) {
+		this(feather, intensity, inverted, DEFAULT_SIZE);
+	}
+
+	public FalloffTable(float feather, int intensity, boolean inverted, int size) {
+		if (size <= 0) throw new IllegalArgumentException("invalid size: " + size);
+
+		mFeather = Math.max(Math.min(feather, 1), 0);
+		mIntensity = Math.max(Math.min(intensity, 100), - 100);
+		mAlpha = VignetteKernel.intensityToAlpha(mIntensity);
+		mInverted = inverted;
+		mTable = new byte[size];
+		mScale = size;
+
+		for (int i = 0; i < size; i++) {
+			// sample at the center of the entry
+			final int alpha = computeAlpha((float) Math.sqrt((i + 0.5) / size), mFeather, mAlpha);
+			mTable[i] = (byte) (inverted ? mAlpha - alpha : alpha);
+		}
+	}
+
+	/**
+	 * Returns the passed table if it matches the given values, otherwise a new one
+	 */
+	public static FalloffTable obtain(FalloffTable current, float feather, int intensity) {
+		return obtain(current, feather, intensity, false);
+	}
+
+	public static FalloffTable obtain(FalloffTable current, float feather, int intensity, boolean inverted) {
+		if (null != current && current.matches(feather, intensity, inverted)) {
+			return current;
+		}
+		return new FalloffTable(feather, intensity, inverted, null != current ? current.size() : DEFAULT_SIZE);
+	}
+
+	/**
+	 * Exact alpha of the overlay at the given normalized distance from the ellipse center
+	 * (0 = center, 1 = ellipse border): zero inside the feather, then growing linearly
+	 * up to the max alpha at the ellipse border, like the view radial gradient.
+	 */
+	public static int computeAlpha(float radius, float feather, int maxAlpha) {
+		if (radius >= 1) return maxAlpha;
+		if (radius <= feather) return 0;
+		return (int) (maxAlpha * (radius - feather) / (1 - feather) + 0.5f);
+	}
+
+	public boolean matches(float feather, int intensity) {
+		return matches(feather, intensity, false);
+	}
+
+	public boolean matches(float feather, int intensity, boolean inverted) {
+		return mInverted == inverted && mFeather == Math.max(Math.min(feather, 1), 0) && mIntensity == Math.max(Math.min(intensity, 100), - 100);
+	}
+
+	/**
+	 * Alpha (0..255) for the given squared normalized radius
+	 */
+	public int alpha(double radius2) {
+		if (radius2 >= 1) return getOutsideAlpha();
+		return mTable[(int) (radius2 * mScale)] & 0xff;
+	}
+
+	public float getFeather() {
+		return mFeather;
+	}
+
+	public int getIntensity() {
+		return mIntensity;
+	}
+
+	/**
+	 * Max alpha of the overlay, given by the intensity
+	 */
+	public int getMaxAlpha() {
+		return mAlpha;
+	}
+
+	/**
+	 * Alpha outside the ellipse: the max alpha, or 0 for an inverted table
+	 */
+	public int getOutsideAlpha() {
+		return mInverted ? 0 : mAlpha;
+	}
+
+	public boolean isInverted() {
+		return mInverted;
+	}
+
+	public int size() {
+		return mTable.length;
+	}
+
+	@Override
+	public String toString() {
+		return "FalloffTable{feather: " + mFeather + ", intensity: " + mIntensity + ", inverted: " + mInverted + ", size: "
+		       + mTable.length + "}";
+	}
+}
@@ -0,0 +1,55 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * {@link AsyncLogWriter.Sink} appending the records to a text file, one per line:
+ * {@code time level/tag: message}
+ *
+ * @author alessandro
+ */
+public class FileLogSink implements AsyncLogWriter.Sink {
+
+	private static final String LEVELS = "??VDIWEA";
+
+	private final Writer mWriter;
+	private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+	private final Date mDate = new Date();
+	private final StringBuilder mLine = new StringBuilder(256);
+
+	public FileLogSink(File file) throws IOException {
+		final File parent = file.getParentFile();
+		if (null != parent && ! parent.isDirectory() && ! parent.mkdirs()) {
+			throw new IOException("cannot create " + parent);
+		}
+		mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"), 8192);
+	}
+
+	@Override
+	public void write(int priority, String tag, String message, long time) throws IOException {
+		mDate.setTime(time);
+		mLine.setLength(0);
+		mLine.append(mDateFormat.format(mDate)).append(' ');
+		mLine.append(priority >= 0 && priority < LEVELS.length() ? LEVELS.charAt(priority) : '?');
+		mLine.append('/').append(tag).append(": ").append(message).append('\n');
+		mWriter.append(mLine);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		mWriter.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		mWriter.close();
+	}
+}
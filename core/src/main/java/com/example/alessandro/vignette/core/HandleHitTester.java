@@ -0,0 +1,187 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.Arrays;
+
+/**
+ * Spatial hash of touch handles, used to find the handle under a touch point.<br />
+ * Every handle is registered in the grid cells covered by its tolerance box, so a
+ * query only looks at the handles of a single cell: the cost doesn't depend on the
+ * number of handles. Neither {@link #hitTest(float, float)} nor rebuilding the grid
+ * with the same number of handles allocate memory.
+ * <p/>
+ * Usage: {@link #reset(float)}, then {@link #add(int, float, float, float)} for every handle.
+ *
+ * @author alessandro
+ */
+public class HandleHitTester {
+
+	public static final int NO_HANDLE = - 1;
+
+	private float mCellSize = 1;
+	private float mInvCellSize = 1;
+
+	// handles
+	private int mHandleCount;
+	private int[] mIds;
+	private float[] mX;
+	private float[] mY;
+	private float[] mTolerance;
+
+	// grid entries, chained per bucket
+	private int mEntryCount;
+	private long[] mEntryCell;
+	private int[] mEntryHandle;
+	private int[] mEntryNext;
+	private int[] mBuckets;
+
+	public HandleHitTester(int capacity) {
+		capacity = Math.max(capacity, 1);
+		mIds = new int[capacity];
+		mX = new float[capacity];
+		mY = new float[capacity];
+		mTolerance = new float[capacity];
+
+		mEntryCell = new long[capacity * 4];
+		mEntryHandle = new int[capacity * 4];
+		mEntryNext = new int[capacity * 4];
+		mBuckets = new int[bucketCount(capacity * 4)];
+		Arrays.fill(mBuckets, - 1);
+	}
+
+	/**
+	 * Removes all the handles.
+	 *
+	 * @param cellSize size of the grid cells, ideally twice the largest tolerance
+	 */
+	public void reset(float cellSize) {
+		if (cellSize <= 0) throw new IllegalArgumentException("invalid cell size: " + cellSize);
+
+		mCellSize = cellSize;
+		mInvCellSize = 1 / cellSize;
+		mHandleCount = 0;
+		mEntryCount = 0;
+		Arrays.fill(mBuckets, - 1);
+	}
+
+	public float getCellSize() {
+		return mCellSize;
+	}
+
+	public int size() {
+		return mHandleCount;
+	}
+
+	/**
+	 * Adds a handle
+	 *
+	 * @param id        the handle id, returned by {@link #hitTest(float, float)}
+	 * @param x         handle center
+	 * @param y         handle center
+	 * @param tolerance half size of the square around the center which hits the handle
+	 */
+	public void add(int id, float x, float y, float tolerance) {
+		if (mHandleCount == mIds.length) {
+			final int capacity = mIds.length * 2;
+			mIds = Arrays.copyOf(mIds, capacity);
+			mX = Arrays.copyOf(mX, capacity);
+			mY = Arrays.copyOf(mY, capacity);
+			mTolerance = Arrays.copyOf(mTolerance, capacity);
+		}
+
+		final int handle = mHandleCount++;
+		mIds[handle] = id;
+		mX[handle] = x;
+		mY[handle] = y;
+		mTolerance[handle] = tolerance;
+
+		final int left = cell(x - tolerance);
+		final int right = cell(x + tolerance);
+		final int top = cell(y - tolerance);
+		final int bottom = cell(y + tolerance);
+
+		for (int cy = top; cy <= bottom; cy++) {
+			for (int cx = left; cx <= right; cx++) {
+				addEntry(key(cx, cy), handle);
+			}
+		}
+	}
+
+	/**
+	 * Returns the id of the nearest handle whose tolerance box contains the point,
+	 * or {@link #NO_HANDLE}
+	 */
+	public int hitTest(float x, float y) {
+		final long key = key(cell(x), cell(y));
+
+		int result = NO_HANDLE;
+		float best = Float.MAX_VALUE;
+
+		for (int entry = mBuckets[bucket(key)]; entry != - 1; entry = mEntryNext[entry]) {
+			if (mEntryCell[entry] != key) continue;
+
+			final int handle = mEntryHandle[entry];
+			final float dx = x - mX[handle];
+			final float dy = y - mY[handle];
+			final float tolerance = mTolerance[handle];
+
+			if (dx >= - tolerance && dx <= tolerance && dy >= - tolerance && dy <= tolerance) {
+				final float distance = dx * dx + dy * dy;
+				if (distance < best) {
+					best = distance;
+					result = mIds[handle];
+				}
+			}
+		}
+		return result;
+	}
+
+	private void addEntry(long key, int handle) {
+		if (mEntryCount == mEntryCell.length) {
+			grow();
+		}
+
+		final int entry = mEntryCount++;
+		final int bucket = bucket(key);
+		mEntryCell[entry] = key;
+		mEntryHandle[entry] = handle;
+		mEntryNext[entry] = mBuckets[bucket];
+		mBuckets[bucket] = entry;
+	}
+
+	private void grow() {
+		final int capacity = mEntryCell.length * 2;
+		mEntryCell = Arrays.copyOf(mEntryCell, capacity);
+		mEntryHandle = Arrays.copyOf(mEntryHandle, capacity);
+		mEntryNext = Arrays.copyOf(mEntryNext, capacity);
+		mBuckets = new int[bucketCount(capacity)];
+		Arrays.fill(mBuckets, - 1);
+
+		// re-chain the existing entries
+		for (int entry = 0; entry < mEntryCount; entry++) {
+			final int bucket = bucket(mEntryCell[entry]);
+			mEntryNext[entry] = mBuckets[bucket];
+			mBuckets[bucket] = entry;
+		}
+	}
+
+	private int cell(float value) {
+		return (int) Math.floor(value * mInvCellSize);
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	private int bucket(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 40) & (mBuckets.length - 1);
+	}
+
+	private static int bucketCount(int entries) {
+		int count = 16;
+		while (count < entries * 2) {
+			count <<= 1;
+		}
+		return count;
+	}
+}
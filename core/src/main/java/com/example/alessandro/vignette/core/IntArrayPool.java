@@ -0,0 +1,47 @@
+package com.example.alessandro.vignette.core;
+
+/**
+ * Pool of pixel buffers. New arrays have exactly the requested length, the power of two
+ * buckets are only used to find a pooled array to reuse: a reused array can be longer than
+ * requested, so callers must use the requested length (or a stride), not {@code array.length}.
+ * <p/>
+ * Buffers larger than the budget (i.e. full resolution images) are never kept.
+ *
+ * @author alessandro
+ */
+public class IntArrayPool extends SizeBucketedPool<int[]> {
+
+	public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+	private static IntArrayPool sInstance;
+
+	public IntArrayPool(long maxBytes) {
+		super(maxBytes);
+	}
+
+	/**
+	 * Shared pool, used by the renderers
+	 */
+	public static synchronized IntArrayPool getInstance() {
+		if (null == sInstance) {
+			sInstance = new IntArrayPool(DEFAULT_MAX_BYTES);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Returns an array with at least the given length, pooled or new
+	 */
+	public int[] obtain(int length) {
+		final int[] array = acquire(length * 4);
+		if (null != array) {
+			return array;
+		}
+		return new int[length];
+	}
+
+	@Override
+	protected int sizeOf(int[] item) {
+		return item.length * 4;
+	}
+}
@@ -0,0 +1,127 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non negative values with power of two buckets: bucket n
+ * holds the values in [2^(n-1), 2^n), bucket 0 holds 0. Recording a value is a couple
+ * of atomic increments and never allocates, so it can be called from the draw loop and
+ * from any number of threads; reads are not a consistent snapshot while values are recorded.
+ *
+ * @author alessandro
+ */
+public class Log2Histogram {
+
+	public static final int BUCKETS = 64;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) value = 0;
+
+		mBuckets.incrementAndGet(bucket(value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+
+		long max = mMax.get();
+		while (value > max && ! mMax.compareAndSet(max, value)) {
+			max = mMax.get();
+		}
+	}
+
+	static int bucket(long value) {
+		return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+	}
+
+	/**
+	 * Upper bound (exclusive) of the values of a bucket
+	 */
+	public static long bucketLimit(int bucket) {
+		return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	public long getBucketCount(int bucket) {
+		return mBuckets.get(bucket);
+	}
+
+	public long getCount() {
+		return mCount.get();
+	}
+
+	public long getSum() {
+		return mSum.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	public long getMean() {
+		final long count = mCount.get();
+		return count > 0 ? mSum.get() / count : 0;
+	}
+
+	/**
+	 * Upper bound of the bucket containing the given percentile, never more than the max value
+	 *
+	 * @param percentile between 0 and 1
+	 */
+	public long getPercentile(double percentile) {
+		final long count = mCount.get();
+		if (count == 0) return 0;
+
+		final long rank = Math.max(1, (long) Math.ceil(count * Math.max(Math.min(percentile, 1), 0)));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += mBuckets.get(i);
+			if (seen >= rank) {
+				return Math.min(bucketLimit(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mBuckets.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	/**
+	 * Appends the histogram as a json object: count, mean, max, p50, p90, p99 and the
+	 * non empty buckets, keyed by their upper bound
+	 */
+	public StringBuilder toJson(StringBuilder out) {
+		out.append("{\"count\":").append(getCount());
+		out.append(",\"mean\":").append(getMean());
+		out.append(",\"max\":").append(getMax());
+		out.append(",\"p50\":").append(getPercentile(0.5));
+		out.append(",\"p90\":").append(getPercentile(0.9));
+		out.append(",\"p99\":").append(getPercentile(0.99));
+		out.append(",\"buckets\":{");
+
+		boolean first = true;
+		for (int i = 0; i < BUCKETS; i++) {
+			final long value = mBuckets.get(i);
+			if (value == 0) continue;
+
+			if (! first) out.append(',');
+			out.append('"').append(bucketLimit(i)).append("\":").append(value);
+			first = false;
+		}
+		return out.append("}}");
+	}
+
+	@Override
+	public String toString() {
+		return "Log2Histogram{count: " + getCount() + ", mean: " + getMean() + ", max: " + getMax() + "}";
+	}
+}
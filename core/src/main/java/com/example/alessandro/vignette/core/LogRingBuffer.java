@@ -0,0 +1,159 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock-free, multiple producers / single consumer queue of log records.<br />
+ * Every slot has a sequence number telling whether it's free for the producer of a given
+ * position or ready for the consumer: producers claim a position with a CAS and publish
+ * the record by advancing the slot sequence, so {@link #offer(int, String, String, long)}
+ * never blocks and never allocates. When the buffer is full the record is dropped and counted.
+ * <p/>
+ * {@link #poll(Record)} must always be called from the same thread.
+ *
+ * @author alessandro
+ */
+public class LogRingBuffer {
+
+	/**
+	 * A record read from the buffer
+	 */
+	public static final class Record {
+		public int priority;
+		public String tag;
+		public String message;
+		public long time;
+	}
+
+	private final int mMask;
+	private final AtomicLongArray mSequences;
+	private final int[] mPriorities;
+	private final String[] mTags;
+	private final String[] mMessages;
+	private final long[] mTimes;
+
+	private final AtomicLong mTail = new AtomicLong();
+	private final AtomicLong mDropped = new AtomicLong();
+
+	/** consumer position, only written by the consumer */
+	private volatile long mHead;
+
+	/**
+	 * @param capacity the number of records, rounded up to a power of two
+	 */
+	public LogRingBuffer(int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("invalid capacity: " + capacity);
+
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		mMask = size - 1;
+		mSequences = new AtomicLongArray(size);
+		mPriorities = new int[size];
+		mTags = new String[size];
+		mMessages = new String[size];
+		mTimes = new long[size];
+
+		for (int i = 0; i < size; i++) {
+			mSequences.set(i, i);
+		}
+	}
+
+	public int getCapacity() {
+		return mMask + 1;
+	}
+
+	/**
+	 * Adds a record, from any thread
+	 *
+	 * @return false if the buffer is full and the record has been dropped
+	 */
+	public boolean offer(int priority, String tag, String message, long time) {
+		long position = mTail.get();
+		int index;
+
+		for (; ; ) {
+			index = (int) position & mMask;
+			final long diff = mSequences.get(index) - position;
+
+			if (diff == 0) {
+				if (mTail.compareAndSet(position, position + 1)) break;
+				position = mTail.get();
+			}
+			else if (diff < 0) {
+				// the slot still holds the record of the previous lap
+				mDropped.incrementAndGet();
+				return false;
+			}
+			else {
+				position = mTail.get();
+			}
+		}
+
+		mPriorities[index] = priority;
+		mTags[index] = tag;
+		mMessages[index] = message;
+		mTimes[index] = time;
+
+		// publish
+		mSequences.set(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the oldest record, consumer thread only
+	 *
+	 * @param out receives the record
+	 * @return false if the buffer is empty
+	 */
+	public boolean poll(Record out) {
+		final long position = mHead;
+		final int index = (int) position & mMask;
+
+		if (mSequences.get(index) != position + 1) return false;
+
+		out.priority = mPriorities[index];
+		out.tag = mTags[index];
+		out.message = mMessages[index];
+		out.time = mTimes[index];
+		mTags[index] = null;
+		mMessages[index] = null;
+
+		// give the slot back to the producers of the next lap
+		mSequences.set(index, position + mMask + 1);
+		mHead = position + 1;
+		return true;
+	}
+
+	/**
+	 * Number of records waiting, approximate while records are added
+	 */
+	public int size() {
+		return (int) Math.max(0, Math.min(mTail.get() - mHead, getCapacity()));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Number of records added so far, dropped ones excluded
+	 */
+	public long getWrittenCount() {
+		return mTail.get();
+	}
+
+	/**
+	 * Number of records consumed so far
+	 */
+	public long getReadCount() {
+		return mHead;
+	}
+
+	public long getDroppedCount() {
+		return mDropped.get();
+	}
+}
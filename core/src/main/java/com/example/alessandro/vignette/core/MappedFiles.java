@@ -0,0 +1,131 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory mapped files of the disk caches ({@link RenderCache}, the preview cache of the app).<br />
+ * A file is written through a mapping of a temporary file next to it, which is forced to disk,
+ * closed and only then renamed: a reader never sees a partial file, and a crash leaves at most
+ * a {@link #TEMP_EXTENSION} file behind. Files are read through a read only mapping, which stays
+ * valid after the file is deleted or replaced. Buffers use the native byte order.
+ *
+ * @author alessandro
+ */
+public final class MappedFiles {
+
+	public static final String TEMP_EXTENSION = ".tmp";
+
+	/**
+	 * Fills the mapping of a new file
+	 */
+	public static interface Writer {
+
+		/**
+		 * @param buffer the whole file, positioned at 0
+		 */
+		void write(ByteBuffer buffer) throws IOException;
+	}
+
+	private static final AtomicInteger sTempCount = new AtomicInteger();
+
+	private MappedFiles() {}
+
+	/**
+	 * Writes the file, replacing any previous one
+	 *
+	 * @param size the file size, in bytes
+	 */
+	public static void write(File file, long size, Writer writer) throws IOException {
+		rename(writeTemp(file, size, writer), file);
+	}
+
+	/**
+	 * Writes the content of a file into a new temporary file, in the same directory.
+	 * The temporary file is complete on disk when this returns: move it in place with
+	 * {@link #rename(File, File)}.
+	 *
+	 * @return the temporary file
+	 */
+	public static File writeTemp(File file, long size, Writer writer) throws IOException {
+		final File temp = new File(file.getPath() + "." + sTempCount.incrementAndGet() + TEMP_EXTENSION);
+		boolean written = false;
+
+		try {
+			final RandomAccessFile output = new RandomAccessFile(temp, "rw");
+			try {
+				output.setLength(size);
+
+				final MappedByteBuffer buffer = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+				buffer.order(ByteOrder.nativeOrder());
+				writer.write(buffer);
+				buffer.force();
+			} finally {
+				output.close();
+			}
+			written = true;
+			return temp;
+		} finally {
+			if (! written) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Moves a temporary file in place, deleting it on failure
+	 */
+	public static void rename(File temp, File file) throws IOException {
+		if (! temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("cannot rename " + temp);
+		}
+	}
+
+	/**
+	 * Maps a whole file, read only. The file can be deleted as soon as this returns.
+	 */
+	public static ByteBuffer map(File file) throws IOException {
+		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			final MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+			buffer.order(ByteOrder.nativeOrder());
+			return buffer;
+		} finally {
+			input.close();
+		}
+	}
+
+	public static boolean isTemp(File file) {
+		return file.getName().endsWith(TEMP_EXTENSION);
+	}
+
+	/**
+	 * Hex SHA-256 of a string, i.e. to turn a key into a file name
+	 */
+	public static String sha256(String value) {
+		try {
+			return toHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		final StringBuilder out = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			out.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,198 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stack of {@link VignetteKernel}s (i.e. a dark vignette plus one or more bright spots)
+ * evaluated in a single pass: for every pixel the overlays of all the kernels are composited
+ * together, in order, and the result is blended once over the pixel.<br />
+ * Each kernel is only evaluated where it can be visible: kernels which don't touch
+ * a region are dropped for the whole region, and for every row each kernel knows the
+ * span where its overlay is transparent (the feather of a vignette, or the outside of a spot).
+ * <p/>
+ * The result is the same as applying the kernels one after the other (within rounding).
+ *
+ * @author alessandro
+ */
+public class MultiVignetteKernel {
+
+	private final VignetteKernel[] mKernels;
+
+	/** gray level of the overlay of each kernel: 0 (black) or 255 (white) */
+	private final int[] mGray;
+
+	public MultiVignetteKernel(VignetteKernel... kernels) {
+		mKernels = kernels.clone();
+		mGray = new int[kernels.length];
+
+		for (int i = 0; i < kernels.length; i++) {
+			mGray[i] = (kernels[i].getOverlayColor() & 0xff) != 0 ? 255 : 0;
+		}
+	}
+
+	public MultiVignetteKernel(List<VignetteKernel> kernels) {
+		this(kernels.toArray(new VignetteKernel[kernels.size()]));
+	}
+
+	public int size() {
+		return mKernels.length;
+	}
+
+	public VignetteKernel getKernel(int index) {
+		return mKernels[index];
+	}
+
+	/**
+	 * Returns true if none of the kernels changes the given region
+	 */
+	public boolean isRegionUnaffected(int left, int top, int right, int bottom) {
+		for (VignetteKernel kernel : mKernels) {
+			if (! kernel.isRegionUnaffected(left, top, right, bottom)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies all the kernels to a region of pixels
+	 *
+	 * @see VignetteKernel#apply(int[], int, int, int, int, int, int)
+	 */
+	public void apply(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		VignetteKernel.checkBounds(pixels.length, offset, stride, width, height);
+
+		final int[] active = selectKernels(x, y, x + width, y + height);
+		final int count = active.length;
+
+		if (count == 0) return;
+
+		if (count == 1) {
+			mKernels[active[0]].apply(pixels, offset, stride, x, y, width, height);
+			return;
+		}
+
+		final VignetteKernel.Row[] rows = createRows(count);
+		final boolean[] live = new boolean[count];
+
+		for (int row = 0; row < height; row++) {
+			processRow(active, rows, live, pixels, offset + row * stride, x, y + row, width, false);
+		}
+	}
+
+	/**
+	 * Writes the composited overlay of all the kernels into a region of pixels
+	 *
+	 * @see VignetteKernel#renderMask(int[], int, int, int, int, int, int)
+	 */
+	public void renderMask(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		VignetteKernel.checkBounds(pixels.length, offset, stride, width, height);
+
+		final int[] active = selectKernels(x, y, x + width, y + height);
+		final int count = active.length;
+
+		if (count == 1) {
+			mKernels[active[0]].renderMask(pixels, offset, stride, x, y, width, height);
+			return;
+		}
+
+		final VignetteKernel.Row[] rows = createRows(count);
+		final boolean[] live = new boolean[count];
+
+		for (int row = 0; row < height; row++) {
+			final int index = offset + row * stride;
+			if (count == 0) {
+				Arrays.fill(pixels, index, index + width, 0);
+			}
+			else {
+				processRow(active, rows, live, pixels, index, x, y + row, width, true);
+			}
+		}
+	}
+
+	/**
+	 * Indices of the kernels which can change the given region
+	 */
+	private int[] selectKernels(int left, int top, int right, int bottom) {
+		int count = 0;
+		final int[] active = new int[mKernels.length];
+
+		for (int i = 0; i < mKernels.length; i++) {
+			if (! mKernels[i].isRegionUnaffected(left, top, right, bottom)) {
+				active[count++] = i;
+			}
+		}
+		return count == active.length ? active : Arrays.copyOf(active, count);
+	}
+
+	private static VignetteKernel.Row[] createRows(int count) {
+		final VignetteKernel.Row[] rows = new VignetteKernel.Row[count];
+		for (int i = 0; i < count; i++) {
+			rows[i] = new VignetteKernel.Row();
+		}
+		return rows;
+	}
+
+	private void processRow(
+		int[] active, VignetteKernel.Row[] rows, boolean[] live, int[] pixels, int index, int x, int y, int width,
+		boolean mask) {
+
+		final int count = active.length;
+		int liveCount = 0;
+
+		for (int k = 0; k < count; k++) {
+			live[k] = mKernels[active[k]].prepareRow(rows[k], x, y, width);
+			if (live[k]) liveCount++;
+		}
+
+		if (liveCount == 0) {
+			if (mask) {
+				Arrays.fill(pixels, index, index + width, 0);
+			}
+			return;
+		}
+
+		for (int i = 0; i < width; i++, index++) {
+			// composited overlay: alpha and premultiplied gray
+			int alpha = 0;
+			int gray = 0;
+
+			for (int k = 0; k < count; k++) {
+				if (! live[k]) continue;
+
+				final VignetteKernel kernel = mKernels[active[k]];
+				final VignetteKernel.Row row = rows[k];
+
+				// transparent inside the span for vignettes, outside of it for spots
+				if ((i >= row.start && i < row.end) != kernel.isInverted()) continue;
+
+				final int a = kernel.rowAlpha(row, i);
+				if (a == 0) continue;
+
+				final int inv = 255 - a;
+				alpha = a + VignetteKernel.div255(alpha * inv);
+				gray = (mGray[active[k]] == 0 ? 0 : a) + VignetteKernel.div255(gray * inv);
+			}
+
+			if (alpha == 0) {
+				if (mask) pixels[index] = 0;
+				continue;
+			}
+
+			// back to a non premultiplied gray
+			final int level = gray == 0 ? 0 : gray >= alpha ? 255 : (gray * 255 + alpha / 2) / alpha;
+			final int color = level * 0x010101;
+
+			if (mask) {
+				pixels[index] = (alpha << 24) | color;
+			}
+			else {
+				pixels[index] = VignetteKernel.blend(pixels[index], color, alpha);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MultiVignetteKernel{kernels: " + mKernels.length + "}";
+	}
+}
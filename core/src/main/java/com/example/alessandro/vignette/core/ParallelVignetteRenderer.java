@@ -0,0 +1,157 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Splits an image into tiles (or row bands) and processes them in parallel.<br />
+ * Any {@link ExecutorService} can be used: on the JVM a {@code ForkJoinPool} is the natural
+ * choice (work stealing balances the uneven cost of the tiles), while on Android, where
+ * ForkJoinPool is not available before API 21, a fixed thread pool does the same job.
+ * <p/>
+ * The work is split in more chunks than threads, so that tiles skipped by the kernel
+ * (fully inside the feather) don't leave cores idle.
+ *
+ * @author alessandro
+ */
+public class ParallelVignetteRenderer {
+
+	/** number of chunks per thread */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/** minimum height of a row band */
+	private static final int MIN_BAND_HEIGHT = 16;
+
+	public static interface TileHandler {
+
+		/**
+		 * Process the given region of the image.
+		 *
+		 * @return false to abort the rendering
+		 */
+		boolean onTile(int x, int y, int width, int height) throws Exception;
+	}
+
+	private final ExecutorService mExecutor;
+	private final int mParallelism;
+
+	/**
+	 * @param executor    the executor used to run the tiles
+	 * @param parallelism number of threads of the executor
+	 */
+	public ParallelVignetteRenderer(ExecutorService executor, int parallelism) {
+		if (parallelism <= 0) throw new IllegalArgumentException("invalid parallelism: " + parallelism);
+		mExecutor = executor;
+		mParallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return mParallelism;
+	}
+
+	/**
+	 * Applies the kernel to a whole image stored in a single array, splitting it in row bands.
+	 *
+	 * @return false if the rendering has been interrupted
+	 */
+	public boolean render(final VignetteKernel kernel, final int[] pixels, final int width, final int height)
+		throws InterruptedException, ExecutionException {
+
+		final int chunks = mParallelism * CHUNKS_PER_THREAD;
+		final int bandHeight = Math.max(MIN_BAND_HEIGHT, (height + chunks - 1) / chunks);
+
+		return forEachTile(
+			width, height, width, bandHeight, new TileHandler() {
+				@Override
+				public boolean onTile(final int x, final int y, final int w, final int h) {
+					kernel.apply(pixels, y * width + x, width, x, y, w, h);
+					return true;
+				}
+			}
+		);
+	}
+
+	/**
+	 * Calls the handler for every tile of the image, in parallel.
+	 * Returns when all the tiles have been processed.
+	 *
+	 * @return false if one of the tiles aborted the rendering, or the thread has been interrupted
+	 * @throws ExecutionException if one of the tiles failed
+	 */
+	public boolean forEachTile(
+		final int width, final int height, final int tileWidth, final int tileHeight, final TileHandler handler)
+		throws InterruptedException, ExecutionException {
+
+		if (tileWidth <= 0 || tileHeight <= 0) throw new IllegalArgumentException("invalid tile size");
+
+		final AtomicBoolean aborted = new AtomicBoolean(false);
+		final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+
+		try {
+			for (int y = 0; y < height; y += tileHeight) {
+				for (int x = 0; x < width; x += tileWidth) {
+					futures.add(
+						mExecutor.submit(
+							new TileTask(handler, aborted, x, y, Math.min(tileWidth, width - x), Math.min(tileHeight, height - y))
+						)
+					);
+				}
+			}
+
+			for (Future<Boolean> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			aborted.set(true);
+			cancelAll(futures);
+			throw e;
+		} catch (ExecutionException e) {
+			aborted.set(true);
+			cancelAll(futures);
+			throw e;
+		}
+
+		return ! aborted.get();
+	}
+
+	private static void cancelAll(List<Future<Boolean>> futures) {
+		for (Future<Boolean> future : futures) {
+			future.cancel(false);
+		}
+	}
+
+	static class TileTask implements Callable<Boolean> {
+
+		private final TileHandler mHandler;
+		private final AtomicBoolean mAborted;
+		private final int mX, mY, mWidth, mHeight;
+
+		TileTask(TileHandler handler, AtomicBoolean aborted, int x, int y, int width, int height) {
+			mHandler = handler;
+			mAborted = aborted;
+			mX = x;
+			mY = y;
+			mWidth = width;
+			mHeight = height;
+		}
+
+		@Override
+		public Boolean call() throws Exception {
+			if (mAborted.get() || Thread.currentThread().isInterrupted()) {
+				mAborted.set(true);
+				return false;
+			}
+
+			if (! mHandler.onTile(mX, mY, mWidth, mHeight)) {
+				mAborted.set(true);
+				return false;
+			}
+			return true;
+		}
+	}
+}
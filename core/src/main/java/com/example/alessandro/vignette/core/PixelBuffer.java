@@ -0,0 +1,44 @@
+package com.example.alessandro.vignette.core;
+
+/**
+ * An image held as ARGB pixels, row by row with no padding.
+ *
+ * @author alessandro
+ */
+public final class PixelBuffer {
+
+	public final int[] pixels;
+	public final int width;
+	public final int height;
+
+	private final boolean mPooled;
+
+	public PixelBuffer(int[] pixels, int width, int height) {
+		this(pixels, width, height, false);
+	}
+
+	private PixelBuffer(int[] pixels, int width, int height, boolean pooled) {
+		if (pixels.length < width * height) throw new IllegalArgumentException("buffer too small");
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+		mPooled = pooled;
+	}
+
+	/**
+	 * Creates a buffer backed by an array from the shared {@link IntArrayPool}
+	 */
+	public static PixelBuffer obtain(int width, int height) {
+		return new PixelBuffer(IntArrayPool.getInstance().obtain(width * height), width, height, true);
+	}
+
+	/**
+	 * Gives the pixels back to the pool, if they came from it.
+	 * The buffer must not be used afterwards.
+	 */
+	public void release() {
+		if (mPooled) {
+			IntArrayPool.getInstance().release(pixels);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes the image as a PNG (8 bit RGB, alpha discarded) while the rows are received.<br />
+ * Every row goes through the Sub filter and a single deflate stream, which is written out in
+ * IDAT chunks of {@link #CHUNK_SIZE} bytes: the encoder only keeps one row and the deflater
+ * window in memory, whatever the image size.
+ *
+ * @author alessandro
+ */
+public class PngScanlineSink implements ScanlineSink {
+
+	private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+	private static final int COLOR_TYPE_RGB = 2;
+	private static final int FILTER_SUB = 1;
+
+	/** max size of the IDAT chunks */
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	private final OutputStream mStream;
+	private final int mLevel;
+	private final CRC32 mCrc = new CRC32();
+
+	private int mWidth;
+	private int mRemaining;
+	private byte[] mRow;
+	private Deflater mDeflater;
+	private DeflaterOutputStream mData;
+	private ChunkOutputStream mChunks;
+
+	public PngScanlineSink(OutputStream stream) {
+		this(stream, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level the deflate level, from 0 (fastest) to 9 (smallest)
+	 */
+	public PngScanlineSink(OutputStream stream, int level) {
+		mStream = stream;
+		mLevel = level;
+	}
+
+	@Override
+	public void begin(int width, int height) throws IOException {
+		if (width <= 0 || height <= 0) throw new IOException("invalid size: " + width + "x" + height);
+
+		mWidth = width;
+		mRemaining = height;
+		mRow = new byte[1 + width * 3];
+		mRow[0] = FILTER_SUB;
+
+		mStream.write(SIGNATURE);
+
+		final byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8;
+		header[9] = COLOR_TYPE_RGB;
+		writeChunk("IHDR", header, 0, header.length);
+
+		mDeflater = new Deflater(mLevel);
+		mChunks = new ChunkOutputStream();
+		mData = new DeflaterOutputStream(mChunks, mDeflater, CHUNK_SIZE);
+	}
+
+	@Override
+	public void write(int[] pixels, int offset, int stride, int rows) throws IOException {
+		if (rows > mRemaining) throw new IOException("too many rows");
+
+		for (int y = 0; y < rows; y++) {
+			int index = offset + y * stride;
+			int r = 0;
+			int g = 0;
+			int b = 0;
+
+			// Sub filter: every byte minus the same channel of the previous pixel
+			for (int x = 0, i = 1; x < mWidth; x++, index++) {
+				final int pixel = pixels[index];
+				final int pr = (pixel >> 16) & 0xff;
+				final int pg = (pixel >> 8) & 0xff;
+				final int pb = pixel & 0xff;
+
+				mRow[i++] = (byte) (pr - r);
+				mRow[i++] = (byte) (pg - g);
+				mRow[i++] = (byte) (pb - b);
+				r = pr;
+				g = pg;
+				b = pb;
+			}
+			mData.write(mRow);
+		}
+		mRemaining -= rows;
+	}
+
+	@Override
+	public void end() throws IOException {
+		if (mRemaining != 0) throw new IOException("missing " + mRemaining + " rows");
+
+		try {
+			mData.finish();
+			mChunks.writeChunk();
+		} finally {
+			mDeflater.end();
+		}
+
+		writeChunk("IEND", mRow, 0, 0);
+		mStream.flush();
+	}
+
+	private void writeChunk(String type, byte[] data, int offset, int length) throws IOException {
+		final byte[] header = new byte[8];
+		putInt(header, 0, length);
+		for (int i = 0; i < 4; i++) {
+			header[4 + i] = (byte) type.charAt(i);
+		}
+
+		mCrc.reset();
+		mCrc.update(header, 4, 4);
+		mCrc.update(data, offset, length);
+
+		final byte[] crc = new byte[4];
+		putInt(crc, 0, (int) mCrc.getValue());
+
+		mStream.write(header);
+		mStream.write(data, offset, length);
+		mStream.write(crc);
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Collects the compressed data, written out as an IDAT chunk every {@link #CHUNK_SIZE} bytes
+	 */
+	private class ChunkOutputStream extends OutputStream {
+		private final byte[] mBuffer = new byte[CHUNK_SIZE];
+		private int mCount;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (mCount == mBuffer.length) writeChunk();
+			mBuffer[mCount++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (mCount == mBuffer.length) writeChunk();
+
+				final int count = Math.min(length, mBuffer.length - mCount);
+				System.arraycopy(data, offset, mBuffer, mCount, count);
+				mCount += count;
+				offset += count;
+				length -= count;
+			}
+		}
+
+		void writeChunk() throws IOException {
+			if (mCount > 0) {
+				PngScanlineSink.this.writeChunk("IDAT", mBuffer, 0, mCount);
+				mCount = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the image as a binary PPM (P6) file. The format has no compression and no
+ * global state, so every band is encoded and flushed as soon as it is received.
+ * Alpha is discarded.<br />
+ * Meant for tests and debugging: the output is 3 bytes per pixel (about 300 MB for
+ * 100 MP), use {@link PngScanlineSink} for real exports.
+ *
+ * @author alessandro
+ */
+public class PpmScanlineSink implements ScanlineSink {
+
+	private final OutputStream mStream;
+	private int mWidth;
+	private int mRemaining;
+	private byte[] mRow;
+
+	public PpmScanlineSink(OutputStream stream) {
+		mStream = stream;
+	}
+
+	@Override
+	public void begin(int width, int height) throws IOException {
+		mWidth = width;
+		mRemaining = height;
+		mRow = new byte[width * 3];
+		mStream.write(("P6\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+	}
+
+	@Override
+	public void write(int[] pixels, int offset, int stride, int rows) throws IOException {
+		if (rows > mRemaining) throw new IOException("too many rows");
+
+		for (int y = 0; y < rows; y++) {
+			int index = offset + y * stride;
+			for (int x = 0, i = 0; x < mWidth; x++, index++) {
+				final int pixel = pixels[index];
+				mRow[i++] = (byte) (pixel >> 16);
+				mRow[i++] = (byte) (pixel >> 8);
+				mRow[i++] = (byte) pixel;
+			}
+			mStream.write(mRow);
+		}
+		mRemaining -= rows;
+	}
+
+	@Override
+	public void end() throws IOException {
+		if (mRemaining != 0) throw new IOException("missing " + mRemaining + " rows");
+		mStream.flush();
+	}
+}
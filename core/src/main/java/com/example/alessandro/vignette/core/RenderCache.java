@@ -0,0 +1,369 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content addressed disk cache of rendered images (exports, preset thumbnails).<br />
+ * The key is a hash of the source id, the output size and the vignette params (see
+ * {@link #key(String, int, int, List)}), so the same image rendered with the same params
+ * is read back instead of rendered again.
+ * <p/>
+ * Entries are the raw pixels, written and read through {@link MappedFiles} (a reader never
+ * sees a partial entry); full resolution exports can be streamed a band of rows at a time.
+ * The total size is capped: the least recently used entries are removed first, the order
+ * surviving restarts through the file modification time.
+ *
+ * @author alessandro
+ */
+public class RenderCache {
+
+	private static final int MAGIC = 0x56524331; // VRC1
+	private static final int HEADER_SIZE = 12;
+	private static final String EXTENSION = ".px";
+
+	/** rows copied at once by the streaming get and put */
+	private static final int BAND_HEIGHT = 64;
+
+	private final File mDirectory;
+	private final long mMaxSize;
+
+	/** entry sizes, in access order */
+	private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long mSize;
+
+	private final AtomicInteger mHits = new AtomicInteger();
+	private final AtomicInteger mMisses = new AtomicInteger();
+
+	/**
+	 * Opens the cache, indexing the entries already in the directory
+	 *
+	 * @param maxSize max total size of the entries, in bytes
+	 */
+	public RenderCache(File directory, long maxSize) throws IOException {
+		if (maxSize <= 0) throw new IllegalArgumentException("invalid size: " + maxSize);
+		if (! directory.isDirectory() && ! directory.mkdirs()) throw new IOException("cannot create " + directory);
+
+		mDirectory = directory;
+		mMaxSize = maxSize;
+
+		final File[] files = directory.listFiles();
+		if (null == files) throw new IOException("cannot list " + directory);
+
+		// oldest first, so the access order matches the last use
+		final List<File> entries = new ArrayList<File>(files.length);
+		for (File file : files) {
+			if (MappedFiles.isTemp(file)) {
+				// left by a crash
+				file.delete();
+			}
+			else if (file.getName().endsWith(EXTENSION)) {
+				entries.add(file);
+			}
+		}
+
+		Collections.sort(
+			entries, new Comparator<File>() {
+				@Override
+				public int compare(final File lhs, final File rhs) {
+					final long l = lhs.lastModified();
+					final long r = rhs.lastModified();
+					return l < r ? - 1 : l > r ? 1 : 0;
+				}
+			}
+		);
+
+		synchronized (this) {
+			for (File file : entries) {
+				final String name = file.getName();
+				final long length = file.length();
+				mEntries.put(name.substring(0, name.length() - EXTENSION.length()), length);
+				mSize += length;
+			}
+			trim();
+		}
+	}
+
+	/**
+	 * Key of an image rendered with the given params: the source id must identify the
+	 * image content (i.e. include a modification time or a hash of it)
+	 *
+	 * @param params the main vignette first, then any additional mask
+	 */
+	public static String key(String sourceId, int width, int height, List<VignetteParams> params) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(sourceId.getBytes("UTF-8"));
+			digest.update(new byte[]{0, (byte) (width >> 24), (byte) (width >> 16), (byte) (width >> 8), (byte) width,
+				(byte) (height >> 24), (byte) (height >> 16), (byte) (height >> 8), (byte) height});
+
+			// the params are already normalized (clamped feather and intensity, rotation in (-180, 180])
+			final VignetteParams main = params.isEmpty() ? null : params.get(0);
+			final List<VignetteParams> masks = params.isEmpty() ? params : params.subList(1, params.size());
+			digest.update(VignetteParamsCodec.encode(main, masks));
+
+			return MappedFiles.toHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String key(String sourceId, int width, int height, VignetteParams... params) {
+		return key(sourceId, width, height, Arrays.asList(params));
+	}
+
+	/**
+	 * Reads a cached image
+	 *
+	 * @param key a key returned by {@link #key(String, int, int, List)}
+	 * @return the image (backed by a pooled array, see {@link PixelBuffer#release()}), or null
+	 */
+	public PixelBuffer get(String key) {
+		final ByteBuffer buffer = map(key);
+		if (null == buffer) return null;
+
+		final int width = buffer.getInt(4);
+		final int height = buffer.getInt(8);
+		final PixelBuffer result = PixelBuffer.obtain(width, height);
+		buffer.asIntBuffer().get(result.pixels, 0, width * height);
+		return result;
+	}
+
+	/**
+	 * Reads a cached image into the sink, one band of rows at a time: only a band buffer
+	 * is allocated, whatever the image size
+	 *
+	 * @return false if the image is not cached, the sink is not called
+	 * @throws IOException from the sink
+	 */
+	public boolean get(String key, ScanlineSink sink) throws IOException {
+		final ByteBuffer buffer = map(key);
+		if (null == buffer) return false;
+
+		final int width = buffer.getInt(4);
+		final int height = buffer.getInt(8);
+		final IntBuffer pixels = buffer.asIntBuffer();
+		final int bandHeight = Math.min(BAND_HEIGHT, height);
+		final IntArrayPool pool = IntArrayPool.getInstance();
+		final int[] band = pool.obtain(width * bandHeight);
+
+		try {
+			sink.begin(width, height);
+			for (int y = 0; y < height; y += bandHeight) {
+				final int rows = Math.min(bandHeight, height - y);
+				pixels.get(band, 0, width * rows);
+				sink.write(band, 0, width, rows);
+			}
+			sink.end();
+		} finally {
+			pool.release(band);
+		}
+		return true;
+	}
+
+	/**
+	 * Maps an entry, positioned at the pixels. The file is mapped under the lock, so a concurrent
+	 * put or eviction can't delete it in between; once mapped it can be read without the lock,
+	 * the mapping survives the file removal.
+	 *
+	 * @return the entry, or null on a miss
+	 */
+	private ByteBuffer map(String key) {
+		final File file = getFile(key);
+		ByteBuffer buffer = null;
+
+		synchronized (this) {
+			if (null != mEntries.get(key)) {
+				try {
+					buffer = MappedFiles.map(file);
+				} catch (IOException e) {
+					remove(key);
+				}
+			}
+		}
+
+		if (null != buffer) {
+			final long length = buffer.capacity();
+			final int width = length < HEADER_SIZE ? 0 : buffer.getInt(4);
+			final int height = length < HEADER_SIZE ? 0 : buffer.getInt(8);
+
+			if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC || width <= 0 || height <= 0
+			    || HEADER_SIZE + (long) width * height * 4 != length) {
+				remove(key);
+				buffer = null;
+			}
+		}
+
+		if (null == buffer) {
+			mMisses.incrementAndGet();
+			return null;
+		}
+
+		file.setLastModified(System.currentTimeMillis());
+		mHits.incrementAndGet();
+		buffer.position(HEADER_SIZE);
+		return buffer;
+	}
+
+	public synchronized boolean contains(String key) {
+		return mEntries.containsKey(key);
+	}
+
+	/**
+	 * Stores an image, evicting the least recently used entries if needed
+	 *
+	 * @return false if the image could not be written
+	 */
+	public boolean put(String key, final PixelBuffer image) {
+		return put(
+			key, image.width, image.height, new MappedFiles.Writer() {
+				@Override
+				public void write(final ByteBuffer buffer) {
+					buffer.asIntBuffer().put(image.pixels, 0, image.width * image.height);
+				}
+			}
+		);
+	}
+
+	/**
+	 * Stores an image read from the source one band of rows at a time, so only a band
+	 * buffer is allocated whatever the image size. The source is not closed.
+	 *
+	 * @return false if the image could not be read or written
+	 */
+	public boolean put(String key, final TileSource source) {
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+
+		return put(
+			key, width, height, new MappedFiles.Writer() {
+				@Override
+				public void write(final ByteBuffer buffer) throws IOException {
+					final IntBuffer pixels = buffer.asIntBuffer();
+					final int bandHeight = Math.min(BAND_HEIGHT, height);
+					final IntArrayPool pool = IntArrayPool.getInstance();
+					final int[] band = pool.obtain(width * bandHeight);
+
+					try {
+						for (int y = 0; y < height; y += bandHeight) {
+							final int rows = Math.min(bandHeight, height - y);
+							source.readTile(0, y, width, rows, band, 0, width);
+							pixels.put(band, 0, width * rows);
+						}
+					} finally {
+						pool.release(band);
+					}
+				}
+			}
+		);
+	}
+
+	/**
+	 * @param pixels writes the pixels, the buffer being positioned after the header
+	 */
+	private boolean put(String key, final int width, final int height, final MappedFiles.Writer pixels) {
+		final long size = HEADER_SIZE + (long) width * height * 4;
+		if (size > mMaxSize) return false;
+
+		final File file = getFile(key);
+
+		try {
+			final File temp = MappedFiles.writeTemp(
+				file, size, new MappedFiles.Writer() {
+					@Override
+					public void write(final ByteBuffer buffer) throws IOException {
+						buffer.putInt(MAGIC);
+						buffer.putInt(width);
+						buffer.putInt(height);
+						pixels.write(buffer);
+					}
+				}
+			);
+
+			synchronized (this) {
+				MappedFiles.rename(temp, file);
+
+				final Long previous = mEntries.put(key, size);
+				mSize += size - (null != previous ? previous : 0);
+				trim();
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public synchronized void remove(String key) {
+		final Long size = mEntries.remove(key);
+		if (null != size) {
+			mSize -= size;
+			getFile(key).delete();
+		}
+	}
+
+	public synchronized void clear() {
+		for (String key : mEntries.keySet()) {
+			getFile(key).delete();
+		}
+		mEntries.clear();
+		mSize = 0;
+	}
+
+	/**
+	 * Total size of the entries, in bytes
+	 */
+	public synchronized long getSize() {
+		return mSize;
+	}
+
+	public long getMaxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized int getCount() {
+		return mEntries.size();
+	}
+
+	public int getHitCount() {
+		return mHits.get();
+	}
+
+	public int getMissCount() {
+		return mMisses.get();
+	}
+
+	private void trim() {
+		final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+		while (mSize > mMaxSize && iterator.hasNext()) {
+			final Map.Entry<String, Long> entry = iterator.next();
+			getFile(entry.getKey()).delete();
+			mSize -= entry.getValue();
+			iterator.remove();
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(mDirectory, key + EXTENSION);
+	}
+
+	@Override
+	public String toString() {
+		return "RenderCache{entries: " + getCount() + ", size: " + getSize() + "/" + mMaxSize + ", hits: " + getHitCount()
+		       + ", misses: " + getMissCount() + "}";
+	}
+}
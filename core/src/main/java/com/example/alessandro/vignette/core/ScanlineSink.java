@@ -0,0 +1,25 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.IOException;
+
+/**
+ * Destination of an image written from top to bottom, a band of rows at a time.
+ *
+ * @author alessandro
+ */
+public interface ScanlineSink {
+
+	void begin(int width, int height) throws IOException;
+
+	/**
+	 * Writes the next rows of the image
+	 *
+	 * @param pixels ARGB pixels
+	 * @param offset index of the first pixel
+	 * @param stride number of entries between rows
+	 * @param rows   number of rows to write
+	 */
+	void write(int[] pixels, int offset, int stride, int rows) throws IOException;
+
+	void end() throws IOException;
+}
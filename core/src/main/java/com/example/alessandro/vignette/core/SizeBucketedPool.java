@@ -0,0 +1,164 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Pool of reusable buffers, grouped in power of two size buckets, with a byte budget.<br />
+ * When the budget is exceeded the least recently released buffers are evicted.
+ * A request is served from its own bucket (if a buffer is large enough) or from the
+ * next one, so a reused buffer is never more than 4 times the requested size.
+ * All the methods are thread safe.
+ *
+ * @author alessandro
+ */
+public abstract class SizeBucketedPool<T> {
+
+	private final Map<Integer, LinkedList<T>> mBuckets = new HashMap<Integer, LinkedList<T>>();
+
+	/** all the pooled items, least recently released first */
+	private final LinkedList<T> mLru = new LinkedList<T>();
+
+	private long mMaxBytes;
+	private long mBytes;
+
+	private int mHits;
+	private int mMisses;
+	private int mEvictions;
+
+	protected SizeBucketedPool(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Size in bytes of the item
+	 */
+	protected abstract int sizeOf(T item);
+
+	/**
+	 * Called when an item is evicted from the pool
+	 */
+	protected void onEvicted(T item) {}
+
+	/**
+	 * Returns a pooled item of at least the given size, or null
+	 */
+	protected synchronized T acquire(int bytes) {
+		final int bucket = bucketOf(bytes);
+		T item = take(bucket, bytes);
+		if (null == item) {
+			item = take(bucket + 1, bytes);
+		}
+
+		if (null != item) {
+			mHits++;
+			mLru.remove(item);
+			mBytes -= sizeOf(item);
+		}
+		else {
+			mMisses++;
+		}
+		return item;
+	}
+
+	/**
+	 * Gives an item back to the pool. The caller must not use it anymore.
+	 */
+	public synchronized void release(T item) {
+		if (null == item) return;
+
+		final int size = sizeOf(item);
+		if (size > mMaxBytes) {
+			mEvictions++;
+			onEvicted(item);
+			return;
+		}
+
+		final int bucket = bucketOf(size);
+		LinkedList<T> list = mBuckets.get(bucket);
+		if (null == list) {
+			list = new LinkedList<T>();
+			mBuckets.put(bucket, list);
+		}
+
+		list.addLast(item);
+		mLru.addLast(item);
+		mBytes += size;
+
+		trimToSize(mMaxBytes);
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		mMaxBytes = maxBytes;
+		trimToSize(maxBytes);
+	}
+
+	public synchronized long getMaxBytes() {
+		return mMaxBytes;
+	}
+
+	/**
+	 * Bytes currently held by the pool
+	 */
+	public synchronized long getBytes() {
+		return mBytes;
+	}
+
+	public synchronized int getHitCount() {
+		return mHits;
+	}
+
+	public synchronized int getMissCount() {
+		return mMisses;
+	}
+
+	public synchronized int getEvictionCount() {
+		return mEvictions;
+	}
+
+	public synchronized void clear() {
+		trimToSize(0);
+	}
+
+	private void trimToSize(long maxBytes) {
+		while (mBytes > maxBytes && ! mLru.isEmpty()) {
+			final T item = mLru.removeFirst();
+			final int size = sizeOf(item);
+			mBuckets.get(bucketOf(size)).remove(item);
+			mBytes -= size;
+			mEvictions++;
+			onEvicted(item);
+		}
+	}
+
+	private T take(int bucket, int bytes) {
+		final LinkedList<T> list = mBuckets.get(bucket);
+		if (null == list) return null;
+
+		// most recently released first
+		final Iterator<T> iterator = list.descendingIterator();
+		while (iterator.hasNext()) {
+			final T item = iterator.next();
+			if (sizeOf(item) >= bytes) {
+				iterator.remove();
+				return item;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Index of the power of two bucket containing the given size
+	 */
+	static int bucketOf(int bytes) {
+		return bytes <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(bytes - 1);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return getClass().getSimpleName() + "{bytes: " + mBytes + "/" + mMaxBytes + ", hits: " + mHits + ", misses: "
+		       + mMisses + ", evictions: " + mEvictions + "}";
+	}
+}
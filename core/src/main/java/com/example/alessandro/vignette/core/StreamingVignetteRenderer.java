@@ -0,0 +1,86 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.IOException;
+
+/**
+ * Applies the vignette to images too big to be loaded in memory.<br />
+ * The source is read one band of rows at a time (each band made of tiles), the kernel
+ * is applied with the band position relative to the full image ellipse, and the band is
+ * passed to the sink.
+ * <p/>
+ * Peak memory is a single band buffer of width * bandHeight pixels, plus whatever the source
+ * needs to read one tile: it grows with the image width, not with its height. Row based
+ * encoders (i.e. {@link PngScanlineSink}) need whole rows anyway; for very wide images use a
+ * smaller band height (a 100 MP, 12000 pixels wide panorama takes 12 MB with 256 rows).
+ *
+ * @author alessandro
+ */
+public class StreamingVignetteRenderer {
+
+	public static final int DEFAULT_TILE_SIZE = 512;
+
+	private final int mTileWidth;
+	private final int mBandHeight;
+	private volatile boolean mCancelled;
+
+	public StreamingVignetteRenderer() {
+		this(DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * @param tileWidth  width of the regions read from the source
+	 * @param bandHeight number of rows processed at once
+	 */
+	public StreamingVignetteRenderer(int tileWidth, int bandHeight) {
+		if (tileWidth <= 0 || bandHeight <= 0) throw new IllegalArgumentException("invalid tile size");
+		mTileWidth = tileWidth;
+		mBandHeight = bandHeight;
+	}
+
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	/**
+	 * Streams the source into the sink, applying the kernel.
+	 * The kernel must be expressed in the source image coordinates.
+	 *
+	 * @return false if cancelled
+	 */
+	public boolean render(TileSource source, VignetteKernel kernel, ScanlineSink sink) throws IOException {
+		return render(source, new MultiVignetteKernel(kernel), sink);
+	}
+
+	/**
+	 * Same as {@link #render(TileSource, VignetteKernel, ScanlineSink)}, applying a stack of kernels
+	 */
+	public boolean render(TileSource source, MultiVignetteKernel kernel, ScanlineSink sink) throws IOException {
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int bandHeight = Math.min(mBandHeight, height);
+		final IntArrayPool pool = IntArrayPool.getInstance();
+		final int[] band = pool.obtain(width * bandHeight);
+
+		try {
+			sink.begin(width, height);
+
+			for (int y = 0; y < height; y += bandHeight) {
+				final int rows = Math.min(bandHeight, height - y);
+
+				for (int x = 0; x < width; x += mTileWidth) {
+					if (mCancelled || Thread.currentThread().isInterrupted()) return false;
+
+					final int w = Math.min(mTileWidth, width - x);
+					source.readTile(x, y, w, rows, band, x, width);
+					kernel.apply(band, x, width, x, y, w, rows);
+				}
+				sink.write(band, 0, width, rows);
+			}
+
+			sink.end();
+			return true;
+		} finally {
+			pool.release(band);
+		}
+	}
+}
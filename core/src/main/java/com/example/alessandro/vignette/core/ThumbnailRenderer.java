@@ -0,0 +1,261 @@
+package com.example.alessandro.vignette.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders preset thumbnails of the same (already downsampled) image in parallel.<br />
+ * The source is shared, read only, by all the tasks: every thumbnail only copies it into
+ * its own buffer and applies its preset. Thumbnails are delivered one by one as soon as they
+ * are ready, and every pending thumbnail can be cancelled, i.e. when it scrolls off screen.
+ * <p/>
+ * The default executor uses a small number of low priority threads, so the thumbnails
+ * don't compete with the ui thread.
+ *
+ * @author alessandro
+ */
+public class ThumbnailRenderer {
+
+	public static interface Listener {
+
+		/**
+		 * Called from a worker thread. The listener owns the thumbnail and must
+		 * {@link PixelBuffer#release()} it.
+		 */
+		void onThumbnail(int index, VignetteParams preset, PixelBuffer thumbnail);
+
+		void onThumbnailFailed(int index, VignetteParams preset, Throwable error);
+	}
+
+	private final ExecutorService mExecutor;
+	private final boolean mOwnsExecutor;
+
+	/** pending tasks, by thumbnail index */
+	private final Map<Integer, Future<?>> mTasks = new HashMap<Integer, Future<?>>();
+
+	private volatile PixelBuffer mSource;
+	private volatile String mSourceId;
+	private volatile RenderCache mCache;
+
+	public ThumbnailRenderer() {
+		this(newExecutor(Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1))), true);
+	}
+
+	/**
+	 * @param executor executor running the thumbnails, not shut down by {@link #release()}
+	 */
+	public ThumbnailRenderer(ExecutorService executor) {
+		this(executor, false);
+	}
+
+	private ThumbnailRenderer(ExecutorService executor, boolean ownsExecutor) {
+		mExecutor = executor;
+		mOwnsExecutor = ownsExecutor;
+	}
+
+	/**
+	 * Executor with the given number of low priority daemon threads
+	 */
+	public static ExecutorService newExecutor(int threads) {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "ThumbnailRenderer-" + mCount.getAndIncrement());
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+				return thread;
+			}
+		}
+		);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Creates a preset for every combination of intensity and feather, keeping
+	 * the ellipse of the base params
+	 */
+	public static List<VignetteParams> createPresets(VignetteParams base, int[] intensities, float[] feathers) {
+		final List<VignetteParams> presets = new ArrayList<VignetteParams>(intensities.length * feathers.length);
+		for (int intensity : intensities) {
+			for (float feather : feathers) {
+				presets.add(base.withIntensity(intensity).withFeather(feather));
+			}
+		}
+		return presets;
+	}
+
+	/**
+	 * Sets the downsampled image, cancelling the pending thumbnails. The buffer must
+	 * not change while the renderer uses it.
+	 *
+	 * @param sourceId id of the original image, used for the cache keys (can be null without a cache)
+	 */
+	public void setSource(PixelBuffer source, String sourceId) {
+		cancelAll();
+		mSource = source;
+		mSourceId = sourceId;
+	}
+
+	public PixelBuffer getSource() {
+		return mSource;
+	}
+
+	/**
+	 * Cache used to read and store the thumbnails, or null
+	 */
+	public void setCache(RenderCache cache) {
+		mCache = cache;
+	}
+
+	/**
+	 * Renders a thumbnail in background, replacing the pending one with the same index
+	 */
+	public void render(final int index, final VignetteParams preset, final Listener listener) {
+		final PixelBuffer source = mSource;
+		if (null == source) throw new IllegalStateException("no source");
+
+		final String sourceId = mSourceId;
+		final RenderCache cache = mCache;
+
+		synchronized (mTasks) {
+			final Future<?> previous = mTasks.remove(index);
+			if (null != previous) {
+				previous.cancel(false);
+			}
+
+			final ThumbnailTask task = new ThumbnailTask(index, preset, listener, source, sourceId, cache);
+			task.future = mExecutor.submit(task);
+			mTasks.put(index, task.future);
+		}
+	}
+
+	/**
+	 * Removes a finished task
+	 *
+	 * @return false if the task has been cancelled or replaced
+	 */
+	private boolean done(ThumbnailTask task) {
+		synchronized (mTasks) {
+			// the future is set under the same lock, before the task can get here
+			final Future<?> future = task.future;
+			if (mTasks.get(task.index) == future) {
+				mTasks.remove(task.index);
+			}
+			return ! future.isCancelled();
+		}
+	}
+
+	private class ThumbnailTask implements Runnable {
+		final int index;
+		final VignetteParams preset;
+		final Listener listener;
+		final PixelBuffer source;
+		final String sourceId;
+		final RenderCache cache;
+
+		/** guarded by mTasks */
+		Future<?> future;
+
+		ThumbnailTask(int index, VignetteParams preset, Listener listener, PixelBuffer source, String sourceId, RenderCache cache) {
+			this.index = index;
+			this.preset = preset;
+			this.listener = listener;
+			this.source = source;
+			this.sourceId = sourceId;
+			this.cache = cache;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (Thread.currentThread().isInterrupted()) throw new CancellationException();
+
+				final PixelBuffer thumbnail = renderThumbnail(source, sourceId, preset, cache);
+				if (done(this)) {
+					listener.onThumbnail(index, preset, thumbnail);
+				}
+				else {
+					thumbnail.release();
+				}
+			} catch (CancellationException e) {
+				done(this);
+			} catch (Throwable t) {
+				if (done(this)) {
+					listener.onThumbnailFailed(index, preset, t);
+				}
+			}
+		}
+	}
+
+	private static PixelBuffer renderThumbnail(PixelBuffer source, String sourceId, VignetteParams preset, RenderCache cache) {
+		final int width = source.width;
+		final int height = source.height;
+		final String key = null != cache && null != sourceId ? RenderCache.key(sourceId, width, height, preset) : null;
+
+		if (null != key) {
+			final PixelBuffer cached = cache.get(key);
+			if (null != cached) return cached;
+		}
+
+		final PixelBuffer thumbnail = PixelBuffer.obtain(width, height);
+		System.arraycopy(source.pixels, 0, thumbnail.pixels, 0, width * height);
+		preset.toKernel(width, height).apply(thumbnail.pixels, 0, width, 0, 0, width, height);
+
+		if (null != key) {
+			cache.put(key, thumbnail);
+		}
+		return thumbnail;
+	}
+
+	/**
+	 * Cancels a pending thumbnail: its listener won't be called
+	 */
+	public void cancel(int index) {
+		synchronized (mTasks) {
+			final Future<?> future = mTasks.remove(index);
+			if (null != future) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	public void cancelAll() {
+		synchronized (mTasks) {
+			for (Future<?> future : mTasks.values()) {
+				future.cancel(true);
+			}
+			mTasks.clear();
+		}
+	}
+
+	public int getPendingCount() {
+		synchronized (mTasks) {
+			return mTasks.size();
+		}
+	}
+
+	/**
+	 * Cancels all the thumbnails and stops the default executor
+	 */
+	public void release() {
+		cancelAll();
+		mSource = null;
+		if (mOwnsExecutor) {
+			mExecutor.shutdownNow();
+		}
+	}
+}
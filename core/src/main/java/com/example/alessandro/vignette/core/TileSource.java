@@ -0,0 +1,31 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.IOException;
+
+/**
+ * Source image which can be read one region at a time, without
+ * loading the whole image in memory.
+ *
+ * @author alessandro
+ */
+public interface TileSource {
+
+	int getWidth();
+
+	int getHeight();
+
+	/**
+	 * Reads a region of the image as ARGB pixels
+	 *
+	 * @param x      left of the region
+	 * @param y      top of the region
+	 * @param width  width of the region
+	 * @param height height of the region
+	 * @param pixels destination buffer
+	 * @param offset index of the first pixel in the buffer
+	 * @param stride number of entries between rows in the buffer
+	 */
+	void readTile(int x, int y, int width, int height, int[] pixels, int offset, int stride) throws IOException;
+
+	void close();
+}
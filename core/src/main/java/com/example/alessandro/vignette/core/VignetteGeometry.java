@@ -0,0 +1,164 @@
+package com.example.alessandro.vignette.core;
+
+/**
+ * Touch geometry of the vignette ellipse: where the handles are and how dragging
+ * them changes the ellipse. All the rects are float[4] (left, top, right, bottom)
+ * in view coordinates, the ellipse rect being the one before the rotation.
+ *
+ * @author alessandro
+ */
+public final class VignetteGeometry {
+
+	public static enum Handle {
+		None, Center, Left, Top, Right, Bottom, TopLeft, TopRight, BottomLeft, BottomRight, Rotate
+	}
+
+	private static final Handle[] HANDLES = Handle.values();
+
+	/** position of the corner handles on the ellipse */
+	private static final float RAD = (float) Math.toRadians(45);
+	private static final float COS_RAD = (float) Math.cos(RAD);
+	private static final float SIN_RAD = (float) Math.sin(RAD);
+
+	private VignetteGeometry() {}
+
+	public static Handle getHandle(int id) {
+		return id >= 0 && id < HANDLES.length ? HANDLES[id] : Handle.None;
+	}
+
+	/**
+	 * Registers the handles of the ellipse in the hit tester, using the handle ordinal as id.
+	 * Corner handles use the given tolerance, edges, center and rotation knob twice that.
+	 *
+	 * @param rotateDistance distance of the rotation knob above the ellipse
+	 */
+	public static void addHandles(HandleHitTester tester, float[] rect, float tolerance, float rotateDistance) {
+		final float centerX = (rect[0] + rect[2]) / 2;
+		final float centerY = (rect[1] + rect[3]) / 2;
+		final float radiusX = (rect[2] - rect[0]) / 2 * COS_RAD;
+		final float radiusY = (rect[3] - rect[1]) / 2 * SIN_RAD;
+
+		tester.reset(tolerance * 4);
+
+		tester.add(Handle.TopLeft.ordinal(), centerX - radiusX, centerY - radiusY, tolerance);
+		tester.add(Handle.TopRight.ordinal(), centerX + radiusX, centerY - radiusY, tolerance);
+		tester.add(Handle.BottomRight.ordinal(), centerX + radiusX, centerY + radiusY, tolerance);
+		tester.add(Handle.BottomLeft.ordinal(), centerX - radiusX, centerY + radiusY, tolerance);
+
+		tester.add(Handle.Left.ordinal(), rect[0], centerY, tolerance * 2);
+		tester.add(Handle.Right.ordinal(), rect[2], centerY, tolerance * 2);
+		tester.add(Handle.Top.ordinal(), centerX, rect[1], tolerance * 2);
+		tester.add(Handle.Bottom.ordinal(), centerX, rect[3], tolerance * 2);
+		tester.add(Handle.Center.ordinal(), centerX, centerY, tolerance * 2);
+		tester.add(Handle.Rotate.ordinal(), centerX, rect[1] - rotateDistance, tolerance * 2);
+	}
+
+	/**
+	 * Rotation of the ellipse when the rotation knob is dragged to the given point
+	 * (the knob sits above the center)
+	 */
+	public static float rotationAt(float[] rect, float x, float y) {
+		final double angle = Math.atan2(y - (rect[1] + rect[3]) / 2, x - (rect[0] + rect[2]) / 2);
+		return (float) Math.toDegrees(angle) + 90;
+	}
+
+	/**
+	 * Applies a scroll to the ellipse rect: the center moves the ellipse (as long as its
+	 * center stays inside the image), edges and corners resize it along its axes.
+	 *
+	 * @param handle    the dragged handle, None and Rotate are ignored
+	 * @param rect      the ellipse rect, updated in place
+	 * @param image     the image rect
+	 * @param rotation  the ellipse rotation, in degrees
+	 * @param distanceX scroll distance, as reported by the gesture detector
+	 * @param distanceY scroll distance, as reported by the gesture detector
+	 * @param minSize   the rect is not changed if the result is not larger than this
+	 * @param out       receives the new rect, can be rect itself
+	 * @return true if out received a new rect
+	 */
+	public static boolean drag(
+		Handle handle, float[] rect, float[] image, float rotation, float distanceX, float distanceY, float minSize,
+		float[] out) {
+
+		float left = rect[0];
+		float top = rect[1];
+		float right = rect[2];
+		float bottom = rect[3];
+
+		if (handle == Handle.Center) {
+			final float x = (left + right) / 2 - distanceX;
+			final float y = (top + bottom) / 2 - distanceY;
+
+			if (x >= image[0] && x < image[2] && y >= image[1] && y < image[3]) {
+				left -= distanceX;
+				right -= distanceX;
+				top -= distanceY;
+				bottom -= distanceY;
+			}
+		}
+		else if (rotation != 0) {
+			// edges and corners move along the vignette axes
+			final double angle = Math.toRadians(rotation);
+			final float cos = (float) Math.cos(angle);
+			final float sin = (float) Math.sin(angle);
+			final float x = distanceX;
+			distanceX = x * cos + distanceY * sin;
+			distanceY = - x * sin + distanceY * cos;
+		}
+
+		final float dx;
+		final float dy;
+		final boolean wide = Math.abs(distanceX) > Math.abs(distanceY);
+
+		switch (handle) {
+			case Left:
+				dx = - distanceX;
+				dy = 0;
+				break;
+			case Right:
+				dx = distanceX;
+				dy = 0;
+				break;
+			case Top:
+				dx = 0;
+				dy = - distanceY;
+				break;
+			case Bottom:
+				dx = 0;
+				dy = distanceY;
+				break;
+			case TopLeft:
+				dx = dy = - (wide ? distanceX : distanceY);
+				break;
+			case TopRight:
+				dx = dy = wide ? distanceX : - distanceY;
+				break;
+			case BottomLeft:
+				dx = dy = wide ? - distanceX : distanceY;
+				break;
+			case BottomRight:
+				dx = dy = wide ? distanceX : distanceY;
+				break;
+			case Center:
+				dx = dy = 0;
+				break;
+			default:
+				return false;
+		}
+
+		// inset
+		left += dx;
+		right -= dx;
+		top += dy;
+		bottom -= dy;
+
+		if (right - left > minSize && bottom - top > minSize) {
+			out[0] = left;
+			out[1] = top;
+			out[2] = right;
+			out[3] = bottom;
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,742 @@
+package com.example.alessandro.vignette.core;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Plain java implementation of the vignette effect, working on ARGB pixels
+ * (non premultiplied, as returned by {@code Bitmap.getPixels}).<br />
+ * This is the reference implementation of what ImageViewVignette draws on screen:
+ * a black (or white, for negative intensities) overlay whose alpha is zero inside the
+ * feathered part of the ellipse, grows linearly between the feather and the ellipse
+ * border and is the full intensity alpha outside the ellipse.
+ * <p/>
+ * Coordinates are expressed in the full image space, so the same kernel
+ * can be applied to any tile of the image.
+ * <p/>
+ * The ellipse can be rotated around its center, and the falloff can start from a focal
+ * point other than the center: the falloff radius is then the fraction of the segment
+ * from the focal point to the ellipse border. Rotated ellipses are evaluated incrementally
+ * along the rows exactly like the axis aligned ones; an offset focal point needs a sqrt
+ * per pixel between the feather and the ellipse border.
+ * <p/>
+ * With an inverted {@link FalloffTable} the kernel draws a spot instead: only the
+ * pixels inside the ellipse are touched.
+ *
+ * @author alessandro
+ */
+public class VignetteKernel {
+
+	/** max distance of the focal point from the center, relative to the radii */
+	public static final float MAX_FOCUS = 0.95f;
+
+	private final float mCenterX;
+	private final float mCenterY;
+	private final float mRadiusX;
+	private final float mRadiusY;
+	private final float mRotation;
+	private final float mFocalX;
+	private final float mFocalY;
+	private final FalloffTable mFalloff;
+
+	/** overlay color, without alpha */
+	private final int mColor;
+
+	/** max alpha of the overlay, 0..255 */
+	private final int mAlpha;
+
+	/** alpha outside the ellipse, 0 for inverted kernels */
+	private final int mOutsideAlpha;
+	private final boolean mInverted;
+
+	/** half size of the ellipse bounding box */
+	private final float mHalfWidth;
+	private final float mHalfHeight;
+
+	private final double mFeather2;
+
+	/** change of the ellipse coordinates (u, v) for a step along x and along y */
+	private final double mUx, mVx, mUy, mVy;
+
+	/** center of the circle (in ellipse coordinates) inside which the overlay is transparent */
+	private final double mSkipU, mSkipV;
+
+	private final boolean mHasFocus;
+	private final double mFocusK;
+
+	/**
+	 * @param centerX   ellipse center, in image coordinates
+	 * @param centerY   ellipse center, in image coordinates
+	 * @param radiusX   horizontal radius of the ellipse
+	 * @param radiusY   vertical radius of the ellipse
+	 * @param feather   the feather value, between 0 and 1
+	 * @param intensity the intensity, between -100 (white) and 100 (black)
+	 */
+	public VignetteKernel(float centerX, float centerY, float radiusX, float radiusY, float feather, int intensity) {
+		this(centerX, centerY, radiusX, radiusY, new FalloffTable(feather, intensity));
+	}
+
+	/**
+	 * @param falloff the precomputed falloff, holding feather and intensity
+	 */
+	public VignetteKernel(float centerX, float centerY, float radiusX, float radiusY, FalloffTable falloff) {
+		this(centerX, centerY, radiusX, radiusY, 0, 0, 0, falloff);
+	}
+
+	/**
+	 * @param rotation rotation of the ellipse around its center, in degrees (clockwise)
+	 * @param focalX   focal point of the falloff, relative to the ellipse radii (-1..1, 0 is the center)
+	 * @param focalY   focal point of the falloff, relative to the ellipse radii (-1..1, 0 is the center)
+	 * @param falloff  the precomputed falloff, holding feather and intensity
+	 */
+	public VignetteKernel(
+		float centerX, float centerY, float radiusX, float radiusY, float rotation, float focalX, float focalY,
+		FalloffTable falloff) {
+
+		// keep the focal point strictly inside the ellipse
+		final float focus = (float) Math.sqrt(focalX * focalX + focalY * focalY);
+		if (focus > MAX_FOCUS) {
+			focalX *= MAX_FOCUS / focus;
+			focalY *= MAX_FOCUS / focus;
+		}
+
+		mCenterX = centerX;
+		mCenterY = centerY;
+		mRadiusX = radiusX;
+		mRadiusY = radiusY;
+		mRotation = rotation;
+		mFocalX = focalX;
+		mFocalY = focalY;
+		mFalloff = falloff;
+		mColor = falloff.getIntensity() >= 0 ? 0x000000 : 0xffffff;
+		mAlpha = falloff.getMaxAlpha();
+		mOutsideAlpha = falloff.getOutsideAlpha();
+		mInverted = falloff.isInverted();
+		mFeather2 = (double) falloff.getFeather() * falloff.getFeather();
+
+		final double angle = Math.toRadians(rotation);
+		final double cos = rotation == 0 ? 1 : Math.cos(angle);
+		final double sin = rotation == 0 ? 0 : Math.sin(angle);
+		mUx = cos / radiusX;
+		mUy = sin / radiusX;
+		mVx = - sin / radiusY;
+		mVy = cos / radiusY;
+		mHalfWidth = (float) Math.sqrt(radiusX * radiusX * cos * cos + radiusY * radiusY * sin * sin);
+		mHalfHeight = (float) Math.sqrt(radiusX * radiusX * sin * sin + radiusY * radiusY * cos * cos);
+
+		mHasFocus = focalX != 0 || focalY != 0;
+		mFocusK = 1 - (double) focalX * focalX - (double) focalY * focalY;
+		mSkipU = focalX * (1.0 - falloff.getFeather());
+		mSkipV = focalY * (1.0 - falloff.getFeather());
+	}
+
+	/**
+	 * Creates a kernel from the bounds of the ellipse
+	 */
+	public static VignetteKernel fromOval(float left, float top, float right, float bottom, float feather, int intensity) {
+		return fromOval(left, top, right, bottom, new FalloffTable(feather, intensity));
+	}
+
+	public static VignetteKernel fromOval(float left, float top, float right, float bottom, FalloffTable falloff) {
+		return new VignetteKernel((left + right) / 2, (top + bottom) / 2, (right - left) / 2, (bottom - top) / 2, falloff);
+	}
+
+	/**
+	 * Creates a kernel from the bounds of the ellipse before the rotation
+	 */
+	public static VignetteKernel fromOval(
+		float left, float top, float right, float bottom, float rotation, float focalX, float focalY, FalloffTable falloff) {
+		return new VignetteKernel(
+			(left + right) / 2, (top + bottom) / 2, (right - left) / 2, (bottom - top) / 2, rotation, focalX, focalY, falloff);
+	}
+
+	/**
+	 * Same conversion used by the view to set the mask paint alpha
+	 */
+	public static int intensityToAlpha(int intensity) {
+		int value = Math.max(Math.min(Math.abs(intensity), 100), 0);
+		value *= 2.55;
+		return value;
+	}
+
+	public float getCenterX() {
+		return mCenterX;
+	}
+
+	public float getCenterY() {
+		return mCenterY;
+	}
+
+	public float getRadiusX() {
+		return mRadiusX;
+	}
+
+	public float getRadiusY() {
+		return mRadiusY;
+	}
+
+	public float getRotation() {
+		return mRotation;
+	}
+
+	public float getFocalX() {
+		return mFocalX;
+	}
+
+	public float getFocalY() {
+		return mFocalY;
+	}
+
+	public FalloffTable getFalloff() {
+		return mFalloff;
+	}
+
+	public boolean isInverted() {
+		return mInverted;
+	}
+
+	/**
+	 * Bounding box of the (rotated) ellipse
+	 *
+	 * @param out receives left, top, right, bottom
+	 */
+	public float[] getBounds(float[] out) {
+		out[0] = mCenterX - mHalfWidth;
+		out[1] = mCenterY - mHalfHeight;
+		out[2] = mCenterX + mHalfWidth;
+		out[3] = mCenterY + mHalfHeight;
+		return out;
+	}
+
+	/**
+	 * Returns the overlay color, including the max alpha
+	 */
+	public int getOverlayColor() {
+		return (mAlpha << 24) | mColor;
+	}
+
+	/**
+	 * Exact alpha (0..255) of the overlay for the pixel at the given position, without
+	 * going through the lookup table. Pixels are sampled at their center, like the Skia shaders do.
+	 */
+	public int alphaAt(int x, int y) {
+		if (mRadiusX <= 0 || mRadiusY <= 0) return mOutsideAlpha;
+
+		final int alpha = FalloffTable.computeAlpha((float) radiusAt(x + 0.5f, y + 0.5f), mFalloff.getFeather(), mAlpha);
+		return mInverted ? mAlpha - alpha : alpha;
+	}
+
+	/**
+	 * Falloff radius of a point: 0 at the focal point, 1 on the ellipse border
+	 */
+	private double radiusAt(float x, float y) {
+		final double dx = x - mCenterX;
+		final double dy = y - mCenterY;
+		return focalRadius(dx * mUx + dy * mUy, dx * mVx + dy * mVy);
+	}
+
+	/**
+	 * Falloff radius of a point in ellipse coordinates (where the ellipse is the unit circle).
+	 * The point is p = f + t * (q - f), with q on the unit circle: t is the positive root of
+	 * (1 - |f|^2) t^2 - 2 (f.d) t - |d|^2 = 0, where d = p - f.
+	 */
+	private double focalRadius(double u, double v) {
+		if (! mHasFocus) return Math.sqrt(u * u + v * v);
+
+		final double du = u - mFocalX;
+		final double dv = v - mFocalY;
+		final double fd = mFocalX * du + mFocalY * dv;
+		return (fd + Math.sqrt(fd * fd + (du * du + dv * dv) * mFocusK)) / mFocusK;
+	}
+
+	/**
+	 * Returns true if the overlay is fully transparent in the given region,
+	 * meaning the region can be skipped entirely.
+	 */
+	public boolean isRegionUnaffected(int left, int top, int right, int bottom) {
+		if (mAlpha == 0) return true;
+
+		if (mInverted) {
+			// nothing is drawn outside the ellipse bounding box
+			return mRadiusX <= 0 || mRadiusY <= 0 || right <= mCenterX - mHalfWidth || left >= mCenterX + mHalfWidth
+			       || bottom <= mCenterY - mHalfHeight || top >= mCenterY + mHalfHeight;
+		}
+
+		if (mRadiusX <= 0 || mRadiusY <= 0 || mFeather2 <= 0) return false;
+
+		// the ellipse is convex: if all the corners are inside, so is the whole rect
+		return isInsideFeather(left, top) && isInsideFeather(right, top)
+		       && isInsideFeather(left, bottom) && isInsideFeather(right, bottom);
+	}
+
+	private boolean isInsideFeather(float x, float y) {
+		return radiusAt(x, y) <= mFalloff.getFeather();
+	}
+
+	/**
+	 * Applies the vignette to a region of pixels.
+	 *
+	 * @param pixels the ARGB pixels
+	 * @param offset index of the first pixel of the region
+	 * @param stride number of entries between rows
+	 * @param x      horizontal position of the region in the full image
+	 * @param y      vertical position of the region in the full image
+	 * @param width  width of the region
+	 * @param height height of the region
+	 */
+	public void apply(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		checkBounds(pixels.length, offset, stride, width, height);
+
+		if (isRegionUnaffected(x, y, x + width, y + height)) return;
+
+		for (int row = 0; row < height; row++) {
+			applyRow(pixels, offset + row * stride, x, y + row, width);
+		}
+	}
+
+	/**
+	 * Same as {@link #apply(int[], int, int, int, int, int, int)}, with the region starting
+	 * at the buffer current position. The buffer position is not modified.
+	 */
+	public void apply(IntBuffer pixels, int stride, int x, int y, int width, int height) {
+		if (pixels.hasArray()) {
+			apply(pixels.array(), pixels.arrayOffset() + pixels.position(), stride, x, y, width, height);
+			return;
+		}
+
+		final int start = pixels.position();
+		checkBounds(pixels.limit() - start, 0, stride, width, height);
+
+		if (isRegionUnaffected(x, y, x + width, y + height)) return;
+
+		final int[] row = new int[width];
+		final IntBuffer buffer = pixels.duplicate();
+
+		for (int i = 0; i < height; i++) {
+			buffer.position(start + i * stride);
+			buffer.get(row, 0, width);
+			applyRow(row, 0, x, y + i, width);
+			buffer.position(start + i * stride);
+			buffer.put(row, 0, width);
+		}
+	}
+
+	/**
+	 * Writes the overlay itself (overlay color with the falloff alpha) into a region of pixels,
+	 * instead of blending it. The result can be drawn over the image with SRC_OVER.
+	 *
+	 * @see #apply(int[], int, int, int, int, int, int)
+	 */
+	public void renderMask(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		checkBounds(pixels.length, offset, stride, width, height);
+
+		for (int row = 0; row < height; row++) {
+			maskRow(pixels, offset + row * stride, x, y + row, width);
+		}
+	}
+
+	private void maskRow(int[] pixels, int index, int x, int y, int width) {
+		final int full = (mOutsideAlpha << 24) | mColor;
+
+		if (mRadiusX <= 0 || mRadiusY <= 0) {
+			Arrays.fill(pixels, index, index + width, full);
+			return;
+		}
+
+		final double px = x + 0.5 - mCenterX;
+		final double py = y + 0.5 - mCenterY;
+		double u = px * mUx + py * mUy;
+		double v = px * mVx + py * mVy;
+
+		// r2(i) = a * i^2 + b * i + c
+		final double a = mUx * mUx + mVx * mVx;
+		final double b = 2 * (u * mUx + v * mVx);
+		final double c = u * u + v * v;
+
+		if (c - b * b / (4 * a) >= 1) {
+			Arrays.fill(pixels, index, index + width, full);
+			return;
+		}
+
+		final double step2 = 2 * a;
+		double r2 = c;
+		double delta = a + b;
+
+		final float feather = mFalloff.getFeather();
+
+		// transparent inside the feather, exactly where applyRow leaves the pixels untouched
+		for (int last = index + width; index < last; index++) {
+			if (r2 >= 1) {
+				pixels[index] = full;
+			}
+			else if (mHasFocus) {
+				final double t = focalRadius(u, v);
+				pixels[index] = mInverted || t > feather ? (mFalloff.alpha(t * t) << 24) | mColor : mColor;
+			}
+			else {
+				pixels[index] = mInverted || r2 > mFeather2 ? (mFalloff.alpha(r2) << 24) | mColor : mColor;
+			}
+			r2 += delta;
+			delta += step2;
+			u += mUx;
+			v += mVx;
+		}
+	}
+
+	/**
+	 * The squared distance from the center, in ellipse coordinates, is a quadratic function
+	 * of the position along the row, whatever the rotation: it's evaluated incrementally
+	 * (forward differences, two additions per pixel) and mapped to the alpha through
+	 * the falloff table. The span of the row which falls entirely inside the feather is skipped.
+	 */
+	private void applyRow(int[] pixels, int index, int x, int y, int width) {
+		if (mInverted) {
+			applyInvertedRow(pixels, index, x, y, width);
+			return;
+		}
+
+		if (mRadiusX <= 0 || mRadiusY <= 0) {
+			fillRow(pixels, index, width, mAlpha);
+			return;
+		}
+
+		final double px = x + 0.5 - mCenterX;
+		final double py = y + 0.5 - mCenterY;
+		final double u = px * mUx + py * mUy;
+		final double v = px * mVx + py * mVy;
+
+		// r2(i) = a * i^2 + b * i + c
+		final double a = mUx * mUx + mVx * mVx;
+		final double b = 2 * (u * mUx + v * mVx);
+		final double c = u * u + v * v;
+
+		if (c - b * b / (4 * a) >= 1) {
+			// the whole row is outside the ellipse
+			fillRow(pixels, index, width, mAlpha);
+			return;
+		}
+
+		// [skipStart, skipEnd) is the part of the row inside the feather circle
+		int skipStart = width;
+		int skipEnd = width;
+		if (mFeather2 > 0) {
+			final double su = u - mSkipU;
+			final double sv = v - mSkipV;
+			final double sb = 2 * (su * mUx + sv * mVx);
+			final double disc = sb * sb - 4 * a * (su * su + sv * sv - mFeather2);
+
+			if (disc > 0) {
+				final double root = Math.sqrt(disc);
+				skipStart = spanStart(a, sb, root, width);
+				skipEnd = spanEnd(a, sb, root, skipStart, width);
+			}
+		}
+
+		final double step2 = 2 * a;
+
+		int i = 0;
+		while (i < width) {
+			if (i == skipStart) {
+				i = skipEnd;
+				if (i >= width) break;
+			}
+
+			final int end = i < skipStart ? skipStart : width;
+			double r2 = c + i * (b + a * i);
+			double delta = a * (2 * i + 1) + b;
+
+			if (mHasFocus) {
+				double pu = u + i * mUx;
+				double pv = v + i * mVx;
+				final float feather = mFalloff.getFeather();
+
+				for (int k = index + i, last = index + end; k < last; k++) {
+					if (r2 >= 1) {
+						pixels[k] = blend(pixels[k], mColor, mAlpha);
+					}
+					else {
+						final double t = focalRadius(pu, pv);
+						if (t > feather) {
+							pixels[k] = blend(pixels[k], mColor, mFalloff.alpha(t * t));
+						}
+					}
+					r2 += delta;
+					delta += step2;
+					pu += mUx;
+					pv += mVx;
+				}
+			}
+			else {
+				for (int k = index + i, last = index + end; k < last; k++) {
+					if (r2 >= 1) {
+						pixels[k] = blend(pixels[k], mColor, mAlpha);
+					}
+					else if (r2 > mFeather2) {
+						pixels[k] = blend(pixels[k], mColor, mFalloff.alpha(r2));
+					}
+					r2 += delta;
+					delta += step2;
+				}
+			}
+			i = end;
+		}
+	}
+
+	/**
+	 * Inverted kernels only touch the part of the row inside the ellipse
+	 */
+	private void applyInvertedRow(int[] pixels, int index, int x, int y, int width) {
+		if (mRadiusX <= 0 || mRadiusY <= 0) return;
+
+		final double px = x + 0.5 - mCenterX;
+		final double py = y + 0.5 - mCenterY;
+		final double u = px * mUx + py * mUy;
+		final double v = px * mVx + py * mVy;
+
+		final double a = mUx * mUx + mVx * mVx;
+		final double b = 2 * (u * mUx + v * mVx);
+		final double c = u * u + v * v;
+		final double disc = b * b - 4 * a * (c - 1);
+
+		if (disc <= 0) return;
+
+		final double root = Math.sqrt(disc);
+		final int start = spanStart(a, b, root, width);
+		final int end = spanEnd(a, b, root, start, width);
+
+		final double step2 = 2 * a;
+		double r2 = c + start * (b + a * start);
+		double delta = a * (2 * start + 1) + b;
+		double pu = u + start * mUx;
+		double pv = v + start * mVx;
+
+		for (int k = index + start, last = index + end; k < last; k++) {
+			if (r2 < 1) {
+				final int alpha;
+				if (mHasFocus) {
+					final double t = focalRadius(pu, pv);
+					alpha = mFalloff.alpha(t * t);
+				}
+				else {
+					alpha = mFalloff.alpha(r2);
+				}
+
+				if (alpha > 0) {
+					pixels[k] = blend(pixels[k], mColor, alpha);
+				}
+			}
+			r2 += delta;
+			delta += step2;
+			pu += mUx;
+			pv += mVx;
+		}
+	}
+
+	/**
+	 * Evaluation state of a row, used by {@link MultiVignetteKernel} to
+	 * evaluate several kernels in the same pass
+	 */
+	static final class Row {
+		double u, v, a, b, c;
+
+		/** the overlay is transparent inside [start, end), or outside of it for inverted kernels */
+		int start, end;
+	}
+
+	/**
+	 * Prepares the evaluation of a row with {@link #rowAlpha(Row, int)}
+	 *
+	 * @return false if the overlay is transparent in the whole row
+	 */
+	boolean prepareRow(Row row, int x, int y, int width) {
+		if (mAlpha == 0) return false;
+
+		row.start = 0;
+		row.end = 0;
+
+		if (mRadiusX <= 0 || mRadiusY <= 0) {
+			row.a = 0;
+			row.b = 0;
+			row.c = Double.POSITIVE_INFINITY;
+			return ! mInverted;
+		}
+
+		final double px = x + 0.5 - mCenterX;
+		final double py = y + 0.5 - mCenterY;
+		final double u = px * mUx + py * mUy;
+		final double v = px * mVx + py * mVy;
+		final double a = mUx * mUx + mVx * mVx;
+
+		row.u = u;
+		row.v = v;
+		row.a = a;
+		row.b = 2 * (u * mUx + v * mVx);
+		row.c = u * u + v * v;
+
+		if (mInverted) {
+			final double disc = row.b * row.b - 4 * a * (row.c - 1);
+			if (disc <= 0) return false;
+
+			final double root = Math.sqrt(disc);
+			row.start = spanStart(a, row.b, root, width);
+			row.end = spanEnd(a, row.b, root, row.start, width);
+			return row.start < row.end;
+		}
+
+		if (mFeather2 > 0) {
+			final double su = u - mSkipU;
+			final double sv = v - mSkipV;
+			final double sb = 2 * (su * mUx + sv * mVx);
+			final double disc = sb * sb - 4 * a * (su * su + sv * sv - mFeather2);
+
+			if (disc > 0) {
+				final double root = Math.sqrt(disc);
+				row.start = spanStart(a, sb, root, width);
+				row.end = spanEnd(a, sb, root, row.start, width);
+			}
+		}
+		return row.start > 0 || row.end < width;
+	}
+
+	/**
+	 * Alpha of the i-th pixel of a row prepared with {@link #prepareRow(Row, int, int, int)}
+	 */
+	int rowAlpha(Row row, int i) {
+		final double r2 = row.c + i * (row.b + row.a * i);
+		if (r2 >= 1) return mOutsideAlpha;
+
+		if (mHasFocus) {
+			final double t = focalRadius(row.u + i * mUx, row.v + i * mVx);
+			return mInverted || t > mFalloff.getFeather() ? mFalloff.alpha(t * t) : 0;
+		}
+		return mInverted || r2 > mFeather2 ? mFalloff.alpha(r2) : 0;
+	}
+
+	/**
+	 * Writes the overlay alpha of every pixel of a row, 0 where {@link #apply(int[], int, int, int, int, int, int)}
+	 * leaves the pixel unchanged. Used by blend loops which can't call the kernel per pixel
+	 * (i.e. vectorized ones).
+	 *
+	 * @param x      horizontal position of the first pixel in the full image
+	 * @param y      vertical position of the row in the full image
+	 * @param width  number of pixels
+	 * @param alphas receives the alpha values, at least width entries
+	 */
+	public void computeRowAlpha(int x, int y, int width, int[] alphas) {
+		if (alphas.length < width) throw new ArrayIndexOutOfBoundsException("alphas too short");
+
+		final Row row = new Row();
+		if (! prepareRow(row, x, y, width)) {
+			Arrays.fill(alphas, 0, width, 0);
+			return;
+		}
+
+		if (mInverted) {
+			Arrays.fill(alphas, 0, row.start, 0);
+			Arrays.fill(alphas, row.end, width, 0);
+			fillRowAlpha(row, alphas, row.start, row.end);
+		}
+		else {
+			Arrays.fill(alphas, row.start, row.end, 0);
+			fillRowAlpha(row, alphas, 0, row.start);
+			fillRowAlpha(row, alphas, row.end, width);
+		}
+	}
+
+	private void fillRowAlpha(Row row, int[] alphas, int start, int end) {
+		if (mHasFocus || row.c == Double.POSITIVE_INFINITY) {
+			for (int i = start; i < end; i++) {
+				alphas[i] = rowAlpha(row, i);
+			}
+			return;
+		}
+
+		final double step2 = 2 * row.a;
+		double r2 = row.c + start * (row.b + row.a * start);
+		double delta = row.a * (2 * start + 1) + row.b;
+
+		for (int i = start; i < end; i++) {
+			alphas[i] = r2 >= 1 ? mOutsideAlpha : mInverted || r2 > mFeather2 ? mFalloff.alpha(r2) : 0;
+			r2 += delta;
+			delta += step2;
+		}
+	}
+
+	/**
+	 * First pixel of the row span where r2(i) = a * i^2 + b * i + c is below the threshold,
+	 * root being the sqrt of the discriminant
+	 */
+	private static int spanStart(double a, double b, double root, int width) {
+		return clamp((int) Math.ceil((- b - root) / (2 * a)), 0, width);
+	}
+
+	private static int spanEnd(double a, double b, double root, int start, int width) {
+		return clamp((int) Math.floor((- b + root) / (2 * a)) + 1, start, width);
+	}
+
+	private void fillRow(int[] pixels, int index, int width, int alpha) {
+		for (int last = index + width; index < last; index++) {
+			pixels[index] = blend(pixels[index], mColor, alpha);
+		}
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(value, max));
+	}
+
+	/**
+	 * Composites the overlay color with the given alpha over the pixel (SRC_OVER)
+	 *
+	 * @param pixel the ARGB destination pixel, not premultiplied
+	 * @param color the overlay RGB color
+	 * @param alpha the overlay alpha, 0..255
+	 */
+	public static int blend(int pixel, int color, int alpha) {
+		final int da = pixel >>> 24;
+		final int inv = 255 - alpha;
+
+		if (da == 255) {
+			final int r = blendChannel((pixel >> 16) & 0xff, (color >> 16) & 0xff, alpha, inv);
+			final int g = blendChannel((pixel >> 8) & 0xff, (color >> 8) & 0xff, alpha, inv);
+			final int b = blendChannel(pixel & 0xff, color & 0xff, alpha, inv);
+			return 0xff000000 | (r << 16) | (g << 8) | b;
+		}
+
+		// translucent destination: blend in premultiplied space
+		final int outA = alpha + div255(da * inv);
+		if (outA == 0) return 0;
+
+		final int dw = div255(da * inv);
+		final int r = (((color >> 16) & 0xff) * alpha + ((pixel >> 16) & 0xff) * dw + outA / 2) / outA;
+		final int g = (((color >> 8) & 0xff) * alpha + ((pixel >> 8) & 0xff) * dw + outA / 2) / outA;
+		final int b = ((color & 0xff) * alpha + (pixel & 0xff) * dw + outA / 2) / outA;
+		return (outA << 24) | (r << 16) | (g << 8) | b;
+	}
+
+	private static int blendChannel(int dst, int src, int alpha, int inv) {
+		return div255(src * alpha + dst * inv);
+	}
+
+	/**
+	 * Rounded division by 255
+	 */
+	static int div255(int value) {
+		value += 128;
+		return (value + (value >> 8)) >> 8;
+	}
+
+	static void checkBounds(int length, int offset, int stride, int width, int height) {
+		if (width < 0 || height < 0 || offset < 0 || stride < width) {
+			throw new IllegalArgumentException("invalid region");
+		}
+		if (height > 0 && offset + (height - 1) * stride + width > length) {
+			throw new ArrayIndexOutOfBoundsException("region exceeds buffer length");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "VignetteKernel{center: " + mCenterX + "x" + mCenterY + ", radius: " + mRadiusX + "x" + mRadiusY
+		       + ", rotation: " + mRotation + ", focal: " + mFocalX + "x" + mFocalY + ", falloff: " + mFalloff + "}";
+	}
+}
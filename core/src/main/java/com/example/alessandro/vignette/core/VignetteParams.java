@@ -0,0 +1,202 @@
+package com.example.alessandro.vignette.core;
+
+/**
+ * Immutable, resolution independent description of a vignette.<br />
+ * The ellipse center and radii are expressed as fractions (0..1) of the image
+ * width and height, so the same params can be applied to the preview, the
+ * full resolution image or any other image of a batch.<br />
+ * The rotation is applied around the center after the radii have been converted
+ * into pixels, which is correct as long as the image is scaled uniformly.
+ *
+ * @author alessandro
+ */
+public final class VignetteParams {
+
+	public static final VignetteParams DEFAULT = new VignetteParams(0.5f, 0.5f, 0.5f, 0.5f, 0.7f, 15);
+
+	public final float centerX;
+	public final float centerY;
+	public final float radiusX;
+	public final float radiusY;
+	public final float rotation;
+	public final float focalX;
+	public final float focalY;
+	public final float feather;
+	public final int intensity;
+
+	/** true for a spot (full alpha inside the ellipse, transparent outside) instead of a vignette */
+	public final boolean inverted;
+
+	/**
+	 * @param centerX   ellipse center, fraction of the image width
+	 * @param centerY   ellipse center, fraction of the image height
+	 * @param radiusX   horizontal radius, fraction of the image width
+	 * @param radiusY   vertical radius, fraction of the image height
+	 * @param feather   the feather value, between 0 and 1
+	 * @param intensity the intensity, between -100 and 100
+	 */
+	public VignetteParams(float centerX, float centerY, float radiusX, float radiusY, float feather, int intensity) {
+		this(centerX, centerY, radiusX, radiusY, 0, 0, 0, feather, intensity);
+	}
+
+	/**
+	 * @param rotation rotation of the ellipse around its center, in degrees (clockwise)
+	 * @param focalX   focal point of the falloff, relative to the radii (0 is the center)
+	 * @param focalY   focal point of the falloff, relative to the radii (0 is the center)
+	 */
+	public VignetteParams(
+		float centerX, float centerY, float radiusX, float radiusY, float rotation, float focalX, float focalY, float feather,
+		int intensity) {
+		this(centerX, centerY, radiusX, radiusY, rotation, focalX, focalY, feather, intensity, false);
+	}
+
+	public VignetteParams(
+		float centerX, float centerY, float radiusX, float radiusY, float rotation, float focalX, float focalY, float feather,
+		int intensity, boolean inverted) {
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.radiusX = radiusX;
+		this.radiusY = radiusY;
+		this.rotation = normalizeAngle(rotation);
+		this.focalX = focalX;
+		this.focalY = focalY;
+		this.feather = Math.max(Math.min(feather, 1), 0);
+		this.intensity = Math.max(Math.min(intensity, 100), - 100);
+		this.inverted = inverted;
+	}
+
+	/**
+	 * Creates the params from an oval expressed in the same space of the image rect
+	 * (view or bitmap coordinates)
+	 *
+	 * @param oval  the ellipse bounds: left, top, right, bottom
+	 * @param image the image bounds: left, top, right, bottom
+	 */
+	public static VignetteParams fromOval(float[] oval, float[] image, float feather, int intensity) {
+		final float width = image[2] - image[0];
+		final float height = image[3] - image[1];
+		if (width <= 0 || height <= 0) throw new IllegalArgumentException("empty image rect");
+
+		return new VignetteParams(
+			((oval[0] + oval[2]) / 2 - image[0]) / width, ((oval[1] + oval[3]) / 2 - image[1]) / height,
+			(oval[2] - oval[0]) / 2 / width, (oval[3] - oval[1]) / 2 / height, feather, intensity
+		);
+	}
+
+	/**
+	 * Maps the ellipse into the given image rect, the inverse of
+	 * {@link #fromOval(float[], float[], float, int)}
+	 *
+	 * @param image the image bounds: left, top, right, bottom
+	 * @param out   receives the ellipse bounds before the rotation: left, top, right, bottom
+	 */
+	public float[] toOval(float[] image, float[] out) {
+		final float width = image[2] - image[0];
+		final float height = image[3] - image[1];
+		final float x = image[0] + centerX * width;
+		final float y = image[1] + centerY * height;
+		final float rx = radiusX * width;
+		final float ry = radiusY * height;
+
+		out[0] = x - rx;
+		out[1] = y - ry;
+		out[2] = x + rx;
+		out[3] = y + ry;
+		return out;
+	}
+
+	/**
+	 * Same as {@link #fromOval(float[], float[], float, int)}, keeping rotation,
+	 * focal point, feather and intensity of these params
+	 */
+	public VignetteParams withOval(float[] oval, float[] image) {
+		final VignetteParams params = fromOval(oval, image, feather, intensity);
+		return new VignetteParams(
+			params.centerX, params.centerY, params.radiusX, params.radiusY, rotation, focalX, focalY, feather, intensity, inverted);
+	}
+
+	public VignetteParams withRotation(float value) {
+		return new VignetteParams(centerX, centerY, radiusX, radiusY, value, focalX, focalY, feather, intensity, inverted);
+	}
+
+	public VignetteParams withFocalPoint(float x, float y) {
+		return new VignetteParams(centerX, centerY, radiusX, radiusY, rotation, x, y, feather, intensity, inverted);
+	}
+
+	public VignetteParams withFeather(float value) {
+		return new VignetteParams(centerX, centerY, radiusX, radiusY, rotation, focalX, focalY, value, intensity, inverted);
+	}
+
+	public VignetteParams withIntensity(int value) {
+		return new VignetteParams(centerX, centerY, radiusX, radiusY, rotation, focalX, focalY, feather, value, inverted);
+	}
+
+	public VignetteParams withInverted(boolean value) {
+		return new VignetteParams(centerX, centerY, radiusX, radiusY, rotation, focalX, focalY, feather, intensity, value);
+	}
+
+	public boolean hasFocalOffset() {
+		return focalX != 0 || focalY != 0;
+	}
+
+	/**
+	 * Creates the kernel for an image of the given size
+	 */
+	public VignetteKernel toKernel(int width, int height) {
+		return toKernel(width, height, new FalloffTable(feather, intensity, inverted));
+	}
+
+	/**
+	 * Creates the kernel for an image of the given size, reusing a falloff table
+	 * (which must match feather, intensity and inverted)
+	 */
+	public VignetteKernel toKernel(int width, int height, FalloffTable falloff) {
+		return new VignetteKernel(
+			centerX * width, centerY * height, radiusX * width, radiusY * height, rotation, focalX, focalY, falloff);
+	}
+
+	/**
+	 * Angle in the (-180, 180] range
+	 */
+	static float normalizeAngle(float degrees) {
+		degrees %= 360;
+		if (degrees > 180) return degrees - 360;
+		if (degrees <= - 180) return degrees + 360;
+		return degrees;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (! (o instanceof VignetteParams)) return false;
+
+		final VignetteParams other = (VignetteParams) o;
+		return Float.compare(other.centerX, centerX) == 0 && Float.compare(other.centerY, centerY) == 0
+		       && Float.compare(other.radiusX, radiusX) == 0 && Float.compare(other.radiusY, radiusY) == 0
+		       && Float.compare(other.rotation, rotation) == 0 && Float.compare(other.focalX, focalX) == 0
+		       && Float.compare(other.focalY, focalY) == 0 && Float.compare(other.feather, feather) == 0
+		       && other.intensity == intensity && other.inverted == inverted;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = Float.floatToIntBits(centerX);
+		result = 31 * result + Float.floatToIntBits(centerY);
+		result = 31 * result + Float.floatToIntBits(radiusX);
+		result = 31 * result + Float.floatToIntBits(radiusY);
+		result = 31 * result + Float.floatToIntBits(rotation);
+		result = 31 * result + Float.floatToIntBits(focalX);
+		result = 31 * result + Float.floatToIntBits(focalY);
+		result = 31 * result + Float.floatToIntBits(feather);
+		result = 31 * result + intensity;
+		result = 31 * result + (inverted ? 1 : 0);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "VignetteParams{center: " + centerX + "x" + centerY + ", radius: " + radiusX + "x" + radiusY + ", rotation: "
+		       + rotation + ", focal: " + focalX + "x" + focalY + ", feather: " + feather + ", intensity: " + intensity
+		       + ", inverted: " + inverted + "}";
+	}
+}
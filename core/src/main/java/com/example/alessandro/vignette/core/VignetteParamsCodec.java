@@ -0,0 +1,122 @@
+package com.example.alessandro.vignette.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compact binary form of {@link VignetteParams}, used to persist the vignette state.<br />
+ * Every params is a flags byte, the ellipse, the feather and the intensity (22 bytes);
+ * rotation and focal point are only written when set. Floats are stored as they are, so
+ * the decoded params are equal to the encoded ones.
+ *
+ * @author alessandro
+ */
+public final class VignetteParamsCodec {
+
+	public static final int VERSION = 1;
+
+	private static final int FLAG_INVERTED = 1;
+	private static final int FLAG_ROTATION = 1 << 1;
+	private static final int FLAG_FOCAL = 1 << 2;
+
+	/** max number of params in a state */
+	private static final int MAX_COUNT = 255;
+
+	private VignetteParamsCodec() {}
+
+	public static void write(DataOutput out, VignetteParams params) throws IOException {
+		int flags = 0;
+		if (params.inverted) flags |= FLAG_INVERTED;
+		if (params.rotation != 0) flags |= FLAG_ROTATION;
+		if (params.hasFocalOffset()) flags |= FLAG_FOCAL;
+
+		out.writeByte(flags);
+		out.writeFloat(params.centerX);
+		out.writeFloat(params.centerY);
+		out.writeFloat(params.radiusX);
+		out.writeFloat(params.radiusY);
+
+		if ((flags & FLAG_ROTATION) != 0) {
+			out.writeFloat(params.rotation);
+		}
+		if ((flags & FLAG_FOCAL) != 0) {
+			out.writeFloat(params.focalX);
+			out.writeFloat(params.focalY);
+		}
+
+		out.writeFloat(params.feather);
+		out.writeByte(params.intensity);
+	}
+
+	public static VignetteParams read(DataInput in) throws IOException {
+		final int flags = in.readUnsignedByte();
+		final float centerX = in.readFloat();
+		final float centerY = in.readFloat();
+		final float radiusX = in.readFloat();
+		final float radiusY = in.readFloat();
+		final float rotation = (flags & FLAG_ROTATION) != 0 ? in.readFloat() : 0;
+		final float focalX = (flags & FLAG_FOCAL) != 0 ? in.readFloat() : 0;
+		final float focalY = (flags & FLAG_FOCAL) != 0 ? in.readFloat() : 0;
+		final float feather = in.readFloat();
+		final int intensity = in.readByte();
+
+		return new VignetteParams(
+			centerX, centerY, radiusX, radiusY, rotation, focalX, focalY, feather, intensity, (flags & FLAG_INVERTED) != 0);
+	}
+
+	/**
+	 * Encodes the main vignette (null if not yet created) and the additional masks
+	 */
+	public static byte[] encode(VignetteParams main, List<VignetteParams> masks) {
+		if (masks.size() > MAX_COUNT) throw new IllegalArgumentException("too many masks: " + masks.size());
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 + 30 * (masks.size() + 1));
+		final DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeByte(VERSION);
+			out.writeByte(null != main ? 1 : 0);
+			if (null != main) {
+				write(out, main);
+			}
+
+			out.writeByte(masks.size());
+			for (int i = 0; i < masks.size(); i++) {
+				write(out, masks.get(i));
+			}
+			out.flush();
+		} catch (IOException e) {
+			// not thrown by a byte array
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes the output of {@link #encode(VignetteParams, List)}
+	 *
+	 * @param masks receives the additional masks
+	 * @return the main vignette, or null
+	 * @throws IOException if the data is truncated or has an unknown version
+	 */
+	public static VignetteParams decode(byte[] data, List<VignetteParams> masks) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+		final int version = in.readUnsignedByte();
+		if (version != VERSION) throw new IOException("unsupported version: " + version);
+
+		final VignetteParams main = in.readUnsignedByte() != 0 ? read(in) : null;
+
+		final int count = in.readUnsignedByte();
+		for (int i = 0; i < count; i++) {
+			masks.add(read(in));
+		}
+		return main;
+	}
+}
@@ -0,0 +1,227 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author alessandro
+ */
+public class AsyncLogWriterTest {
+
+	/**
+	 * Keeps the records in memory. Can block in {@link #write(int, String, String, long)}
+	 * until released, to fill the buffer of the writer.
+	 */
+	static class TestSink implements AsyncLogWriter.Sink {
+		final List<String> messages = new ArrayList<String>();
+		final List<Integer> priorities = new ArrayList<Integer>();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch released;
+		volatile int flushes;
+		volatile boolean closed;
+
+		TestSink(boolean blocking) {
+			released = new CountDownLatch(blocking ? 1 : 0);
+		}
+
+		@Override
+		public void write(final int priority, final String tag, final String message, final long time) throws IOException {
+			entered.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			synchronized (this) {
+				messages.add(message);
+				priorities.add(priority);
+			}
+		}
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		synchronized int size() {
+			return messages.size();
+		}
+	}
+
+	@Test
+	public void flushWritesEverything() throws InterruptedException {
+		final TestSink sink = new TestSink(false);
+		final AsyncLogWriter writer = new AsyncLogWriter(sink, 256);
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(writer.write(3, "tag", "message " + i));
+		}
+
+		assertTrue(writer.flush(5, TimeUnit.SECONDS));
+		assertEquals(100, sink.size());
+		assertEquals("message 0", sink.messages.get(0));
+		assertEquals("message 99", sink.messages.get(99));
+		assertTrue(sink.flushes > 0);
+
+		writer.close();
+	}
+
+	@Test
+	public void flushTimesOut() throws InterruptedException {
+		final TestSink sink = new TestSink(true);
+		final AsyncLogWriter writer = new AsyncLogWriter(sink);
+
+		writer.write(3, "tag", "blocked");
+		assertFalse(writer.flush(50, TimeUnit.MILLISECONDS));
+
+		sink.released.countDown();
+		assertTrue(writer.flush(5, TimeUnit.SECONDS));
+		writer.close();
+	}
+
+	@Test
+	public void dropsWhenFull() throws InterruptedException {
+		final TestSink sink = new TestSink(true);
+		final AsyncLogWriter writer = new AsyncLogWriter(sink, 8);
+
+		// the writer thread takes the first record, then blocks in the sink
+		assertTrue(writer.write(3, "tag", "first"));
+		assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 8; i++) {
+			assertTrue(writer.write(3, "tag", "queued " + i));
+		}
+		for (int i = 0; i < 5; i++) {
+			assertFalse(writer.write(3, "tag", "dropped " + i));
+		}
+		assertEquals(5, writer.getDroppedCount());
+
+		sink.released.countDown();
+		assertTrue(writer.flush(5, TimeUnit.SECONDS));
+		assertEquals(9, sink.size());
+		assertFalse(sink.messages.contains("dropped 0"));
+
+		writer.close();
+	}
+
+	@Test
+	public void multipleProducersKeepTheirOrder() throws InterruptedException {
+		final int producers = 4;
+		final int count = 2000;
+		final TestSink sink = new TestSink(false);
+
+		// large enough to never drop
+		final AsyncLogWriter writer = new AsyncLogWriter(sink, producers * count);
+		final Thread[] threads = startProducers(writer, producers, count);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(writer.flush(5, TimeUnit.SECONDS));
+		assertEquals(0, writer.getDroppedCount());
+		assertEquals(producers * count, sink.size());
+
+		final int[] next = new int[producers];
+		for (int i = 0; i < sink.size(); i++) {
+			final int producer = sink.priorities.get(i);
+			assertEquals(producer + ":" + next[producer], sink.messages.get(i));
+			next[producer]++;
+		}
+
+		writer.close();
+	}
+
+	@Test
+	public void closeDrainsPendingRecords() throws InterruptedException {
+		final TestSink sink = new TestSink(true);
+		final AsyncLogWriter writer = new AsyncLogWriter(sink, 64);
+
+		writer.write(3, "tag", "first");
+		assertTrue(sink.entered.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 20; i++) {
+			writer.write(3, "tag", "pending " + i);
+		}
+
+		final Thread closer = new Thread(
+			new Runnable() {
+				@Override
+				public void run() {
+					try {
+						writer.close();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		closer.start();
+
+		// closed while the sink is still blocked: no more records accepted
+		while (! writer.isClosed()) {
+			Thread.yield();
+		}
+		assertFalse(writer.write(3, "tag", "refused"));
+
+		sink.released.countDown();
+		closer.join(5000);
+
+		assertFalse(closer.isAlive());
+		assertTrue(sink.closed);
+		assertEquals(21, sink.size());
+		assertEquals("pending 19", sink.messages.get(20));
+		assertEquals(1, writer.getDroppedCount());
+	}
+
+	@Test
+	public void closeWhileWriting() throws InterruptedException {
+		final int producers = 4;
+		final int count = 5000;
+		final TestSink sink = new TestSink(false);
+		final AsyncLogWriter writer = new AsyncLogWriter(sink, 128);
+
+		final Thread[] threads = startProducers(writer, producers, count);
+		Thread.sleep(5);
+		writer.close();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// every record has been either written or counted
+		assertTrue(sink.closed);
+		assertEquals(producers * count, sink.size() + writer.getDroppedCount());
+	}
+
+	/**
+	 * Threads writing "producer:index" messages, the producer index as priority
+	 */
+	private static Thread[] startProducers(final AsyncLogWriter writer, final int producers, final int count) {
+		final Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread(
+				new Runnable() {
+					@Override
+					public void run() {
+						for (int i = 0; i < count; i++) {
+							writer.write(producer, "tag", producer + ":" + i);
+						}
+					}
+				});
+			threads[p].start();
+		}
+		return threads;
+	}
+}
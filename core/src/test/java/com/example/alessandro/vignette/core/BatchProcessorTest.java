@@ -0,0 +1,171 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author alessandro
+ */
+public class BatchProcessorTest {
+
+	private static final BatchProcessor.Decoder<Integer> DECODER = new BatchProcessor.Decoder<Integer>() {
+		@Override
+		public PixelBuffer decode(final Integer input) {
+			return new PixelBuffer(VignetteKernelTest.createPixels(16, 16, input), 16, 16);
+		}
+	};
+
+	@Test
+	public void processesEveryInput() throws InterruptedException {
+		final List<Integer> encoded = Collections.synchronizedList(new ArrayList<Integer>());
+		final BatchProcessor<Integer> processor = new BatchProcessor<Integer>(
+			DECODER, new BatchProcessor.Encoder<Integer>() {
+			@Override
+			public void encode(final Integer input, final PixelBuffer image) {
+				encoded.add(input);
+			}
+		}, 2, 2, 2, 2);
+
+		final BatchProcessor<Integer>.Batch batch = processor.submit(Arrays.asList(1, 2, 3, 4, 5, 6), VignetteParams.DEFAULT, null);
+		assertTrue(batch.await(5, TimeUnit.SECONDS));
+		assertEquals(6, batch.getCompletedCount());
+		assertEquals(0, batch.getFailedCount());
+		assertEquals(6, encoded.size());
+		processor.shutdown();
+	}
+
+	@Test
+	public void nullImageIsAnError() throws InterruptedException {
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final BatchProcessor<Integer> processor = new BatchProcessor<Integer>(
+			new BatchProcessor.Decoder<Integer>() {
+				@Override
+				public PixelBuffer decode(final Integer input) throws Exception {
+					return input == 2 ? null : DECODER.decode(input);
+				}
+			}, new BatchProcessor.Encoder<Integer>() {
+			@Override
+			public void encode(final Integer input, final PixelBuffer image) {}
+		}, 1, 1, 1, 2);
+
+		final BatchProcessor<Integer>.Batch batch = processor.submit(
+			Arrays.asList(1, 2, 3), VignetteParams.DEFAULT, new BatchProcessor.Listener<Integer>() {
+				@Override
+				public void onProgress(final Integer input, final int completed, final int total) {}
+
+				@Override
+				public void onError(final Integer input, final Throwable error) {
+					errors.add(error);
+				}
+
+				@Override
+				public void onComplete(final BatchProcessor<Integer>.Batch batch) {}
+			}
+		);
+
+		assertTrue(batch.await(5, TimeUnit.SECONDS));
+		assertEquals(2, batch.getCompletedCount());
+		assertEquals(1, batch.getFailedCount());
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0) instanceof IllegalStateException);
+		processor.shutdown();
+	}
+
+	@Test
+	public void shutdownWithFullQueues() throws InterruptedException {
+		final CountDownLatch encoding = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicReference<Thread> encoder = new AtomicReference<Thread>();
+		final Set<Thread> existing = Thread.getAllStackTraces().keySet();
+
+		// the encoder ignores the interrupts of shutdown(): the processed queue stays full
+		final BatchProcessor<Integer> processor = new BatchProcessor<Integer>(
+			DECODER, new BatchProcessor.Encoder<Integer>() {
+			@Override
+			public void encode(final Integer input, final PixelBuffer image) {
+				encoder.set(Thread.currentThread());
+				encoding.countDown();
+				boolean interrupted = false;
+				while (true) {
+					try {
+						release.await();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, 1, 1, 1, 1);
+
+		final List<Integer> inputs = new ArrayList<Integer>();
+		for (int i = 0; i < 10; i++) {
+			inputs.add(i);
+		}
+
+		final BatchProcessor<Integer>.Batch batch = processor.submit(inputs, VignetteParams.DEFAULT, null);
+		assertTrue(encoding.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		processor.shutdown();
+
+		// the compute thread gives up the end of stream instead of waiting forever
+		final Set<Thread> ignored = new HashSet<Thread>(existing);
+		ignored.add(encoder.get());
+		assertTrue(waitForThreads(ignored, 5000));
+
+		release.countDown();
+		assertTrue(batch.await(5, TimeUnit.SECONDS));
+		assertTrue(batch.isCancelled());
+		assertTrue(waitForThreads(existing, 5000));
+	}
+
+	@Test
+	public void workersAreDaemons() throws InterruptedException {
+		final Set<Thread> existing = Thread.getAllStackTraces().keySet();
+		final BatchProcessor<Integer> processor = new BatchProcessor<Integer>(
+			DECODER, new BatchProcessor.Encoder<Integer>() {
+			@Override
+			public void encode(final Integer input, final PixelBuffer image) {}
+		}, 1, 1, 1, 1);
+
+		assertTrue(processor.submit(Arrays.asList(1), VignetteParams.DEFAULT, null).await(5, TimeUnit.SECONDS));
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (! existing.contains(thread)) {
+				assertTrue(thread.getName(), thread.isDaemon());
+			}
+		}
+		processor.shutdown();
+	}
+
+	/**
+	 * @return true if only the given threads are left within the timeout
+	 */
+	private static boolean waitForThreads(final Set<Thread> ignored, final long timeoutMillis) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (System.currentTimeMillis() < deadline) {
+			boolean alive = false;
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (! ignored.contains(thread) && thread.isAlive()) {
+					alive = true;
+				}
+			}
+			if (! alive) return true;
+			Thread.sleep(10);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,129 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author alessandro
+ */
+public class FalloffTableTest {
+
+	/** largest squared radius still inside the ellipse */
+	private static final double BELOW_ONE = 1 - 1e-12;
+
+	@Test
+	public void centerIsTransparent() {
+		final FalloffTable table = new FalloffTable(0.5f, 80);
+		assertEquals(0, table.alpha(0));
+		assertEquals(0, table.alpha(0.25 - 1e-6));
+	}
+
+	@Test
+	public void borderIsMaxAlpha() {
+		final FalloffTable table = new FalloffTable(0.5f, 80);
+		final int max = VignetteKernel.intensityToAlpha(80);
+
+		assertEquals(max, table.getMaxAlpha());
+		assertEquals(max, table.alpha(1));
+		assertEquals(max, table.alpha(4));
+		assertTrue(max - table.alpha(BELOW_ONE) <= 1);
+	}
+
+	@Test
+	public void alphaGrowsWithRadius() {
+		final FalloffTable table = new FalloffTable(0.3f, 100);
+		int previous = 0;
+		for (int i = 0; i < table.size(); i++) {
+			final int alpha = table.alpha((double) i / table.size());
+			assertTrue(alpha >= previous);
+			previous = alpha;
+		}
+	}
+
+	@Test
+	public void featherZero() {
+		final FalloffTable table = new FalloffTable(0, 100);
+		final int max = table.getMaxAlpha();
+
+		// the first entry is sampled at its center: radius sqrt(0.5 / size)
+		assertTrue(table.alpha(0) <= Math.ceil(max * Math.sqrt(0.5 / table.size())));
+		assertEquals(max / 2f, table.alpha(0.25), 1);
+		assertEquals(max, table.alpha(1));
+	}
+
+	@Test
+	public void featherOne() {
+		final FalloffTable table = new FalloffTable(1, 100);
+
+		assertEquals(0, table.alpha(0));
+		assertEquals(0, table.alpha(BELOW_ONE));
+		assertEquals(table.getMaxAlpha(), table.alpha(1));
+	}
+
+	@Test
+	public void inverted() {
+		final FalloffTable table = new FalloffTable(0.5f, 80);
+		final FalloffTable inverted = new FalloffTable(0.5f, 80, true);
+
+		assertEquals(0, inverted.getOutsideAlpha());
+		assertEquals(0, inverted.alpha(1));
+		assertEquals(inverted.getMaxAlpha(), inverted.alpha(0));
+
+		for (int i = 0; i < table.size(); i++) {
+			final double radius2 = (double) i / table.size();
+			assertEquals(table.getMaxAlpha(), table.alpha(radius2) + inverted.alpha(radius2));
+		}
+	}
+
+	@Test
+	public void valuesAreClamped() {
+		final FalloffTable table = new FalloffTable(2, 150);
+		assertEquals(1, table.getFeather(), 0);
+		assertEquals(100, table.getIntensity());
+		assertEquals(VignetteKernel.intensityToAlpha(100), table.getMaxAlpha());
+
+		final FalloffTable negative = new FalloffTable(- 1, - 150);
+		assertEquals(0, negative.getFeather(), 0);
+		assertEquals(- 100, negative.getIntensity());
+		assertEquals(table.getMaxAlpha(), negative.getMaxAlpha());
+		assertTrue(negative.matches(- 5, - 200));
+	}
+
+	@Test
+	public void zeroIntensityIsTransparent() {
+		final FalloffTable table = new FalloffTable(0.2f, 0);
+		assertEquals(0, table.alpha(0));
+		assertEquals(0, table.alpha(0.9));
+		assertEquals(0, table.alpha(1));
+	}
+
+	@Test
+	public void obtainReusesMatchingTable() {
+		final FalloffTable table = new FalloffTable(0.5f, 40, 1024);
+
+		assertSame(table, FalloffTable.obtain(table, 0.5f, 40));
+
+		final FalloffTable other = FalloffTable.obtain(table, 0.6f, 40);
+		assertFalse(other == table);
+		assertEquals(1024, other.size());
+	}
+
+	@Test
+	public void smallTable() {
+		final FalloffTable table = new FalloffTable(0.5f, 100, 1);
+		assertEquals(1, table.size());
+		assertEquals(table.getMaxAlpha(), table.alpha(1));
+
+		// a single entry, sampled at its center, for the whole ellipse
+		assertEquals(table.alpha(0), table.alpha(BELOW_ONE));
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void invalidSize() {
+		new FalloffTable(0.5f, 100, 0);
+	}
+}
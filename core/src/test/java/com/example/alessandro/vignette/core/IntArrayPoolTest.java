@@ -0,0 +1,52 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author alessandro
+ */
+public class IntArrayPoolTest {
+
+	@Test
+	public void newArraysHaveTheExactLength() {
+		final IntArrayPool pool = new IntArrayPool(1024 * 1024);
+		assertEquals(1000, pool.obtain(1000).length);
+		assertEquals(4097, pool.obtain(4097).length);
+		assertEquals(0, pool.obtain(0).length);
+	}
+
+	@Test
+	public void releasedArrayIsReused() {
+		final IntArrayPool pool = new IntArrayPool(1024 * 1024);
+		final int[] array = pool.obtain(1000);
+		pool.release(array);
+
+		// same bucket, shorter request
+		assertSame(array, pool.obtain(900));
+		assertEquals(1, pool.getHitCount());
+	}
+
+	@Test
+	public void shorterArrayOfTheSameBucketIsNotReused() {
+		final IntArrayPool pool = new IntArrayPool(1024 * 1024);
+		final int[] array = pool.obtain(900);
+		pool.release(array);
+
+		final int[] other = pool.obtain(1000);
+		assertNotSame(array, other);
+		assertEquals(1000, other.length);
+	}
+
+	@Test
+	public void arraysLargerThanTheBudgetAreNotKept() {
+		final IntArrayPool pool = new IntArrayPool(4096);
+		pool.release(pool.obtain(2048));
+
+		assertEquals(0, pool.getBytes());
+		assertEquals(1, pool.getEvictionCount());
+	}
+}
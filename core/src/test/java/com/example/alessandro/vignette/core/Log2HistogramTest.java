@@ -0,0 +1,124 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author alessandro
+ */
+public class Log2HistogramTest {
+
+	@Test
+	public void bucketBounds() {
+		assertEquals(0, Log2Histogram.bucket(0));
+		assertEquals(1, Log2Histogram.bucketLimit(0));
+
+		for (int n = 0; n < 63; n++) {
+			final long value = 1L << n;
+			assertEquals(n + 1, Log2Histogram.bucket(value));
+			assertEquals(n + 1, Log2Histogram.bucket(value * 2 - 1));
+			assertEquals(value, Log2Histogram.bucketLimit(n));
+		}
+	}
+
+	@Test
+	public void lastBucketTakesTheLargestValues() {
+		final Log2Histogram histogram = new Log2Histogram();
+		histogram.record(1L << 62);
+		histogram.record(Long.MAX_VALUE);
+
+		assertEquals(63, Log2Histogram.bucket(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, Log2Histogram.bucketLimit(63));
+		assertEquals(2, histogram.getBucketCount(Log2Histogram.BUCKETS - 1));
+		assertEquals(Long.MAX_VALUE, histogram.getMax());
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void negativeValuesAreZero() {
+		final Log2Histogram histogram = new Log2Histogram();
+		histogram.record(- 5);
+
+		assertEquals(1, histogram.getBucketCount(0));
+		assertEquals(0, histogram.getSum());
+		assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void percentiles() {
+		final Log2Histogram histogram = new Log2Histogram();
+		assertEquals(0, histogram.getPercentile(0.5));
+
+		// 1..100: buckets of 1, 2, 4, 8, 16, 32 and 37 values
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(50, histogram.getMean());
+		assertEquals(32, histogram.getBucketCount(6));
+		assertEquals(37, histogram.getBucketCount(7));
+
+		assertEquals(2, histogram.getPercentile(0));
+		assertEquals(32, histogram.getPercentile(0.3));
+		assertEquals(64, histogram.getPercentile(0.5));
+		assertEquals(64, histogram.getPercentile(0.62));
+		// never more than the max value
+		assertEquals(100, histogram.getPercentile(0.64));
+		assertEquals(100, histogram.getPercentile(0.99));
+		assertEquals(100, histogram.getPercentile(2));
+	}
+
+	@Test
+	public void toJson() {
+		final Log2Histogram histogram = new Log2Histogram();
+		assertEquals(
+			"{\"count\":0,\"mean\":0,\"max\":0,\"p50\":0,\"p90\":0,\"p99\":0,\"buckets\":{}}",
+			histogram.toJson(new StringBuilder()).toString());
+
+		histogram.record(0);
+		histogram.record(3);
+		histogram.record(3);
+		histogram.record(1000);
+		assertEquals(
+			"{\"count\":4,\"mean\":251,\"max\":1000,\"p50\":4,\"p90\":1000,\"p99\":1000,"
+			+ "\"buckets\":{\"1\":1,\"4\":2,\"1024\":1}}",
+			histogram.toJson(new StringBuilder()).toString());
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getBucketCount(2));
+	}
+
+	@Test
+	public void concurrentRecords() throws InterruptedException {
+		final Log2Histogram histogram = new Log2Histogram();
+		final Thread[] threads = new Thread[4];
+
+		for (int i = 0; i < threads.length; i++) {
+			final int offset = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						histogram.record(j + offset);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long total = 0;
+		for (int i = 0; i < Log2Histogram.BUCKETS; i++) {
+			total += histogram.getBucketCount(i);
+		}
+		assertEquals(40000, histogram.getCount());
+		assertEquals(40000, total);
+		assertEquals(10002, histogram.getMax());
+	}
+}
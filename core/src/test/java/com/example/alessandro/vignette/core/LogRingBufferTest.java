@@ -0,0 +1,136 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author alessandro
+ */
+public class LogRingBufferTest {
+
+	@Test
+	public void capacityIsRoundedUp() {
+		assertEquals(1, new LogRingBuffer(1).getCapacity());
+		assertEquals(8, new LogRingBuffer(5).getCapacity());
+		assertEquals(1024, new LogRingBuffer(1024).getCapacity());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void invalidCapacity() {
+		new LogRingBuffer(0);
+	}
+
+	@Test
+	public void pollReturnsRecordsInOrder() {
+		final LogRingBuffer buffer = new LogRingBuffer(4);
+		final LogRingBuffer.Record record = new LogRingBuffer.Record();
+
+		// a few laps, so the slots are reused
+		for (int i = 0; i < 10; i++) {
+			assertTrue(buffer.offer(i, "tag", "message " + i, 100 + i));
+			assertTrue(buffer.offer(i, "tag", "second " + i, 200 + i));
+			assertEquals(2, buffer.size());
+
+			assertTrue(buffer.poll(record));
+			assertEquals(i, record.priority);
+			assertEquals("tag", record.tag);
+			assertEquals("message " + i, record.message);
+			assertEquals(100 + i, record.time);
+
+			assertTrue(buffer.poll(record));
+			assertEquals("second " + i, record.message);
+			assertFalse(buffer.poll(record));
+		}
+
+		assertTrue(buffer.isEmpty());
+		assertEquals(20, buffer.getWrittenCount());
+		assertEquals(20, buffer.getReadCount());
+		assertEquals(0, buffer.getDroppedCount());
+	}
+
+	@Test
+	public void dropsWhenFull() {
+		final LogRingBuffer buffer = new LogRingBuffer(4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(0, null, "message " + i, 0));
+		}
+
+		assertFalse(buffer.offer(0, null, "dropped", 0));
+		assertFalse(buffer.offer(0, null, "dropped", 0));
+		assertEquals(2, buffer.getDroppedCount());
+		assertEquals(4, buffer.getWrittenCount());
+		assertEquals(4, buffer.size());
+
+		// one slot freed, one more record fits
+		final LogRingBuffer.Record record = new LogRingBuffer.Record();
+		assertTrue(buffer.poll(record));
+		assertEquals("message 0", record.message);
+		assertTrue(buffer.offer(0, null, "message 4", 0));
+
+		for (int i = 1; i <= 4; i++) {
+			assertTrue(buffer.poll(record));
+			assertEquals("message " + i, record.message);
+		}
+		assertEquals(2, buffer.getDroppedCount());
+	}
+
+	@Test
+	public void multipleProducers() throws InterruptedException {
+		final int producers = 4;
+		final int count = 20000;
+		final LogRingBuffer buffer = new LogRingBuffer(64);
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads = new Thread[producers];
+
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread(
+				new Runnable() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						for (int i = 0; i < count; i++) {
+							// the buffer is small: keep retrying, the consumer runs concurrently
+							while (! buffer.offer(producer, null, null, i)) {
+								Thread.yield();
+							}
+						}
+					}
+				});
+			threads[p].start();
+		}
+
+		start.countDown();
+
+		// every producer's records come out in the order they were offered
+		final long[] next = new long[producers];
+		final LogRingBuffer.Record record = new LogRingBuffer.Record();
+		int received = 0;
+
+		while (received < producers * count) {
+			if (buffer.poll(record)) {
+				assertEquals(next[record.priority], record.time);
+				next[record.priority]++;
+				received++;
+			}
+			else {
+				Thread.yield();
+			}
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertFalse(buffer.poll(record));
+		assertEquals(producers * count, buffer.getWrittenCount());
+	}
+}
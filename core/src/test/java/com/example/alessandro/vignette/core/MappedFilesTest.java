@@ -0,0 +1,139 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author alessandro
+ */
+public class MappedFilesTest {
+
+	private File mDirectory;
+
+	@Before
+	public void setUp() throws IOException {
+		mDirectory = File.createTempFile("mapped", "");
+		assertTrue(mDirectory.delete());
+		assertTrue(mDirectory.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = mDirectory.listFiles();
+		if (null != files) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDirectory.delete();
+	}
+
+	@Test
+	public void writeAndMap() throws IOException {
+		final File file = new File(mDirectory, "entry");
+		MappedFiles.write(file, 12, new IntsWriter(1, 2, 3));
+
+		assertEquals(12, file.length());
+		assertEquals(1, mDirectory.list().length);
+
+		final ByteBuffer buffer = MappedFiles.map(file);
+		assertEquals(12, buffer.capacity());
+		assertEquals(1, buffer.getInt());
+		assertEquals(2, buffer.getInt());
+		assertEquals(3, buffer.getInt());
+	}
+
+	@Test
+	public void writeReplaces() throws IOException {
+		final File file = new File(mDirectory, "entry");
+		MappedFiles.write(file, 8, new IntsWriter(1, 2));
+		MappedFiles.write(file, 4, new IntsWriter(3));
+
+		final ByteBuffer buffer = MappedFiles.map(file);
+		assertEquals(4, buffer.capacity());
+		assertEquals(3, buffer.getInt());
+	}
+
+	@Test
+	public void failedWriteLeavesNothing() throws IOException {
+		final File file = new File(mDirectory, "entry");
+		MappedFiles.write(file, 4, new IntsWriter(1));
+
+		try {
+			MappedFiles.write(
+				file, 4, new MappedFiles.Writer() {
+					@Override
+					public void write(final ByteBuffer buffer) throws IOException {
+						buffer.putInt(2);
+						throw new IOException("failed");
+					}
+				}
+			);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		// the previous file is untouched, the temporary one is gone
+		assertEquals(1, mDirectory.list().length);
+		assertEquals(1, MappedFiles.map(file).getInt());
+	}
+
+	@Test
+	public void mappingSurvivesDelete() throws IOException {
+		final File file = new File(mDirectory, "entry");
+		MappedFiles.write(file, 8, new IntsWriter(5, 6));
+
+		final ByteBuffer buffer = MappedFiles.map(file);
+		assertTrue(file.delete());
+		assertFalse(file.exists());
+
+		assertEquals(5, buffer.getInt());
+		assertEquals(6, buffer.getInt());
+	}
+
+	@Test
+	public void tempFiles() throws IOException {
+		final File temp = MappedFiles.writeTemp(new File(mDirectory, "entry"), 4, new IntsWriter(7));
+		assertTrue(MappedFiles.isTemp(temp));
+		assertEquals(mDirectory, temp.getParentFile());
+		assertFalse(MappedFiles.isTemp(new File(mDirectory, "entry")));
+
+		final File file = new File(mDirectory, "entry");
+		MappedFiles.rename(temp, file);
+		assertFalse(temp.exists());
+		assertEquals(7, MappedFiles.map(file).getInt());
+	}
+
+	@Test
+	public void hex() {
+		assertEquals("00ff7f80", MappedFiles.toHex(new byte[]{0, (byte) 0xff, 0x7f, (byte) 0x80}));
+		assertEquals(
+			"e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", MappedFiles.sha256(""));
+	}
+
+	private static class IntsWriter implements MappedFiles.Writer {
+		private final int[] mValues;
+
+		IntsWriter(int... values) {
+			mValues = values;
+		}
+
+		@Override
+		public void write(final ByteBuffer buffer) {
+			for (int value : mValues) {
+				buffer.putInt(value);
+			}
+		}
+	}
+}
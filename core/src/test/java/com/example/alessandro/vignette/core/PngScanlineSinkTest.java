@@ -0,0 +1,98 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The encoded file is decoded back with ImageIO
+ *
+ * @author alessandro
+ */
+public class PngScanlineSinkTest {
+
+	@Test
+	public void encodesAllTheBands() throws IOException {
+		// random pixels don't compress: several IDAT chunks
+		final int width = 301;
+		final int height = 173;
+		final int[] pixels = VignetteKernelTest.createPixels(width, height, 1);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final PngScanlineSink sink = new PngScanlineSink(out);
+		sink.begin(width, height);
+		for (int y = 0; y < height; y += 32) {
+			sink.write(pixels, y * width, width, Math.min(32, height - y));
+		}
+		sink.end();
+
+		assertTrue(out.size() > PngScanlineSink.CHUNK_SIZE * 2);
+		assertImage(pixels, width, height, out.toByteArray());
+	}
+
+	@Test
+	public void streamedRender() throws IOException {
+		final int width = 200;
+		final int height = 150;
+		final int[] source = VignetteKernelTest.createPixels(width, height, 2);
+		final VignetteKernel kernel = new VignetteKernel(100, 75, 80, 60, 20, 0.3f, 0, new FalloffTable(0.4f, 70));
+
+		final int[] expected = source.clone();
+		kernel.apply(expected, 0, width, 0, 0, width, height);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final TileSource tiles = new TileSource() {
+			@Override
+			public int getWidth() {
+				return width;
+			}
+
+			@Override
+			public int getHeight() {
+				return height;
+			}
+
+			@Override
+			public void readTile(int x, int y, int w, int h, int[] pixels, int offset, int stride) {
+				for (int row = 0; row < h; row++) {
+					System.arraycopy(source, (y + row) * width + x, pixels, offset + row * stride, w);
+				}
+			}
+
+			@Override
+			public void close() {}
+		};
+
+		assertTrue(new StreamingVignetteRenderer(64, 16).render(tiles, kernel, new PngScanlineSink(out, 1)));
+		assertImage(expected, width, height, out.toByteArray());
+	}
+
+	@Test (expected = IOException.class)
+	public void missingRows() throws IOException {
+		final PngScanlineSink sink = new PngScanlineSink(new ByteArrayOutputStream());
+		sink.begin(4, 4);
+		sink.write(new int[16], 0, 4, 3);
+		sink.end();
+	}
+
+	private static void assertImage(int[] expected, int width, int height, byte[] png) throws IOException {
+		final BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		assertEquals(width, image.getWidth());
+		assertEquals(height, image.getHeight());
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				// alpha is discarded
+				assertEquals(x + "x" + y, expected[y * width + x] & 0xffffff, image.getRGB(x, y) & 0xffffff);
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author alessandro
+ */
+public class RenderCacheTest {
+
+	private static final int WIDTH = 97;
+	private static final int HEIGHT = 150;
+
+	private File mDirectory;
+
+	@Before
+	public void setUp() throws IOException {
+		mDirectory = File.createTempFile("cache", "");
+		assertTrue(mDirectory.delete());
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = mDirectory.listFiles();
+		if (null != files) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDirectory.delete();
+	}
+
+	@Test
+	public void putAndGet() throws IOException {
+		final RenderCache cache = new RenderCache(mDirectory, 1 << 20);
+		final int[] pixels = VignetteKernelTest.createPixels(WIDTH, HEIGHT, 1);
+
+		assertNull(cache.get("a"));
+		assertTrue(cache.put("a", new PixelBuffer(pixels.clone(), WIDTH, HEIGHT)));
+
+		final PixelBuffer result = cache.get("a");
+		assertNotNull(result);
+		assertEquals(WIDTH, result.width);
+		assertEquals(HEIGHT, result.height);
+		for (int i = 0; i < WIDTH * HEIGHT; i++) {
+			assertEquals(pixels[i], result.pixels[i]);
+		}
+		result.release();
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, mDirectory.list().length);
+	}
+
+	@Test
+	public void streamedPutAndGet() throws IOException {
+		final RenderCache cache = new RenderCache(mDirectory, 1 << 20);
+		final int[] pixels = VignetteKernelTest.createPixels(WIDTH, HEIGHT, 2);
+
+		assertTrue(cache.put("a", new ArrayTileSource(pixels)));
+
+		final ArraySink sink = new ArraySink();
+		assertTrue(cache.get("a", sink));
+		assertArrayEquals(pixels, sink.pixels);
+		assertTrue(sink.bands > 1);
+		assertTrue(sink.ended);
+
+		// same format as the non streaming entries
+		final PixelBuffer result = cache.get("a");
+		assertEquals(pixels[pixels.length - 1], result.pixels[pixels.length - 1]);
+		result.release();
+	}
+
+	@Test
+	public void missDoesNotCallTheSink() throws IOException {
+		final RenderCache cache = new RenderCache(mDirectory, 1 << 20);
+		final ArraySink sink = new ArraySink();
+
+		assertFalse(cache.get("missing", sink));
+		assertNull(sink.pixels);
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws IOException {
+		final long entry = 12 + WIDTH * HEIGHT * 4;
+		final RenderCache cache = new RenderCache(mDirectory, entry * 2);
+		final int[] pixels = VignetteKernelTest.createPixels(WIDTH, HEIGHT, 3);
+
+		cache.put("a", new ArrayTileSource(pixels));
+		cache.put("b", new ArrayTileSource(pixels));
+		cache.get("a").release();
+		cache.put("c", new ArrayTileSource(pixels));
+
+		assertTrue(cache.contains("a"));
+		assertFalse(cache.contains("b"));
+		assertTrue(cache.contains("c"));
+		assertEquals(entry * 2, cache.getSize());
+		assertEquals(2, mDirectory.list().length);
+	}
+
+	@Test
+	public void entryEvictedWhileReading() throws IOException {
+		final long entry = 12 + WIDTH * HEIGHT * 4;
+		final RenderCache cache = new RenderCache(mDirectory, entry);
+		final int[] pixels = VignetteKernelTest.createPixels(WIDTH, HEIGHT, 4);
+		cache.put("a", new ArrayTileSource(pixels));
+
+		// the sink evicts the entry it's reading: the mapping keeps the content
+		final ArraySink sink = new ArraySink() {
+			@Override
+			public void begin(final int width, final int height) {
+				super.begin(width, height);
+				cache.put("b", new ArrayTileSource(new int[WIDTH * HEIGHT]));
+			}
+		};
+
+		assertTrue(cache.get("a", sink));
+		assertArrayEquals(pixels, sink.pixels);
+		assertFalse(cache.contains("a"));
+	}
+
+	@Test
+	public void failedSourceIsNotStored() throws IOException {
+		final RenderCache cache = new RenderCache(mDirectory, 1 << 20);
+		final TileSource source = new ArrayTileSource(new int[WIDTH * HEIGHT]) {
+			@Override
+			public void readTile(int x, int y, int width, int height, int[] pixels, int offset, int stride)
+				throws IOException {
+				throw new IOException("failed");
+			}
+		};
+
+		assertFalse(cache.put("a", source));
+		assertFalse(cache.contains("a"));
+		assertEquals(0, mDirectory.list().length);
+	}
+
+	@Test
+	public void reopen() throws IOException {
+		final int[] pixels = VignetteKernelTest.createPixels(WIDTH, HEIGHT, 5);
+		new RenderCache(mDirectory, 1 << 20).put("a", new ArrayTileSource(pixels));
+
+		final RenderCache cache = new RenderCache(mDirectory, 1 << 20);
+		assertEquals(1, cache.getCount());
+
+		final ArraySink sink = new ArraySink();
+		assertTrue(cache.get("a", sink));
+		assertArrayEquals(pixels, sink.pixels);
+	}
+
+	private static class ArrayTileSource implements TileSource {
+		private final int[] mPixels;
+
+		ArrayTileSource(int[] pixels) {
+			mPixels = pixels;
+		}
+
+		@Override
+		public int getWidth() {
+			return WIDTH;
+		}
+
+		@Override
+		public int getHeight() {
+			return HEIGHT;
+		}
+
+		@Override
+		public void readTile(int x, int y, int width, int height, int[] pixels, int offset, int stride)
+			throws IOException {
+			for (int row = 0; row < height; row++) {
+				System.arraycopy(mPixels, (y + row) * WIDTH + x, pixels, offset + row * stride, width);
+			}
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	private static class ArraySink implements ScanlineSink {
+		int[] pixels;
+		int width;
+		int row;
+		int bands;
+		boolean ended;
+
+		@Override
+		public void begin(final int width, final int height) {
+			this.width = width;
+			pixels = new int[width * height];
+		}
+
+		@Override
+		public void write(final int[] pixels, final int offset, final int stride, final int rows) {
+			for (int i = 0; i < rows; i++) {
+				System.arraycopy(pixels, offset + i * stride, this.pixels, (row + i) * width, width);
+			}
+			row += rows;
+			bands++;
+		}
+
+		@Override
+		public void end() {
+			ended = true;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dragging the handles the way the vignette view does: the new rect goes back into the
+ * params through {@link VignetteParams#withOval(float[], float[])}
+ *
+ * @author alessandro
+ */
+public class VignetteGeometryTest {
+
+	private static final float[] IMAGE = {20, 10, 420, 310};
+	private static final float DELTA = 1e-4f;
+
+	private static final VignetteParams ROTATED =
+		new VignetteParams(0.5f, 0.5f, 0.3f, 0.2f, 30, 0.25f, - 0.4f, 0.6f, 40, true);
+
+	@Test
+	public void moveKeepsRotationAndFocalPoint() {
+		final float[] rect = ROTATED.toOval(IMAGE, new float[4]);
+		assertTrue(VignetteGeometry.drag(
+			VignetteGeometry.Handle.Center, rect, IMAGE, ROTATED.rotation, - 40, 30, 10, rect));
+
+		final VignetteParams params = ROTATED.withOval(rect, IMAGE);
+		assertEquals(0.6f, params.centerX, DELTA);
+		assertEquals(0.4f, params.centerY, DELTA);
+		assertEquals(ROTATED.radiusX, params.radiusX, DELTA);
+		assertEquals(ROTATED.radiusY, params.radiusY, DELTA);
+		assertUnchanged(params);
+	}
+
+	@Test
+	public void resizeKeepsRotationAndFocalPoint() {
+		final float[] rect = ROTATED.toOval(IMAGE, new float[4]);
+		assertTrue(VignetteGeometry.drag(
+			VignetteGeometry.Handle.BottomRight, rect, IMAGE, ROTATED.rotation, - 25, - 15, 10, rect));
+
+		final VignetteParams params = ROTATED.withOval(rect, IMAGE);
+		assertTrue(params.radiusX != ROTATED.radiusX || params.radiusY != ROTATED.radiusY);
+		assertUnchanged(params);
+	}
+
+	@Test
+	public void fromOvalIsTheInverseOfToOval() {
+		final VignetteParams params = VignetteParams.fromOval(ROTATED.toOval(IMAGE, new float[4]), IMAGE, 0.6f, 40);
+		assertEquals(ROTATED.centerX, params.centerX, DELTA);
+		assertEquals(ROTATED.centerY, params.centerY, DELTA);
+		assertEquals(ROTATED.radiusX, params.radiusX, DELTA);
+		assertEquals(ROTATED.radiusY, params.radiusY, DELTA);
+		assertEquals(0, params.rotation, 0);
+		assertEquals(0, params.focalX, 0);
+	}
+
+	private static void assertUnchanged(VignetteParams params) {
+		assertEquals(ROTATED.rotation, params.rotation, 0);
+		assertEquals(ROTATED.focalX, params.focalX, 0);
+		assertEquals(ROTATED.focalY, params.focalY, 0);
+		assertEquals(ROTATED.feather, params.feather, 0);
+		assertEquals(ROTATED.intensity, params.intensity);
+		assertEquals(ROTATED.inverted, params.inverted);
+	}
+}
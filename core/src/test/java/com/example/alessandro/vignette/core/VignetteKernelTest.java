@@ -0,0 +1,154 @@
+package com.example.alessandro.vignette.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the optimized kernel loops against the exact, per pixel, evaluation.
+ *
+ * @author alessandro
+ */
+public class VignetteKernelTest {
+
+	private static final int WIDTH = 161;
+	private static final int HEIGHT = 117;
+
+	/** the loops go through the lookup table, which can be one alpha level off the exact value */
+	private static final int TABLE_TOLERANCE = 1;
+
+	@Test
+	public void applyMatchesAlphaAt() {
+		for (VignetteKernel kernel : createKernels()) {
+			final int[] source = createPixels(WIDTH, HEIGHT, 1);
+			final int[] pixels = source.clone();
+			kernel.apply(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+			final int color = kernel.getOverlayColor() & 0xffffff;
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					final int index = y * WIDTH + x;
+					final int alpha = kernel.alphaAt(x, y);
+					if (! blendsWith(source[index], color, alpha, pixels[index])) {
+						fail(String.format(
+							"%s at %dx%d: %08x is not %08x blended with alpha %d", kernel, x, y, pixels[index], source[index],
+							alpha));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void maskRowMatchesApplyRow() {
+		for (VignetteKernel kernel : createKernels()) {
+			final int[] source = createPixels(WIDTH, HEIGHT, 3);
+			final int[] pixels = source.clone();
+			kernel.apply(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+			final int[] mask = new int[WIDTH * HEIGHT];
+			kernel.renderMask(mask, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+			// the mask drawn over the image (SRC_OVER) must give what the kernel applies directly
+			for (int i = 0; i < mask.length; i++) {
+				final int alpha = mask[i] >>> 24;
+				final int expected = alpha == 0 ? source[i] : VignetteKernel.blend(source[i], mask[i] & 0xffffff, alpha);
+				assertPixel(kernel, i % WIDTH, i / WIDTH, expected, pixels[i]);
+			}
+		}
+	}
+
+	@Test
+	public void computeRowAlphaMatchesMask() {
+		final int[] alphas = new int[WIDTH];
+		final int[] mask = new int[WIDTH];
+
+		for (VignetteKernel kernel : createKernels()) {
+			for (int y = 0; y < HEIGHT; y++) {
+				kernel.computeRowAlpha(0, y, WIDTH, alphas);
+				kernel.renderMask(mask, 0, WIDTH, 0, y, WIDTH, 1);
+
+				for (int x = 0; x < WIDTH; x++) {
+					// the mask is never drawn where the kernel leaves the pixel untouched
+					if (alphas[x] != 0) {
+						assertEquals(kernel + " at " + x + "x" + y, mask[x] >>> 24, alphas[x]);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void unaffectedRegionIsNotModified() {
+		final VignetteKernel kernel = new VignetteKernel(80, 60, 70, 50, new FalloffTable(0.8f, 60));
+		final int[] pixels = createPixels(10, 10, 4);
+		final int[] source = pixels.clone();
+
+		assertEquals(true, kernel.isRegionUnaffected(75, 55, 85, 65));
+		kernel.apply(pixels, 0, 10, 75, 55, 10, 10);
+
+		for (int i = 0; i < pixels.length; i++) {
+			assertEquals(source[i], pixels[i]);
+		}
+	}
+
+	/**
+	 * Axis aligned, rotated, with a focal point, feather 0 and 1, both vignettes and spots
+	 */
+	private static VignetteKernel[] createKernels() {
+		final float[][] configs = {
+			// rotation, focalX, focalY, feather, intensity
+			{0, 0, 0, 0.5f, 80},
+			{30, 0, 0, 0.5f, - 60},
+			{0, 0.4f, - 0.3f, 0.5f, 80},
+			{45, 0.5f, 0.2f, 0.7f, 100},
+			{0, 0, 0, 0, 80},
+			{- 20, 0.3f, 0, 0, 50},
+			{0, 0, 0, 1, 80},
+			{10, 0.3f, 0.3f, 1, - 100},
+		};
+
+		final VignetteKernel[] kernels = new VignetteKernel[configs.length * 2];
+		for (int i = 0; i < configs.length; i++) {
+			final float[] c = configs[i];
+			for (int inverted = 0; inverted < 2; inverted++) {
+				kernels[i * 2 + inverted] = new VignetteKernel(
+					WIDTH / 2f, HEIGHT / 2f, WIDTH * 0.4f, HEIGHT * 0.35f, c[0], c[1], c[2],
+					new FalloffTable(c[3], (int) c[4], inverted == 1));
+			}
+		}
+		return kernels;
+	}
+
+	/**
+	 * Random pixels, mostly opaque with some translucent ones
+	 */
+	static int[] createPixels(int width, int height, long seed) {
+		final Random random = new Random(seed);
+		final int[] pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			final int alpha = random.nextInt(8) == 0 ? random.nextInt(256) : 255;
+			pixels[i] = (alpha << 24) | (random.nextInt() & 0xffffff);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Returns true if the pixel is the source blended with the overlay, within {@link #TABLE_TOLERANCE} alpha levels
+	 */
+	private static boolean blendsWith(int source, int color, int alpha, int pixel) {
+		for (int a = Math.max(0, alpha - TABLE_TOLERANCE); a <= Math.min(255, alpha + TABLE_TOLERANCE); a++) {
+			if (pixel == (a == 0 ? source : VignetteKernel.blend(source, color, a))) return true;
+		}
+		return false;
+	}
+
+	private static void assertPixel(VignetteKernel kernel, int x, int y, int expected, int actual) {
+		if (expected != actual) {
+			fail(String.format("%s at %dx%d: expected %08x, was %08x", kernel, x, y, expected, actual));
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.example.alessandro.vignette.vector;
+
+import com.example.alessandro.vignette.core.FalloffTable;
+import com.example.alessandro.vignette.core.VignetteKernel;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.fail;
+
+/**
+ * The vector blend loop must give exactly the same pixels as its scalar fallback
+ * and as the plain {@link VignetteKernel}.
+ *
+ * @author alessandro
+ */
+public class VectorVignetteKernelTest {
+
+	/** not a multiple of any lane count, so every row also goes through the scalar tail */
+	private static final int WIDTH = 203;
+	private static final int HEIGHT = 131;
+
+	@Test
+	public void vectorMatchesScalar() {
+		for (VignetteKernel kernel : createKernels()) {
+			final VectorVignetteKernel vector = new VectorVignetteKernel(kernel);
+			final int[] source = createPixels(WIDTH, HEIGHT, 1);
+
+			final int[] expected = source.clone();
+			kernel.apply(expected, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+			final int[] scalar = source.clone();
+			vector.applyScalar(scalar, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+			assertPixels(vector, "scalar", expected, scalar);
+
+			final int[] pixels = source.clone();
+			vector.apply(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+			assertPixels(vector, "vector", expected, pixels);
+		}
+	}
+
+	@Test
+	public void tilesMatchFullImage() {
+		final int tile = 37;
+
+		for (VignetteKernel kernel : createKernels()) {
+			final VectorVignetteKernel vector = new VectorVignetteKernel(kernel);
+			final int[] source = createPixels(WIDTH, HEIGHT, 2);
+
+			final int[] expected = source.clone();
+			kernel.apply(expected, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+			// every tile is applied in place, through the offset and stride of the full buffer
+			final int[] pixels = source.clone();
+			for (int y = 0; y < HEIGHT; y += tile) {
+				for (int x = 0; x < WIDTH; x += tile) {
+					final int w = Math.min(tile, WIDTH - x);
+					final int h = Math.min(tile, HEIGHT - y);
+					vector.apply(pixels, y * WIDTH + x, WIDTH, x, y, w, h);
+				}
+			}
+			assertPixels(vector, "tiles", expected, pixels);
+		}
+	}
+
+	@Test
+	public void opaqueImage() {
+		for (VignetteKernel kernel : createKernels()) {
+			final VectorVignetteKernel vector = new VectorVignetteKernel(kernel);
+			final int[] source = createPixels(WIDTH, HEIGHT, 3);
+			for (int i = 0; i < source.length; i++) {
+				source[i] |= 0xff000000;
+			}
+
+			final int[] expected = source.clone();
+			kernel.apply(expected, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+
+			final int[] pixels = source.clone();
+			vector.apply(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+			assertPixels(vector, "opaque", expected, pixels);
+		}
+	}
+
+	/**
+	 * Axis aligned, rotated, with a focal point, feather 0 and 1, dark and bright, vignettes and spots
+	 */
+	private static VignetteKernel[] createKernels() {
+		final float[][] configs = {
+			// rotation, focalX, focalY, feather, intensity
+			{0, 0, 0, 0.5f, 80},
+			{30, 0, 0, 0.5f, - 60},
+			{0, 0.4f, - 0.3f, 0.5f, 80},
+			{45, 0.5f, 0.2f, 0.7f, 100},
+			{- 20, 0.3f, 0, 0, 50},
+			{10, 0.3f, 0.3f, 1, - 100},
+		};
+
+		final VignetteKernel[] kernels = new VignetteKernel[configs.length * 2];
+		for (int i = 0; i < configs.length; i++) {
+			final float[] c = configs[i];
+			for (int inverted = 0; inverted < 2; inverted++) {
+				kernels[i * 2 + inverted] = new VignetteKernel(
+					WIDTH / 2f, HEIGHT / 2f, WIDTH * 0.4f, HEIGHT * 0.35f, c[0], c[1], c[2],
+					new FalloffTable(c[3], (int) c[4], inverted == 1));
+			}
+		}
+		return kernels;
+	}
+
+	/**
+	 * Random pixels, mostly opaque with some translucent ones
+	 */
+	private static int[] createPixels(int width, int height, long seed) {
+		final Random random = new Random(seed);
+		final int[] pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			final int alpha = random.nextInt(8) == 0 ? random.nextInt(256) : 255;
+			pixels[i] = (alpha << 24) | (random.nextInt() & 0xffffff);
+		}
+		return pixels;
+	}
+
+	private static void assertPixels(VectorVignetteKernel kernel, String path, int[] expected, int[] actual) {
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] != actual[i]) {
+				fail(String.format(
+					"%s (%s) at %dx%d: expected %08x, was %08x", kernel, path, i % WIDTH, i / WIDTH, expected[i],
+					actual[i]));
+			}
+		}
+	}
+}